@@ -0,0 +1,261 @@
+package de.pcfreak9000.nbt;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+//Insertion ordered storage of the entries of an NBTCompound. Keys and values are kept in parallel arrays, small maps
+//are searched linearly, larger ones through an open addressing table of positions. Removing shifts the later
+//entries, which is fine since compounds are rarely removed from.
+final class CompoundMap {
+    
+    //Up to this size a linear scan is faster than hashing
+    private static final int LINEAR_LIMIT = 8;
+    private static final int MIN_CAPACITY = 4;
+    
+    private static final VarHandle VALUE = MethodHandles.arrayElementVarHandle(NBTTag[].class);
+    
+    private static final String[] NO_KEYS = new String[0];
+    private static final NBTTag[] NO_VALUES = new NBTTag[0];
+    
+    private String[] keys;
+    private NBTTag[] values;
+    private int size;
+    //Position + 1 of the entry in each slot, 0 is free. Null while the map is small.
+    private int[] index;
+    private int modCount;
+    
+    CompoundMap() {
+        this.keys = NO_KEYS;
+        this.values = NO_VALUES;
+    }
+    
+    CompoundMap(int capacity) {
+        this.keys = capacity == 0 ? NO_KEYS : new String[capacity];
+        this.values = capacity == 0 ? NO_VALUES : new NBTTag[capacity];
+    }
+    
+    int size() {
+        return this.size;
+    }
+    
+    String keyAt(int position) {
+        return this.keys[position];
+    }
+    
+    //Pairs with publishValueAt, so values decoded by another thread are seen completely
+    NBTTag valueAt(int position) {
+        return (NBTTag) VALUE.getAcquire(this.values, position);
+    }
+    
+    //Replaces the value unless another thread did so first, returns the value that is in place afterwards. Doesn't
+    //change the structure, live iterators stay valid.
+    NBTTag publishValueAt(int position, NBTTag expected, NBTTag value) {
+        NBTTag witness = (NBTTag) VALUE.compareAndExchange(this.values, position, expected, value);
+        return witness == expected ? value : witness;
+    }
+    
+    int indexOf(String key) {
+        return indexOf(key, hash(key));
+    }
+    
+    int indexOf(String key, int hash) {
+        if (this.index == null) {
+            String[] keys = this.keys;
+            for (int i = 0; i < this.size; i++) {
+                if (key.equals(keys[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        int[] index = this.index;
+        int mask = index.length - 1;
+        for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+            int position = index[slot] - 1;
+            if (position < 0 || key.equals(this.keys[position])) {
+                return position;
+            }
+        }
+    }
+    
+    NBTTag get(String key) {
+        int position = indexOf(key);
+        return position < 0 ? null : this.values[position];
+    }
+    
+    NBTTag put(String key, NBTTag value) {
+        return put(key, hash(key), value);
+    }
+    
+    NBTTag put(String key, int hash, NBTTag value) {
+        int position = indexOf(key, hash);
+        if (position >= 0) {
+            NBTTag old = this.values[position];
+            this.values[position] = value;
+            return old;
+        }
+        if (this.size == this.keys.length) {
+            int capacity = Math.max(MIN_CAPACITY, this.size + (this.size >>> 1));
+            this.keys = Arrays.copyOf(this.keys, capacity);
+            this.values = Arrays.copyOf(this.values, capacity);
+        }
+        this.keys[this.size] = key;
+        this.values[this.size] = value;
+        this.size++;
+        this.modCount++;
+        if (this.index != null && this.size * 2 <= this.index.length) {
+            insert(this.index, hash, this.size - 1);
+        } else if (this.size > LINEAR_LIMIT) {
+            rebuildIndex();
+        }
+        return null;
+    }
+    
+    NBTTag remove(String key) {
+        int position = indexOf(key);
+        if (position < 0) {
+            return null;
+        }
+        NBTTag old = this.values[position];
+        removeAt(position);
+        return old;
+    }
+    
+    void removeAt(int position) {
+        int moved = this.size - position - 1;
+        System.arraycopy(this.keys, position + 1, this.keys, position, moved);
+        System.arraycopy(this.values, position + 1, this.values, position, moved);
+        this.size--;
+        this.keys[this.size] = null;
+        this.values[this.size] = null;
+        this.modCount++;
+        //The positions of all later entries changed
+        if (this.size > LINEAR_LIMIT) {
+            rebuildIndex();
+        } else {
+            this.index = null;
+        }
+    }
+    
+    void clear() {
+        Arrays.fill(this.keys, 0, this.size, null);
+        Arrays.fill(this.values, 0, this.size, null);
+        this.size = 0;
+        this.index = null;
+        this.modCount++;
+    }
+    
+    static int hash(String key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+    
+    //Keeps the table at most half full
+    private void rebuildIndex() {
+        int[] index = new int[Integer.highestOneBit(this.size * 2 - 1) << 1];
+        for (int i = 0; i < this.size; i++) {
+            insert(index, hash(this.keys[i]), i);
+        }
+        this.index = index;
+    }
+    
+    private static void insert(int[] index, int hash, int position) {
+        int mask = index.length - 1;
+        int slot = hash & mask;
+        while (index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = position + 1;
+    }
+    
+    //Read only views, entries are snapshots of the values at the time they are returned
+    
+    Set<Entry<String, NBTTag>> entrySet() {
+        return new AbstractSet<Entry<String, NBTTag>>() {
+            @Override
+            public Iterator<Entry<String, NBTTag>> iterator() {
+                return new Itr<Entry<String, NBTTag>>() {
+                    @Override
+                    Entry<String, NBTTag> get(int position) {
+                        return new AbstractMap.SimpleImmutableEntry<>(keys[position], values[position]);
+                    }
+                };
+            }
+            
+            @Override
+            public boolean contains(Object o) {
+                if (!(o instanceof Entry)) {
+                    return false;
+                }
+                Entry<?, ?> e = (Entry<?, ?>) o;
+                if (!(e.getKey() instanceof String)) {
+                    return false;
+                }
+                int position = indexOf((String) e.getKey());
+                return position >= 0 && Objects.equals(values[position], e.getValue());
+            }
+            
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+    
+    Set<String> keySet() {
+        return new AbstractSet<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return new Itr<String>() {
+                    @Override
+                    String get(int position) {
+                        return keys[position];
+                    }
+                };
+            }
+            
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof String && indexOf((String) o) >= 0;
+            }
+            
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+    
+    private abstract class Itr<T> implements Iterator<T> {
+        
+        private final int expectedModCount = modCount;
+        private int position;
+        
+        abstract T get(int position);
+        
+        @Override
+        public boolean hasNext() {
+            return this.position < size;
+        }
+        
+        @Override
+        public T next() {
+            if (modCount != this.expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (this.position >= size) {
+                throw new NoSuchElementException();
+            }
+            return get(this.position++);
+        }
+    }
+}
@@ -3,8 +3,8 @@ package de.pcfreak9000.nbt;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.zip.GZIPInputStream;
 
+import de.pcfreak9000.nbt.compression.CompressionCodec;
 import de.pcfreak9000.nbt.visitor.NBTValueVisitor;
 
 public class CompressedNbtReader implements Closeable {
@@ -12,7 +12,11 @@ public class CompressedNbtReader implements Closeable {
     private final NbtReader reader;
     
     public CompressedNbtReader(InputStream instream) throws IOException {
-        this.reader = new NbtReader(new GZIPInputStream(instream));
+        this(instream, CompressionCodec.gzip());
+    }
+    
+    public CompressedNbtReader(InputStream instream, CompressionCodec codec) throws IOException {
+        this.reader = new NbtReader(codec.decompress(instream));
     }
     
     public void applyVisitor(NBTValueVisitor visitor) throws IOException {
@@ -4,14 +4,18 @@ import java.io.Closeable;
 import java.io.Flushable;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.zip.GZIPOutputStream;
 
+import de.pcfreak9000.nbt.compression.CompressionCodec;
 import de.pcfreak9000.nbt.visitor.AbstractNBTValueVisitor;
 
 public class CompressedNbtWriter extends AbstractNBTValueVisitor implements Flushable, Closeable {
     
     public CompressedNbtWriter(OutputStream out) throws IOException {
-        super(new NbtWriter(new GZIPOutputStream(out)));
+        this(out, CompressionCodec.gzip());
+    }
+    
+    public CompressedNbtWriter(OutputStream out, CompressionCodec codec) throws IOException {
+        super(new NbtWriter(codec.compress(out)));
     }
     
     @Override
@@ -0,0 +1,54 @@
+package de.pcfreak9000.nbt;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Deque;
+
+import de.pcfreak9000.nbt.util.BufferNbtInput;
+import de.pcfreak9000.nbt.visitor.NBTValueVisitor;
+
+//Placeholder for a compound entry that has not been decoded yet, see NbtReader.toLazyCompoundTag()
+final class LazyTag extends NBTTag {
+    
+    private final BufferNbtInput source;
+    private final int offset;
+    
+    LazyTag(NBTType type, BufferNbtInput source, int offset) {
+        super(type);
+        this.source = source;
+        this.offset = offset;
+    }
+    
+    NBTTag decode() {
+        try {
+            return NbtReader.decodeLazy(source, offset, type());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    @Override
+    public void accept(NBTValueVisitor visitor) {
+        try {
+            NbtReader.applyVisitorLazy(source, offset, type(), visitor);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    @Override
+    long ownSize(Deque<NBTTag> children) {
+        BufferNbtInput input = source.at(offset);
+        try {
+            new PayloadSkipper(input).skipPayload(type());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return input.position() - offset;
+    }
+    
+    @Override
+    public NBTTag cpy() {
+        return decode().cpy();
+    }
+}
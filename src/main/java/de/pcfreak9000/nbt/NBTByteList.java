@@ -0,0 +1,93 @@
+package de.pcfreak9000.nbt;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import de.pcfreak9000.nbt.visitor.NBTPrimitiveListVisitor;
+
+public class NBTByteList extends NBTPrimitiveList {
+    
+    public static NBTByteList of(byte... values) {
+        NBTByteList l = new NBTByteList(0);
+        l.append(values.clone());
+        return l;
+    }
+    
+    private byte[] values;
+    
+    public NBTByteList() {
+        this(DEFAULT_CAPACITY);
+    }
+    
+    public NBTByteList(int capacity) {
+        super(NBTType.Byte);
+        this.values = new byte[capacity];
+    }
+    
+    @Override
+    public NBTByteList cpy() {
+        NBTByteList l = new NBTByteList(this.size);
+        System.arraycopy(this.values, 0, l.values, 0, this.size);
+        l.size = this.size;
+        return l;
+    }
+    
+    @Override
+    public void addByte(byte b) {
+        if (this.size == this.values.length) {
+            ensureCapacity(this.size + 1);
+        }
+        this.values[this.size++] = b;
+    }
+    
+    @Override
+    public void add(NBTTag tag) {
+        Objects.requireNonNull(tag);
+        check(tag.type());
+        addByte(tag instanceof SmartIntEntry ? (byte) ((SmartIntEntry) tag).getSmartInt() : ((ByteEntry) tag).getByte());
+    }
+    
+    @Override
+    public byte getByte(int index) {
+        checkIndex(index);
+        return this.values[index];
+    }
+    
+    public void setByte(int index, byte b) {
+        checkIndex(index);
+        this.values[index] = b;
+    }
+    
+    public byte[] toByteArray() {
+        return Arrays.copyOf(this.values, this.size);
+    }
+    
+    @Override
+    public void ensureCapacity(int capacity) {
+        if (capacity > this.values.length) {
+            this.values = Arrays.copyOf(this.values, grow(this.values.length, capacity));
+        }
+    }
+    
+    //Takes ownership of the array if the list is empty
+    void append(byte[] ar) {
+        if (this.size == 0) {
+            this.values = ar;
+        } else {
+            ensureCapacity(this.size + ar.length);
+            System.arraycopy(ar, 0, this.values, this.size, ar.length);
+        }
+        this.size += ar.length;
+    }
+    
+    @Override
+    protected NBTTag entry(int index) {
+        return new ByteEntry(this.values[index]);
+    }
+    
+    @Override
+    boolean visitPrimitives(NBTPrimitiveListVisitor visitor) {
+        visitor.visitByteList(toByteArray());
+        return true;
+    }
+}
@@ -1,52 +1,65 @@
 package de.pcfreak9000.nbt;
 
-import java.util.Collections;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.Deque;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
 
+/**
+ * Names are validated whenever entries are put or read by name. The overloads taking an {@link NbtKey} skip that and
+ * use the precomputed hash of the key.
+ */
 public class NBTCompound extends NBTTag {
     
-    private static final String NAME_REGEX = "^[\\w\\d][\\w\\d ]*$";
-    
-    private Map<String, NBTTag> entries;
-    private Map<String, NBTTag> entriesImmutable;
+    private final CompoundMap entries;
+    //Cleared once all entries are decoded, volatile so threads that see it cleared also see the decoded entries
+    private volatile boolean lazyEntries;
     
     public NBTCompound() {
         super(NBTType.Compound);
-        this.entries = new LinkedHashMap<>();
-        this.entriesImmutable = Collections.unmodifiableMap(this.entries);
+        this.entries = new CompoundMap();
+    }
+    
+    private NBTCompound(int capacity) {
+        super(NBTType.Compound);
+        this.entries = new CompoundMap(capacity);
     }
     
     @Override
     public NBTCompound cpy() {
-        NBTCompound c = new NBTCompound();
-        for (Map.Entry<String, NBTTag> e : this.entries.entrySet()) {
-            c.put(e.getKey(), e.getValue().cpy());
+        NBTCompound c = new NBTCompound(this.entries.size());
+        for (int i = 0; i < this.entries.size(); i++) {
+            c.entries.put(this.entries.keyAt(i), this.entries.valueAt(i).cpy());
         }
         return c;
     }
     
     public boolean isEmpty() {
-        return entries.isEmpty();
+        return entries.size() == 0;
     }
     
     public boolean hasKey(String name) {
-        return entries.containsKey(name);
+        return entries.indexOf(name) >= 0;
+    }
+    
+    public boolean hasKey(NbtKey key) {
+        return entries.indexOf(key.name(), key.hash) >= 0;
     }
     
     public NBTTag remove(String name) {
-        return entries.remove(name);
+        return decoded(entries.remove(name));
+    }
+    
+    public NBTTag remove(NbtKey key) {
+        return removeAt(entries.indexOf(key.name(), key.hash), null);
     }
     
     public NBTTag remove(String name, NBTType type) {
-        NBTTag tag = entries.get(name);
-        if (tag != null && tag.type() == type) {
-            return entries.remove(name);
-        }
-        return null;
+        return removeAt(entries.indexOf(name), type);
+    }
+    
+    public NBTTag remove(NbtKey key, NBTType type) {
+        return removeAt(entries.indexOf(key.name(), key.hash), type);
     }
     
     public void removeAll() {
@@ -57,394 +70,580 @@ public class NBTCompound extends NBTTag {
         this.put(name, compound);
     }
     
+    public void putCompound(NbtKey key, NBTCompound compound) {
+        this.put(key, compound);
+    }
+    
     public void putList(String name, NBTList list) {
         this.put(name, list);
     }
     
+    public void putList(NbtKey key, NBTList list) {
+        this.put(key, list);
+    }
+    
     public void put(String name, NBTTag entry) {
-        checkNameValid(name);
+        NbtKey.checkValid(name);
         Objects.requireNonNull(entry);
         entries.put(name, entry);
     }
     
+    public void put(NbtKey key, NBTTag entry) {
+        Objects.requireNonNull(entry);
+        entries.put(key.name(), key.hash, entry);
+    }
+    
     public void putByte(String name, byte i) {
-        checkNameValid(name);
+        NbtKey.checkValid(name);
         entries.put(name, new NBTTag.ByteEntry(i));
     }
     
+    public void putByte(NbtKey key, byte i) {
+        entries.put(key.name(), key.hash, new NBTTag.ByteEntry(i));
+    }
+    
     public void putShort(String name, short i) {
-        checkNameValid(name);
+        NbtKey.checkValid(name);
         entries.put(name, new NBTTag.ShortEntry(i));
     }
     
+    public void putShort(NbtKey key, short i) {
+        entries.put(key.name(), key.hash, new NBTTag.ShortEntry(i));
+    }
+    
     public void putInt(String name, int i) {
-        checkNameValid(name);
+        NbtKey.checkValid(name);
         entries.put(name, new NBTTag.IntEntry(i));
     }
     
+    public void putInt(NbtKey key, int i) {
+        entries.put(key.name(), key.hash, new NBTTag.IntEntry(i));
+    }
+    
     public void putLong(String name, long i) {
-        checkNameValid(name);
+        NbtKey.checkValid(name);
         entries.put(name, new NBTTag.LongEntry(i));
     }
     
+    public void putLong(NbtKey key, long i) {
+        entries.put(key.name(), key.hash, new NBTTag.LongEntry(i));
+    }
+    
     public void putFloat(String name, float i) {
-        checkNameValid(name);
+        NbtKey.checkValid(name);
         entries.put(name, new NBTTag.FloatEntry(i));
     }
     
+    public void putFloat(NbtKey key, float i) {
+        entries.put(key.name(), key.hash, new NBTTag.FloatEntry(i));
+    }
+    
     public void putDouble(String name, double i) {
-        checkNameValid(name);
+        NbtKey.checkValid(name);
         entries.put(name, new NBTTag.DoubleEntry(i));
     }
     
+    public void putDouble(NbtKey key, double i) {
+        entries.put(key.name(), key.hash, new NBTTag.DoubleEntry(i));
+    }
+    
     public void putString(String name, String string) {
-        checkNameValid(name);
+        NbtKey.checkValid(name);
         Objects.requireNonNull(string);
         entries.put(name, new NBTTag.StringEntry(string));
     }
     
+    public void putString(NbtKey key, String string) {
+        Objects.requireNonNull(string);
+        entries.put(key.name(), key.hash, new NBTTag.StringEntry(string));
+    }
+    
     public void putByteArray(String name, byte[] immutableBytes) {
-        checkNameValid(name);
+        NbtKey.checkValid(name);
         Objects.requireNonNull(immutableBytes);
         entries.put(name, new ByteArrayEntry(immutableBytes));
     }
     
+    public void putByteArray(NbtKey key, byte[] immutableBytes) {
+        Objects.requireNonNull(immutableBytes);
+        entries.put(key.name(), key.hash, new ByteArrayEntry(immutableBytes));
+    }
+    
     public void putIntArray(String name, int[] immutableints) {
-        checkNameValid(name);
+        NbtKey.checkValid(name);
         Objects.requireNonNull(immutableints);
         entries.put(name, new IntArrayEntry(immutableints));
     }
     
+    public void putIntArray(NbtKey key, int[] immutableints) {
+        Objects.requireNonNull(immutableints);
+        entries.put(key.name(), key.hash, new IntArrayEntry(immutableints));
+    }
+    
     public void putLongArray(String name, long[] immutablelongs) {
-        checkNameValid(name);
+        NbtKey.checkValid(name);
         Objects.requireNonNull(immutablelongs);
         entries.put(name, new LongArrayEntry(immutablelongs));
     }
     
+    public void putLongArray(NbtKey key, long[] immutablelongs) {
+        Objects.requireNonNull(immutablelongs);
+        entries.put(key.name(), key.hash, new LongArrayEntry(immutablelongs));
+    }
+    
     public void putIntegerSmart(String name, long value) {
-        if (value == (byte) value) {
-            putByte(name, (byte) value);
-        } else if (value == (short) value) {
-            putShort(name, (short) value);
-        } else if (value == (int) value) {
-            putInt(name, (int) value);
-        } else {
-            putLong(name, value);
-        }
+        NbtKey.checkValid(name);
+        entries.put(name, smallestInteger(value));
+    }
+    
+    public void putIntegerSmart(NbtKey key, long value) {
+        entries.put(key.name(), key.hash, smallestInteger(value));
     }
     
     public long getIntegerSmart(String name) {
-        NBTTag t = get(name);
-        if (t instanceof NBTTag.ByteEntry) {
-            return getByte(name);
-        } else if (t instanceof NBTTag.ShortEntry) {
-            return getShort(name);
-        } else if (t instanceof NBTTag.IntEntry) {
-            return getInt(name);
-        } else {
-            return getLong(name);
-        }
+        return asIntegerSmart(lookup(name));
+    }
+    
+    public long getIntegerSmart(NbtKey key) {
+        return asIntegerSmart(lookup(key));
     }
     
     public long getIntegerSmartOrDefault(String name, long def) {
-        checkNameValid(name);
-        NBTTag t = entries.get(name);
-        if (t == null) {
-            return def;
-        }
-        if (t instanceof NBTTag.ByteEntry) {
-            return getByte(name);
-        } else if (t instanceof NBTTag.ShortEntry) {
-            return getShort(name);
-        } else if (t instanceof NBTTag.IntEntry) {
-            return getInt(name);
-        } else {
-            return getLong(name);
-        }
+        NBTTag t = lookup(name);
+        return t == null ? def : asIntegerSmart(t);
+    }
+    
+    public long getIntegerSmartOrDefault(NbtKey key, long def) {
+        NBTTag t = lookup(key);
+        return t == null ? def : asIntegerSmart(t);
     }
     
     public void putBooleanAsByte(String name, boolean b) {
         putByte(name, b ? (byte) 1 : 0);
     }
     
+    public void putBooleanAsByte(NbtKey key, boolean b) {
+        putByte(key, b ? (byte) 1 : 0);
+    }
+    
     public NBTTag get(String name) {
-        checkNameValid(name);
-        NBTTag tag = entries.get(name);
-        if (tag != null) {
-            return tag;
-        }
-        throw new NBTTypeException(EXCEPTION_NOTEXIST_INCORRECTTYPE_TEXT);
+        return exists(lookup(name));
+    }
+    
+    public NBTTag get(NbtKey key) {
+        return exists(lookup(key));
     }
     
     public NBTTag getOrDefault(String name, NBTTag def) {
-        checkNameValid(name);
-        NBTTag tag = entries.get(name);
-        if (tag != null) {
-            return tag;
-        }
-        return def;
+        NBTTag tag = lookup(name);
+        return tag == null ? def : tag;
+    }
+    
+    public NBTTag getOrDefault(NbtKey key, NBTTag def) {
+        NBTTag tag = lookup(key);
+        return tag == null ? def : tag;
     }
     
     public NBTCompound getCompound(String name) {
-        checkNameValid(name);
-        NBTTag de = entries.get(name);
-        if (de instanceof NBTCompound) {
-            return (NBTCompound) de;
-        }
-        throw new NBTTypeException(EXCEPTION_NOTEXIST_INCORRECTTYPE_TEXT);
+        return asCompound(lookup(name));
+    }
+    
+    public NBTCompound getCompound(NbtKey key) {
+        return asCompound(lookup(key));
     }
     
     public NBTCompound getCompoundOrDefault(String name, NBTCompound def) {
-        checkNameValid(name);
-        NBTTag de = entries.get(name);
-        if (de instanceof NBTCompound) {
-            return (NBTCompound) de;
-        }
-        if (de == null) {
-            return def;
-        }
-        throw new NBTTypeException(EXCEPTION_NOTEXIST_INCORRECTTYPE_TEXT);
+        NBTTag de = lookup(name);
+        return de == null ? def : asCompound(de);
+    }
+    
+    public NBTCompound getCompoundOrDefault(NbtKey key, NBTCompound def) {
+        NBTTag de = lookup(key);
+        return de == null ? def : asCompound(de);
     }
     
     public NBTList getList(String name) {
-        checkNameValid(name);
-        NBTTag de = entries.get(name);
-        if (de instanceof NBTList) {
-            return (NBTList) de;
-        }
-        throw new NBTTypeException(EXCEPTION_NOTEXIST_INCORRECTTYPE_TEXT);
+        return asList(lookup(name));
+    }
+    
+    public NBTList getList(NbtKey key) {
+        return asList(lookup(key));
     }
     
     public NBTList getListOrDefault(String name, NBTList def) {
-        checkNameValid(name);
-        NBTTag de = entries.get(name);
-        if (de instanceof NBTList) {
-            return (NBTList) de;
-        }
-        if (de == null) {
-            return def;
-        }
-        throw new NBTTypeException(EXCEPTION_NOTEXIST_INCORRECTTYPE_TEXT);
+        NBTTag de = lookup(name);
+        return de == null ? def : asList(de);
+    }
+    
+    public NBTList getListOrDefault(NbtKey key, NBTList def) {
+        NBTTag de = lookup(key);
+        return de == null ? def : asList(de);
     }
     
     public String getString(String name) {
-        checkNameValid(name);
-        NBTTag de = entries.get(name);
-        if (de instanceof NBTTag.StringEntry) {
-            NBTTag.StringEntry se = (NBTTag.StringEntry) de;
-            return se.getString();
-        }
-        throw new NBTTypeException(EXCEPTION_NOTEXIST_INCORRECTTYPE_TEXT);
+        return asString(lookup(name));
+    }
+    
+    public String getString(NbtKey key) {
+        return asString(lookup(key));
     }
     
     public String getStringOrDefault(String name, String def) {
-        checkNameValid(name);
-        NBTTag de = entries.get(name);
-        if (de instanceof NBTTag.StringEntry) {
-            NBTTag.StringEntry se = (NBTTag.StringEntry) de;
-            return se.getString();
-        }
-        if (de == null) {
-            return def;
-        }
-        throw new NBTTypeException(EXCEPTION_NOTEXIST_INCORRECTTYPE_TEXT);
+        NBTTag de = lookup(name);
+        return de == null ? def : asString(de);
+    }
+    
+    public String getStringOrDefault(NbtKey key, String def) {
+        NBTTag de = lookup(key);
+        return de == null ? def : asString(de);
     }
     
     public byte getByte(String name) {
-        checkNameValid(name);
-        NBTTag de = entries.get(name);
-        if (de instanceof NBTTag.ByteEntry) {
-            NBTTag.ByteEntry ie = (NBTTag.ByteEntry) de;
-            return ie.getByte();
-        }
-        throw new NBTTypeException(EXCEPTION_NOTEXIST_INCORRECTTYPE_TEXT);
+        return asByte(lookup(name));
+    }
+    
+    public byte getByte(NbtKey key) {
+        return asByte(lookup(key));
     }
     
     public boolean getBooleanFromByte(String name) {
         return getByte(name) != 0;
     }
     
+    public boolean getBooleanFromByte(NbtKey key) {
+        return getByte(key) != 0;
+    }
+    
     public boolean getBooleanFromByteOrDefault(String name, boolean b) {
         return getByteOrDefault(name, b ? (byte) 1 : 0) != 0;
     }
     
+    public boolean getBooleanFromByteOrDefault(NbtKey key, boolean b) {
+        return getByteOrDefault(key, b ? (byte) 1 : 0) != 0;
+    }
+    
     public byte getByteOrDefault(String name, byte def) {
-        checkNameValid(name);
-        NBTTag de = entries.get(name);
-        if (de instanceof NBTTag.ByteEntry) {
-            NBTTag.ByteEntry ie = (NBTTag.ByteEntry) de;
-            return ie.getByte();
+        NBTTag de = lookup(name);
+        return de == null ? def : asByte(de);
+    }
+    
+    public byte getByteOrDefault(NbtKey key, byte def) {
+        NBTTag de = lookup(key);
+        return de == null ? def : asByte(de);
+    }
+    
+    public short getShort(String name) {
+        return asShort(lookup(name));
+    }
+    
+    public short getShort(NbtKey key) {
+        return asShort(lookup(key));
+    }
+    
+    public short getShortOrDefault(String name, short def) {
+        NBTTag de = lookup(name);
+        return de == null ? def : asShort(de);
+    }
+    
+    public short getShortOrDefault(NbtKey key, short def) {
+        NBTTag de = lookup(key);
+        return de == null ? def : asShort(de);
+    }
+    
+    public int getInt(String name) {
+        return asInt(lookup(name));
+    }
+    
+    public int getInt(NbtKey key) {
+        return asInt(lookup(key));
+    }
+    
+    public int getIntOrDefault(String name, int def) {
+        NBTTag de = lookup(name);
+        return de == null ? def : asInt(de);
+    }
+    
+    public int getIntOrDefault(NbtKey key, int def) {
+        NBTTag de = lookup(key);
+        return de == null ? def : asInt(de);
+    }
+    
+    public long getLong(String name) {
+        return asLong(lookup(name));
+    }
+    
+    public long getLong(NbtKey key) {
+        return asLong(lookup(key));
+    }
+    
+    public long getLongOrDefault(String name, long def) {
+        NBTTag de = lookup(name);
+        return de == null ? def : asLong(de);
+    }
+    
+    public long getLongOrDefault(NbtKey key, long def) {
+        NBTTag de = lookup(key);
+        return de == null ? def : asLong(de);
+    }
+    
+    public float getFloat(String name) {
+        return asFloat(lookup(name));
+    }
+    
+    public float getFloat(NbtKey key) {
+        return asFloat(lookup(key));
+    }
+    
+    public float getFloatOrDefault(String name, float def) {
+        NBTTag de = lookup(name);
+        return de == null ? def : asFloat(de);
+    }
+    
+    public float getFloatOrDefault(NbtKey key, float def) {
+        NBTTag de = lookup(key);
+        return de == null ? def : asFloat(de);
+    }
+    
+    public double getDouble(String name) {
+        return asDouble(lookup(name));
+    }
+    
+    public double getDouble(NbtKey key) {
+        return asDouble(lookup(key));
+    }
+    
+    public double getDoubleOrDefault(String name, double def) {
+        NBTTag de = lookup(name);
+        return de == null ? def : asDouble(de);
+    }
+    
+    public double getDoubleOrDefault(NbtKey key, double def) {
+        NBTTag de = lookup(key);
+        return de == null ? def : asDouble(de);
+    }
+    
+    public byte[] getByteArray(String string) {
+        return asByteArray(lookup(string));
+    }
+    
+    public byte[] getByteArray(NbtKey key) {
+        return asByteArray(lookup(key));
+    }
+    
+    public int[] getIntArray(String string) {
+        return asIntArray(lookup(string));
+    }
+    
+    public int[] getIntArray(NbtKey key) {
+        return asIntArray(lookup(key));
+    }
+    
+    public long[] getLongArray(String string) {
+        return asLongArray(lookup(string));
+    }
+    
+    public long[] getLongArray(NbtKey key) {
+        return asLongArray(lookup(key));
+    }
+    
+    public Set<Entry<String, NBTTag>> entrySet() {
+        decodeAll();
+        return entries.entrySet();
+    }
+    
+    public Set<String> keySet() {
+        return entries.keySet();
+    }
+    
+    //Positional access for TagReader, which avoids the entry objects of entrySet()
+    int entryCount() {
+        return entries.size();
+    }
+    
+    String keyAt(int position) {
+        return entries.keyAt(position);
+    }
+    
+    NBTTag valueAt(int position) {
+        NBTTag tag = entries.valueAt(position);
+        if (tag instanceof LazyTag) {
+            //Concurrent readers might decode the entry as well, all of them return the instance published first
+            tag = entries.publishValueAt(position, tag, ((LazyTag) tag).decode());
         }
-        if (de == null) {
-            return def;
+        return tag;
+    }
+    
+    @Override
+    long ownSize(Deque<NBTTag> children) {
+        //type and name of each entry plus the end tag, lazy entries are measured without decoding them
+        long size = Byte.BYTES;
+        for (int i = 0; i < entries.size(); i++) {
+            size += Byte.BYTES + Short.BYTES + utf8Length(entries.keyAt(i));
+            children.add(entries.valueAt(i));
         }
-        throw new NBTTypeException(EXCEPTION_NOTEXIST_INCORRECTTYPE_TEXT);
+        return size;
     }
     
-    public short getShort(String name) {
-        checkNameValid(name);
-        NBTTag de = entries.get(name);
-        if (de instanceof NBTTag.ShortEntry) {
-            NBTTag.ShortEntry ie = (NBTTag.ShortEntry) de;
-            return ie.getShort();
+    void putLazy(String name, LazyTag entry) {
+        NbtKey.checkValid(name);
+        entries.put(name, entry);
+        lazyEntries = true;
+    }
+    
+    private NBTTag lookup(String name) {
+        NbtKey.checkValid(name);
+        int position = entries.indexOf(name);
+        return position < 0 ? null : valueAt(position);
+    }
+    
+    private NBTTag lookup(NbtKey key) {
+        int position = entries.indexOf(key.name(), key.hash);
+        return position < 0 ? null : valueAt(position);
+    }
+    
+    //Removes the entry at the position if it has the type, or any type if null
+    private NBTTag removeAt(int position, NBTType type) {
+        if (position < 0) {
+            return null;
         }
-        throw new NBTTypeException(EXCEPTION_NOTEXIST_INCORRECTTYPE_TEXT);
+        NBTTag tag = entries.valueAt(position);
+        if (type != null && tag.type() != type) {
+            return null;
+        }
+        entries.removeAt(position);
+        return decoded(tag);
     }
     
-    public short getShortOrDefault(String name, short def) {
-        checkNameValid(name);
-        NBTTag de = entries.get(name);
-        if (de instanceof NBTTag.ShortEntry) {
-            NBTTag.ShortEntry ie = (NBTTag.ShortEntry) de;
-            return ie.getShort();
+    private void decodeAll() {
+        if (lazyEntries) {
+            for (int i = 0; i < entries.size(); i++) {
+                valueAt(i);
+            }
+            lazyEntries = false;
         }
-        if (de == null) {
-            return def;
+    }
+    
+    private static NBTTag decoded(NBTTag tag) {
+        return tag instanceof LazyTag ? ((LazyTag) tag).decode() : tag;
+    }
+    
+    private static NBTTag smallestInteger(long value) {
+        if (value == (byte) value) {
+            return new NBTTag.ByteEntry((byte) value);
+        } else if (value == (short) value) {
+            return new NBTTag.ShortEntry((short) value);
+        } else if (value == (int) value) {
+            return new NBTTag.IntEntry((int) value);
+        } else {
+            return new NBTTag.LongEntry(value);
         }
-        throw new NBTTypeException(EXCEPTION_NOTEXIST_INCORRECTTYPE_TEXT);
     }
     
-    public int getInt(String name) {
-        checkNameValid(name);
-        NBTTag de = entries.get(name);
-        if (de instanceof NBTTag.IntEntry) {
-            NBTTag.IntEntry ie = (NBTTag.IntEntry) de;
-            return ie.getInt();
+    //The accessors below throw if the tag is missing (null) or of another type
+    
+    private static NBTTag exists(NBTTag tag) {
+        if (tag != null) {
+            return tag;
         }
         throw new NBTTypeException(EXCEPTION_NOTEXIST_INCORRECTTYPE_TEXT);
     }
     
-    public int getIntOrDefault(String name, int def) {
-        checkNameValid(name);
-        NBTTag de = entries.get(name);
-        if (de instanceof NBTTag.IntEntry) {
-            NBTTag.IntEntry ie = (NBTTag.IntEntry) de;
-            return ie.getInt();
+    private static long asIntegerSmart(NBTTag t) {
+        if (t instanceof NBTTag.ByteEntry) {
+            return ((NBTTag.ByteEntry) t).getByte();
+        } else if (t instanceof NBTTag.ShortEntry) {
+            return ((NBTTag.ShortEntry) t).getShort();
+        } else if (t instanceof NBTTag.IntEntry) {
+            return ((NBTTag.IntEntry) t).getInt();
+        } else {
+            return asLong(t);
         }
-        if (de == null) {
-            return def;
+    }
+    
+    private static NBTCompound asCompound(NBTTag de) {
+        if (de instanceof NBTCompound) {
+            return (NBTCompound) de;
         }
         throw new NBTTypeException(EXCEPTION_NOTEXIST_INCORRECTTYPE_TEXT);
     }
     
-    public long getLong(String name) {
-        checkNameValid(name);
-        NBTTag de = entries.get(name);
-        if (de instanceof NBTTag.LongEntry) {
-            NBTTag.LongEntry le = (NBTTag.LongEntry) de;
-            return le.getLong();
+    private static NBTList asList(NBTTag de) {
+        if (de instanceof NBTList) {
+            return (NBTList) de;
         }
         throw new NBTTypeException(EXCEPTION_NOTEXIST_INCORRECTTYPE_TEXT);
     }
     
-    public long getLongOrDefault(String name, long def) {
-        checkNameValid(name);
-        NBTTag de = entries.get(name);
-        if (de instanceof NBTTag.LongEntry) {
-            NBTTag.LongEntry le = (NBTTag.LongEntry) de;
-            return le.getLong();
+    private static String asString(NBTTag de) {
+        if (de instanceof NBTTag.StringEntry) {
+            return ((NBTTag.StringEntry) de).getString();
         }
-        if (de == null) {
-            return def;
+        throw new NBTTypeException(EXCEPTION_NOTEXIST_INCORRECTTYPE_TEXT);
+    }
+    
+    private static byte asByte(NBTTag de) {
+        if (de instanceof NBTTag.ByteEntry) {
+            return ((NBTTag.ByteEntry) de).getByte();
         }
         throw new NBTTypeException(EXCEPTION_NOTEXIST_INCORRECTTYPE_TEXT);
-        
     }
     
-    public float getFloat(String name) {
-        checkNameValid(name);
-        NBTTag de = entries.get(name);
-        if (de instanceof NBTTag.FloatEntry) {
-            NBTTag.FloatEntry ie = (NBTTag.FloatEntry) de;
-            return ie.getFloat();
+    private static short asShort(NBTTag de) {
+        if (de instanceof NBTTag.ShortEntry) {
+            return ((NBTTag.ShortEntry) de).getShort();
         }
         throw new NBTTypeException(EXCEPTION_NOTEXIST_INCORRECTTYPE_TEXT);
     }
     
-    public float getFloatOrDefault(String name, float def) {
-        checkNameValid(name);
-        NBTTag de = entries.get(name);
-        if (de instanceof NBTTag.FloatEntry) {
-            NBTTag.FloatEntry ie = (NBTTag.FloatEntry) de;
-            return ie.getFloat();
+    private static int asInt(NBTTag de) {
+        if (de instanceof NBTTag.IntEntry) {
+            return ((NBTTag.IntEntry) de).getInt();
         }
-        if (de == null) {
-            return def;
+        throw new NBTTypeException(EXCEPTION_NOTEXIST_INCORRECTTYPE_TEXT);
+    }
+    
+    private static long asLong(NBTTag de) {
+        if (de instanceof NBTTag.LongEntry) {
+            return ((NBTTag.LongEntry) de).getLong();
         }
         throw new NBTTypeException(EXCEPTION_NOTEXIST_INCORRECTTYPE_TEXT);
     }
     
-    public double getDouble(String name) {
-        checkNameValid(name);
-        NBTTag de = entries.get(name);
-        if (de instanceof NBTTag.DoubleEntry) {
-            NBTTag.DoubleEntry ie = (NBTTag.DoubleEntry) de;
-            return ie.getDouble();
+    private static float asFloat(NBTTag de) {
+        if (de instanceof NBTTag.FloatEntry) {
+            return ((NBTTag.FloatEntry) de).getFloat();
         }
         throw new NBTTypeException(EXCEPTION_NOTEXIST_INCORRECTTYPE_TEXT);
     }
     
-    public double getDoubleOrDefault(String name, double def) {
-        checkNameValid(name);
-        NBTTag de = entries.get(name);
+    private static double asDouble(NBTTag de) {
         if (de instanceof NBTTag.DoubleEntry) {
-            NBTTag.DoubleEntry ie = (NBTTag.DoubleEntry) de;
-            return ie.getDouble();
-        }
-        if (de == null) {
-            return def;
+            return ((NBTTag.DoubleEntry) de).getDouble();
         }
         throw new NBTTypeException(EXCEPTION_NOTEXIST_INCORRECTTYPE_TEXT);
     }
     
-    public byte[] getByteArray(String string) {
-        checkNameValid(string);
-        NBTTag t = entries.get(string);
+    private static byte[] asByteArray(NBTTag t) {
         if (t instanceof ByteArrayEntry) {
-            ByteArrayEntry bae = (ByteArrayEntry) t;
-            return bae.getBytes();
+            return ((ByteArrayEntry) t).getBytes();
         }
         throw new NBTTypeException(EXCEPTION_NOTEXIST_INCORRECTTYPE_TEXT);
     }
     
-    public int[] getIntArray(String string) {
-        checkNameValid(string);
-        NBTTag t = entries.get(string);
+    private static int[] asIntArray(NBTTag t) {
         if (t instanceof IntArrayEntry) {
-            IntArrayEntry bae = (IntArrayEntry) t;
-            return bae.getInts();
+            return ((IntArrayEntry) t).getInts();
         }
         throw new NBTTypeException(EXCEPTION_NOTEXIST_INCORRECTTYPE_TEXT);
     }
     
-    public long[] getLongArray(String string) {
-        checkNameValid(string);
-        NBTTag t = entries.get(string);
+    private static long[] asLongArray(NBTTag t) {
         if (t instanceof LongArrayEntry) {
-            LongArrayEntry bae = (LongArrayEntry) t;
-            return bae.getLongs();
+            return ((LongArrayEntry) t).getLongs();
         }
         throw new NBTTypeException(EXCEPTION_NOTEXIST_INCORRECTTYPE_TEXT);
     }
     
-    public Set<Entry<String, NBTTag>> entrySet() {
-        return entriesImmutable.entrySet();
-    }
-    
-    public Set<String> keySet() {
-        return entriesImmutable.keySet();
-    }
-    
     private static final String EXCEPTION_NOTEXIST_INCORRECTTYPE_TEXT = "Entry does not exist or is not of the requested type";
     
-    private void checkNameValid(String name) {
-        Objects.requireNonNull(name);
-        if (name.isEmpty() || name.isBlank()) {
-            throw new IllegalArgumentException("Name is empty or blank");
-        }
-        if (!name.matches(NAME_REGEX)) {
-            throw new IllegalArgumentException("Name containes illegal characters: " + name);
-        }
-    }
-    
 }
@@ -0,0 +1,93 @@
+package de.pcfreak9000.nbt;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import de.pcfreak9000.nbt.visitor.NBTPrimitiveListVisitor;
+
+public class NBTDoubleList extends NBTPrimitiveList {
+    
+    public static NBTDoubleList of(double... values) {
+        NBTDoubleList l = new NBTDoubleList(0);
+        l.append(values.clone());
+        return l;
+    }
+    
+    private double[] values;
+    
+    public NBTDoubleList() {
+        this(DEFAULT_CAPACITY);
+    }
+    
+    public NBTDoubleList(int capacity) {
+        super(NBTType.Double);
+        this.values = new double[capacity];
+    }
+    
+    @Override
+    public NBTDoubleList cpy() {
+        NBTDoubleList l = new NBTDoubleList(this.size);
+        System.arraycopy(this.values, 0, l.values, 0, this.size);
+        l.size = this.size;
+        return l;
+    }
+    
+    @Override
+    public void addDouble(double d) {
+        if (this.size == this.values.length) {
+            ensureCapacity(this.size + 1);
+        }
+        this.values[this.size++] = d;
+    }
+    
+    @Override
+    public void add(NBTTag tag) {
+        Objects.requireNonNull(tag);
+        check(tag.type());
+        addDouble(((DoubleEntry) tag).getDouble());
+    }
+    
+    @Override
+    public double getDouble(int index) {
+        checkIndex(index);
+        return this.values[index];
+    }
+    
+    public void setDouble(int index, double d) {
+        checkIndex(index);
+        this.values[index] = d;
+    }
+    
+    public double[] toDoubleArray() {
+        return Arrays.copyOf(this.values, this.size);
+    }
+    
+    @Override
+    public void ensureCapacity(int capacity) {
+        if (capacity > this.values.length) {
+            this.values = Arrays.copyOf(this.values, grow(this.values.length, capacity));
+        }
+    }
+    
+    //Takes ownership of the array if the list is empty
+    void append(double[] ar) {
+        if (this.size == 0) {
+            this.values = ar;
+        } else {
+            ensureCapacity(this.size + ar.length);
+            System.arraycopy(ar, 0, this.values, this.size, ar.length);
+        }
+        this.size += ar.length;
+    }
+    
+    @Override
+    protected NBTTag entry(int index) {
+        return new DoubleEntry(this.values[index]);
+    }
+    
+    @Override
+    boolean visitPrimitives(NBTPrimitiveListVisitor visitor) {
+        visitor.visitDoubleList(toDoubleArray());
+        return true;
+    }
+}
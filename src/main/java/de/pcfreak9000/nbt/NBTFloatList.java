@@ -0,0 +1,93 @@
+package de.pcfreak9000.nbt;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import de.pcfreak9000.nbt.visitor.NBTPrimitiveListVisitor;
+
+public class NBTFloatList extends NBTPrimitiveList {
+    
+    public static NBTFloatList of(float... values) {
+        NBTFloatList l = new NBTFloatList(0);
+        l.append(values.clone());
+        return l;
+    }
+    
+    private float[] values;
+    
+    public NBTFloatList() {
+        this(DEFAULT_CAPACITY);
+    }
+    
+    public NBTFloatList(int capacity) {
+        super(NBTType.Float);
+        this.values = new float[capacity];
+    }
+    
+    @Override
+    public NBTFloatList cpy() {
+        NBTFloatList l = new NBTFloatList(this.size);
+        System.arraycopy(this.values, 0, l.values, 0, this.size);
+        l.size = this.size;
+        return l;
+    }
+    
+    @Override
+    public void addFloat(float f) {
+        if (this.size == this.values.length) {
+            ensureCapacity(this.size + 1);
+        }
+        this.values[this.size++] = f;
+    }
+    
+    @Override
+    public void add(NBTTag tag) {
+        Objects.requireNonNull(tag);
+        check(tag.type());
+        addFloat(((FloatEntry) tag).getFloat());
+    }
+    
+    @Override
+    public float getFloat(int index) {
+        checkIndex(index);
+        return this.values[index];
+    }
+    
+    public void setFloat(int index, float f) {
+        checkIndex(index);
+        this.values[index] = f;
+    }
+    
+    public float[] toFloatArray() {
+        return Arrays.copyOf(this.values, this.size);
+    }
+    
+    @Override
+    public void ensureCapacity(int capacity) {
+        if (capacity > this.values.length) {
+            this.values = Arrays.copyOf(this.values, grow(this.values.length, capacity));
+        }
+    }
+    
+    //Takes ownership of the array if the list is empty
+    void append(float[] ar) {
+        if (this.size == 0) {
+            this.values = ar;
+        } else {
+            ensureCapacity(this.size + ar.length);
+            System.arraycopy(ar, 0, this.values, this.size, ar.length);
+        }
+        this.size += ar.length;
+    }
+    
+    @Override
+    protected NBTTag entry(int index) {
+        return new FloatEntry(this.values[index]);
+    }
+    
+    @Override
+    boolean visitPrimitives(NBTPrimitiveListVisitor visitor) {
+        visitor.visitFloatList(toFloatArray());
+        return true;
+    }
+}
@@ -0,0 +1,93 @@
+package de.pcfreak9000.nbt;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import de.pcfreak9000.nbt.visitor.NBTPrimitiveListVisitor;
+
+public class NBTIntList extends NBTPrimitiveList {
+    
+    public static NBTIntList of(int... values) {
+        NBTIntList l = new NBTIntList(0);
+        l.append(values.clone());
+        return l;
+    }
+    
+    private int[] values;
+    
+    public NBTIntList() {
+        this(DEFAULT_CAPACITY);
+    }
+    
+    public NBTIntList(int capacity) {
+        super(NBTType.Int);
+        this.values = new int[capacity];
+    }
+    
+    @Override
+    public NBTIntList cpy() {
+        NBTIntList l = new NBTIntList(this.size);
+        System.arraycopy(this.values, 0, l.values, 0, this.size);
+        l.size = this.size;
+        return l;
+    }
+    
+    @Override
+    public void addInt(int i) {
+        if (this.size == this.values.length) {
+            ensureCapacity(this.size + 1);
+        }
+        this.values[this.size++] = i;
+    }
+    
+    @Override
+    public void add(NBTTag tag) {
+        Objects.requireNonNull(tag);
+        check(tag.type());
+        addInt(tag instanceof SmartIntEntry ? (int) ((SmartIntEntry) tag).getSmartInt() : ((IntEntry) tag).getInt());
+    }
+    
+    @Override
+    public int getInt(int index) {
+        checkIndex(index);
+        return this.values[index];
+    }
+    
+    public void setInt(int index, int i) {
+        checkIndex(index);
+        this.values[index] = i;
+    }
+    
+    public int[] toIntArray() {
+        return Arrays.copyOf(this.values, this.size);
+    }
+    
+    @Override
+    public void ensureCapacity(int capacity) {
+        if (capacity > this.values.length) {
+            this.values = Arrays.copyOf(this.values, grow(this.values.length, capacity));
+        }
+    }
+    
+    //Takes ownership of the array if the list is empty
+    void append(int[] ar) {
+        if (this.size == 0) {
+            this.values = ar;
+        } else {
+            ensureCapacity(this.size + ar.length);
+            System.arraycopy(ar, 0, this.values, this.size, ar.length);
+        }
+        this.size += ar.length;
+    }
+    
+    @Override
+    protected NBTTag entry(int index) {
+        return new IntEntry(this.values[index]);
+    }
+    
+    @Override
+    boolean visitPrimitives(NBTPrimitiveListVisitor visitor) {
+        visitor.visitIntList(toIntArray());
+        return true;
+    }
+}
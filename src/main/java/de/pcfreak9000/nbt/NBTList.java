@@ -2,19 +2,21 @@ package de.pcfreak9000.nbt;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
 import java.util.Objects;
 
+import de.pcfreak9000.nbt.visitor.NBTPrimitiveListVisitor;
+
 public class NBTList extends NBTTag {
     
+    //Null for lists with their own storage
     protected final List<NBTTag> tags;
     private final List<NBTTag> tagsImmutable;
     protected NBTType entrytype;
     
     protected NBTList() {
-        super(NBTType.List);
-        this.tags = new ArrayList<>();
-        this.tagsImmutable = Collections.unmodifiableList(this.tags);
+        this(null, true);
     }
     
     public NBTList(NBTType type) {
@@ -25,6 +27,14 @@ public class NBTList extends NBTTag {
         this.entrytype = type;
     }
     
+    //Lists without tags override everything that accesses them, like NBTPrimitiveList
+    NBTList(NBTType type, boolean withTags) {
+        super(NBTType.List);
+        this.tags = withTags ? new ArrayList<>() : null;
+        this.tagsImmutable = withTags ? Collections.unmodifiableList(this.tags) : null;
+        this.entrytype = type;
+    }
+    
     @Override
     public NBTList cpy() {
         NBTList l = new NBTList(entrytype);
@@ -184,6 +194,69 @@ public class NBTList extends NBTTag {
         return (NBTList) get(index);
     }
     
+    @Override
+    long ownSize(Deque<NBTTag> children) {
+        children.addAll(tags);
+        return Byte.BYTES + Integer.BYTES;
+    }
+    
+    //Passes the content as one array if it consists of numbers, returns false otherwise
+    boolean visitPrimitives(NBTPrimitiveListVisitor visitor) {
+        int size = size();
+        switch (entrytype) {
+        case Byte: {
+            byte[] values = new byte[size];
+            for (int i = 0; i < size; i++) {
+                values[i] = (byte) getNumberAutocast(i);
+            }
+            visitor.visitByteList(values);
+            return true;
+        }
+        case Short: {
+            short[] values = new short[size];
+            for (int i = 0; i < size; i++) {
+                values[i] = (short) getNumberAutocast(i);
+            }
+            visitor.visitShortList(values);
+            return true;
+        }
+        case Int: {
+            int[] values = new int[size];
+            for (int i = 0; i < size; i++) {
+                values[i] = (int) getNumberAutocast(i);
+            }
+            visitor.visitIntList(values);
+            return true;
+        }
+        case Long: {
+            long[] values = new long[size];
+            for (int i = 0; i < size; i++) {
+                values[i] = getNumberAutocast(i);
+            }
+            visitor.visitLongList(values);
+            return true;
+        }
+        case Float: {
+            float[] values = new float[size];
+            for (int i = 0; i < size; i++) {
+                values[i] = getFloat(i);
+            }
+            visitor.visitFloatList(values);
+            return true;
+        }
+        case Double: {
+            double[] values = new double[size];
+            for (int i = 0; i < size; i++) {
+                values[i] = getDouble(i);
+            }
+            visitor.visitDoubleList(values);
+            return true;
+        }
+        default:
+            return false;
+        }
+    }
+    
     protected void check(NBTType t) {
         if (t != this.entrytype) {
             throw new IllegalArgumentException("Illegal type: " + t);
@@ -0,0 +1,93 @@
+package de.pcfreak9000.nbt;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import de.pcfreak9000.nbt.visitor.NBTPrimitiveListVisitor;
+
+public class NBTLongList extends NBTPrimitiveList {
+    
+    public static NBTLongList of(long... values) {
+        NBTLongList l = new NBTLongList(0);
+        l.append(values.clone());
+        return l;
+    }
+    
+    private long[] values;
+    
+    public NBTLongList() {
+        this(DEFAULT_CAPACITY);
+    }
+    
+    public NBTLongList(int capacity) {
+        super(NBTType.Long);
+        this.values = new long[capacity];
+    }
+    
+    @Override
+    public NBTLongList cpy() {
+        NBTLongList l = new NBTLongList(this.size);
+        System.arraycopy(this.values, 0, l.values, 0, this.size);
+        l.size = this.size;
+        return l;
+    }
+    
+    @Override
+    public void addLong(long l) {
+        if (this.size == this.values.length) {
+            ensureCapacity(this.size + 1);
+        }
+        this.values[this.size++] = l;
+    }
+    
+    @Override
+    public void add(NBTTag tag) {
+        Objects.requireNonNull(tag);
+        check(tag.type());
+        addLong(tag instanceof SmartIntEntry ? ((SmartIntEntry) tag).getSmartInt() : ((LongEntry) tag).getLong());
+    }
+    
+    @Override
+    public long getLong(int index) {
+        checkIndex(index);
+        return this.values[index];
+    }
+    
+    public void setLong(int index, long l) {
+        checkIndex(index);
+        this.values[index] = l;
+    }
+    
+    public long[] toLongArray() {
+        return Arrays.copyOf(this.values, this.size);
+    }
+    
+    @Override
+    public void ensureCapacity(int capacity) {
+        if (capacity > this.values.length) {
+            this.values = Arrays.copyOf(this.values, grow(this.values.length, capacity));
+        }
+    }
+    
+    //Takes ownership of the array if the list is empty
+    void append(long[] ar) {
+        if (this.size == 0) {
+            this.values = ar;
+        } else {
+            ensureCapacity(this.size + ar.length);
+            System.arraycopy(ar, 0, this.values, this.size, ar.length);
+        }
+        this.size += ar.length;
+    }
+    
+    @Override
+    protected NBTTag entry(int index) {
+        return new LongEntry(this.values[index]);
+    }
+    
+    @Override
+    boolean visitPrimitives(NBTPrimitiveListVisitor visitor) {
+        visitor.visitLongList(toLongArray());
+        return true;
+    }
+}
@@ -0,0 +1,94 @@
+package de.pcfreak9000.nbt;
+
+import java.util.AbstractList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Base of the lists storing their numbers in a primitive array instead of one {@link NBTTag} per element.
+ * {@link #getContent()} creates the entries on access.
+ */
+abstract class NBTPrimitiveList extends NBTList {
+    
+    static final int DEFAULT_CAPACITY = 10;
+    
+    //Lists created for a reader start empty, they are sized once the length is known
+    static NBTList create(NBTType type) {
+        switch (type) {
+        case Byte:
+            return new NBTByteList(0);
+        case Short:
+            return new NBTShortList(0);
+        case Int:
+            return new NBTIntList(0);
+        case Long:
+            return new NBTLongList(0);
+        case Float:
+            return new NBTFloatList(0);
+        case Double:
+            return new NBTDoubleList(0);
+        default:
+            return new NBTList(type);
+        }
+    }
+    
+    protected int size;
+    private List<NBTTag> content;
+    
+    NBTPrimitiveList(NBTType type) {
+        super(type, false);
+    }
+    
+    protected abstract NBTTag entry(int index);
+    
+    public abstract void ensureCapacity(int capacity);
+    
+    @Override
+    public int size() {
+        return this.size;
+    }
+    
+    @Override
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+    
+    @Override
+    public NBTTag get(int index) {
+        checkIndex(index);
+        return entry(index);
+    }
+    
+    @Override
+    public List<NBTTag> getContent() {
+        if (this.content == null) {
+            this.content = new AbstractList<NBTTag>() {
+                @Override
+                public NBTTag get(int index) {
+                    return NBTPrimitiveList.this.get(index);
+                }
+                
+                @Override
+                public int size() {
+                    return NBTPrimitiveList.this.size;
+                }
+            };
+        }
+        return this.content;
+    }
+    
+    @Override
+    long ownSize(Deque<NBTTag> children) {
+        return Byte.BYTES + Integer.BYTES + (long) size * PayloadSkipper.fixedSize(getEntryType());
+    }
+    
+    protected void checkIndex(int index) {
+        if (index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+        }
+    }
+    
+    protected int grow(int capacity, int minCapacity) {
+        return Math.max(minCapacity, capacity + (capacity >> 1) + 1);
+    }
+}
@@ -0,0 +1,93 @@
+package de.pcfreak9000.nbt;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import de.pcfreak9000.nbt.visitor.NBTPrimitiveListVisitor;
+
+public class NBTShortList extends NBTPrimitiveList {
+    
+    public static NBTShortList of(short... values) {
+        NBTShortList l = new NBTShortList(0);
+        l.append(values.clone());
+        return l;
+    }
+    
+    private short[] values;
+    
+    public NBTShortList() {
+        this(DEFAULT_CAPACITY);
+    }
+    
+    public NBTShortList(int capacity) {
+        super(NBTType.Short);
+        this.values = new short[capacity];
+    }
+    
+    @Override
+    public NBTShortList cpy() {
+        NBTShortList l = new NBTShortList(this.size);
+        System.arraycopy(this.values, 0, l.values, 0, this.size);
+        l.size = this.size;
+        return l;
+    }
+    
+    @Override
+    public void addShort(short s) {
+        if (this.size == this.values.length) {
+            ensureCapacity(this.size + 1);
+        }
+        this.values[this.size++] = s;
+    }
+    
+    @Override
+    public void add(NBTTag tag) {
+        Objects.requireNonNull(tag);
+        check(tag.type());
+        addShort(tag instanceof SmartIntEntry ? (short) ((SmartIntEntry) tag).getSmartInt() : ((ShortEntry) tag).getShort());
+    }
+    
+    @Override
+    public short getShort(int index) {
+        checkIndex(index);
+        return this.values[index];
+    }
+    
+    public void setShort(int index, short s) {
+        checkIndex(index);
+        this.values[index] = s;
+    }
+    
+    public short[] toShortArray() {
+        return Arrays.copyOf(this.values, this.size);
+    }
+    
+    @Override
+    public void ensureCapacity(int capacity) {
+        if (capacity > this.values.length) {
+            this.values = Arrays.copyOf(this.values, grow(this.values.length, capacity));
+        }
+    }
+    
+    //Takes ownership of the array if the list is empty
+    void append(short[] ar) {
+        if (this.size == 0) {
+            this.values = ar;
+        } else {
+            ensureCapacity(this.size + ar.length);
+            System.arraycopy(ar, 0, this.values, this.size, ar.length);
+        }
+        this.size += ar.length;
+    }
+    
+    @Override
+    protected NBTTag entry(int index) {
+        return new ShortEntry(this.values[index]);
+    }
+    
+    @Override
+    boolean visitPrimitives(NBTPrimitiveListVisitor visitor) {
+        visitor.visitShortList(toShortArray());
+        return true;
+    }
+}
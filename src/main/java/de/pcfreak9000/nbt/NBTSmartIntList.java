@@ -1,11 +1,16 @@
 package de.pcfreak9000.nbt;
 
-import java.util.Objects;
+import java.util.Arrays;
 
-public class NBTSmartIntList extends NBTList {
+import de.pcfreak9000.nbt.visitor.NBTPrimitiveListVisitor;
+
+public class NBTSmartIntList extends NBTPrimitiveList {
+    
+    //entrytype is the narrowest type all values fit in, they are written with that width
+    private long[] values = new long[DEFAULT_CAPACITY];
     
     public NBTSmartIntList() {
-        this.entrytype = NBTType.Byte;
+        super(NBTType.Byte);
     }
     
     @Override
@@ -14,7 +19,8 @@ public class NBTSmartIntList extends NBTList {
     }
     
     public long getSmartInt(int index) {
-        return ((SmartIntEntry) get(index)).getSmartInt();
+        checkIndex(index);
+        return values[index];
     }
     
     @Override
@@ -44,21 +50,64 @@ public class NBTSmartIntList extends NBTList {
     @Override
     public NBTList cpy() {
         NBTSmartIntList l = new NBTSmartIntList();
-        for (NBTTag t : tags) {
-            SmartIntEntry sie = (SmartIntEntry) t;
-            l.addSmartInt(sie.getSmartInt());
-        }
+        l.values = Arrays.copyOf(values, Math.max(size, DEFAULT_CAPACITY));
+        l.size = size;
+        l.entrytype = entrytype;
         return l;
     }
     
-    private void addUnchecked(NBTTag tag) {
-        Objects.requireNonNull(tag);
-        tags.add(tag);
-    }
-    
     public void addSmartInt(long l) {
         accomodateFor(l);
-        this.addUnchecked(new SmartIntEntry(this, l));
+        if (size == values.length) {
+            ensureCapacity(size + 1);
+        }
+        values[size++] = l;
+    }
+    
+    @Override
+    public void ensureCapacity(int capacity) {
+        if (capacity > values.length) {
+            values = Arrays.copyOf(values, grow(values.length, capacity));
+        }
+    }
+    
+    @Override
+    protected NBTTag entry(int index) {
+        return new SmartIntEntry(this, values[index]);
+    }
+    
+    @Override
+    boolean visitPrimitives(NBTPrimitiveListVisitor visitor) {
+        switch (entrytype) {
+        case Byte: {
+            byte[] ar = new byte[size];
+            for (int i = 0; i < size; i++) {
+                ar[i] = (byte) values[i];
+            }
+            visitor.visitByteList(ar);
+            break;
+        }
+        case Short: {
+            short[] ar = new short[size];
+            for (int i = 0; i < size; i++) {
+                ar[i] = (short) values[i];
+            }
+            visitor.visitShortList(ar);
+            break;
+        }
+        case Int: {
+            int[] ar = new int[size];
+            for (int i = 0; i < size; i++) {
+                ar[i] = (int) values[i];
+            }
+            visitor.visitIntList(ar);
+            break;
+        }
+        default:
+            visitor.visitLongList(Arrays.copyOf(values, size));
+            break;
+        }
+        return true;
     }
     
 }
@@ -1,6 +1,8 @@
 package de.pcfreak9000.nbt;
 
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Deque;
 
 import de.pcfreak9000.nbt.visitor.NBTValueVisitor;
 
@@ -23,6 +25,46 @@ public abstract class NBTTag {
     
     public abstract NBTTag cpy();
     
+    /**
+     * @return the number of bytes the binary payload of this tag takes, without its type and name
+     */
+    public int serializedSize() {
+        //Containers push their children instead of recursing, so deep trees don't overflow the stack
+        Deque<NBTTag> pending = new ArrayDeque<>();
+        long size = 0;
+        NBTTag next = this;
+        do {
+            size += next.ownSize(pending);
+        } while ((next = pending.poll()) != null);
+        return Math.toIntExact(size);
+    }
+    
+    //Payload size without the children, which are added to the deque instead
+    long ownSize(Deque<NBTTag> children) {
+        return PayloadSkipper.fixedSize(type());
+    }
+    
+    //Length of the encoding String.getBytes(UTF_8) produces, without encoding
+    static int utf8Length(String s) {
+        int length = s.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    bytes += 1;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    bytes += 2;
+                    i++;
+                } else if (!Character.isSurrogate(c)) {
+                    bytes += 2;
+                }
+            }
+        }
+        return bytes;
+    }
+    
     public static class ByteEntry extends NBTTag {
         
         private final byte i;
@@ -185,6 +227,11 @@ public abstract class NBTTag {
             visitor.visitByteArray(this.value);
         }
         
+        @Override
+        long ownSize(Deque<NBTTag> children) {
+            return Integer.BYTES + value.length;
+        }
+        
         @Override
         public ByteArrayEntry cpy() {
             return new ByteArrayEntry(Arrays.copyOf(value, value.length));//Hmmm... continue with the original byte[] or copy it?
@@ -209,6 +256,11 @@ public abstract class NBTTag {
             visitor.visitIntArray(this.value);
         }
         
+        @Override
+        long ownSize(Deque<NBTTag> children) {
+            return Integer.BYTES + (long) value.length * Integer.BYTES;
+        }
+        
         @Override
         public IntArrayEntry cpy() {
             return new IntArrayEntry(Arrays.copyOf(value, value.length));
@@ -233,6 +285,11 @@ public abstract class NBTTag {
             visitor.visitLongArray(this.value);
         }
         
+        @Override
+        long ownSize(Deque<NBTTag> children) {
+            return Integer.BYTES + (long) value.length * Long.BYTES;
+        }
+        
         @Override
         public LongArrayEntry cpy() {
             return new LongArrayEntry(Arrays.copyOf(value, value.length));
@@ -242,6 +299,7 @@ public abstract class NBTTag {
     public static class StringEntry extends NBTTag {
         
         private final String string;
+        private int utf8Length = -1;
         
         public StringEntry(String string) {
             super(NBTType.String);
@@ -257,6 +315,14 @@ public abstract class NBTTag {
             visitor.visitString(string);
         }
         
+        @Override
+        long ownSize(Deque<NBTTag> children) {
+            if (utf8Length < 0) {
+                utf8Length = utf8Length(string);
+            }
+            return Short.BYTES + utf8Length;
+        }
+        
         @Override
         public StringEntry cpy() {
             return new StringEntry(string);
@@ -302,6 +368,11 @@ public abstract class NBTTag {
             visitor.visitEnd();
         }
         
+        @Override
+        long ownSize(Deque<NBTTag> children) {
+            return 0;
+        }
+        
         @Override
         public NBTTag cpy() {
             return new EndEntry();
@@ -0,0 +1,86 @@
+package de.pcfreak9000.nbt;
+
+import java.util.Objects;
+
+/**
+ * A validated name of a compound entry with its precomputed hash. Accessing an {@link NBTCompound} with a key skips the
+ * name validation that every access by string does, so keys are meant to be created once and reused, e.g. as
+ * constants.
+ */
+public final class NbtKey {
+    
+    //The characters of \w, names may also contain spaces after the first character
+    private static final boolean[] NAME_CHARS = new boolean[128];
+    
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            NAME_CHARS[c] = true;
+            NAME_CHARS[Character.toUpperCase(c)] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            NAME_CHARS[c] = true;
+        }
+        NAME_CHARS['_'] = true;
+    }
+    
+    /**
+     * @throws IllegalArgumentException if the name is not a valid compound entry name
+     */
+    public static NbtKey of(String name) {
+        checkValid(name);
+        return new NbtKey(name);
+    }
+    
+    public static boolean isValid(String name) {
+        int length = name.length();
+        if (length == 0) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = name.charAt(i);
+            if (c >= NAME_CHARS.length || !NAME_CHARS[c]) {
+                if (c != ' ' || i == 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+    
+    static void checkValid(String name) {
+        Objects.requireNonNull(name);
+        if (!isValid(name)) {
+            if (name.isBlank()) {
+                throw new IllegalArgumentException("Name is empty or blank");
+            }
+            throw new IllegalArgumentException("Name containes illegal characters: " + name);
+        }
+    }
+    
+    private final String name;
+    final int hash;
+    
+    private NbtKey(String name) {
+        this.name = name;
+        this.hash = CompoundMap.hash(name);
+    }
+    
+    public String name() {
+        return this.name;
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof NbtKey && ((NbtKey) obj).name.equals(this.name);
+    }
+    
+    @Override
+    public int hashCode() {
+        return this.name.hashCode();
+    }
+    
+    @Override
+    public String toString() {
+        return this.name;
+    }
+}
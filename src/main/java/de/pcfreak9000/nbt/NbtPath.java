@@ -0,0 +1,236 @@
+package de.pcfreak9000.nbt;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import de.pcfreak9000.nbt.visitor.AbstractNBTValueVisitor;
+import de.pcfreak9000.nbt.visitor.NBTCompoundVisitor;
+import de.pcfreak9000.nbt.visitor.NBTListVisitor;
+import de.pcfreak9000.nbt.visitor.NBTValueVisitor;
+
+/**
+ * A compiled path like <code>Inventory[*].id</code> or <code>Level.Sections[3].BlockStates</code>. Keys are separated
+ * by dots and may be quoted (<code>"Some key"</code>), list elements are selected with <code>[index]</code>, and
+ * <code>*</code> matches any key or index. Instances are immutable and can be shared between threads.
+ * <p>
+ * Only matching values are decoded, everything else is skipped by the reader.
+ */
+public final class NbtPath {
+    
+    private static final String ANY = "*";
+    
+    public static NbtPath compile(String path) {
+        List<Segment> segments = new ArrayList<>();
+        int i = 0;
+        int length = path.length();
+        while (i < length) {
+            char c = path.charAt(i);
+            if (c == '[') {
+                int close = path.indexOf(']', i);
+                if (close < 0) {
+                    throw new IllegalArgumentException("Unclosed index at " + i + ": " + path);
+                }
+                segments.add(Segment.index(parseIndex(path, path.substring(i + 1, close).trim())));
+                i = close + 1;
+            } else {
+                if (c == '.') {
+                    if (segments.isEmpty()) {
+                        throw new IllegalArgumentException("Path starts with a dot: " + path);
+                    }
+                    i++;
+                } else if (!segments.isEmpty()) {
+                    throw new IllegalArgumentException("Expected '.' or '[' at " + i + ": " + path);
+                }
+                i = parseKey(path, i, segments);
+            }
+        }
+        return new NbtPath(path, segments.toArray(new Segment[segments.size()]));
+    }
+    
+    private static int parseKey(String path, int start, List<Segment> segments) {
+        if (start < path.length() && path.charAt(start) == '"') {
+            StringBuilder key = new StringBuilder();
+            for (int i = start + 1; i < path.length(); i++) {
+                char c = path.charAt(i);
+                if (c == '\\' && i + 1 < path.length()) {
+                    key.append(path.charAt(++i));
+                } else if (c == '"') {
+                    segments.add(Segment.key(key.toString(), false));
+                    return i + 1;
+                } else {
+                    key.append(c);
+                }
+            }
+            throw new IllegalArgumentException("Unclosed quote at " + start + ": " + path);
+        }
+        int end = start;
+        while (end < path.length() && path.charAt(end) != '.' && path.charAt(end) != '[') {
+            end++;
+        }
+        if (end == start) {
+            throw new IllegalArgumentException("Empty key at " + start + ": " + path);
+        }
+        String key = path.substring(start, end);
+        segments.add(Segment.key(key, key.equals(ANY)));
+        return end;
+    }
+    
+    private static int parseIndex(String path, String index) {
+        if (index.equals(ANY)) {
+            return -1;
+        }
+        try {
+            int i = Integer.parseInt(index);
+            if (i >= 0) {
+                return i;
+            }
+        } catch (NumberFormatException e) {
+        }
+        throw new IllegalArgumentException("Illegal index '" + index + "': " + path);
+    }
+    
+    private final String source;
+    private final Segment[] segments;
+    
+    private NbtPath(String source, Segment[] segments) {
+        this.source = source;
+        this.segments = segments;
+    }
+    
+    /**
+     * Creates a visitor that passes every value matching this path to the sink, in document order.
+     */
+    public NBTValueVisitor createVisitor(Consumer<NBTTag> sink) {
+        return new Query(sink).next(0);
+    }
+    
+    public List<NBTTag> select(NbtReader reader) throws IOException {
+        List<NBTTag> result = new ArrayList<>();
+        reader.applyVisitor(createVisitor(result::add));
+        return result;
+    }
+    
+    public List<NBTTag> select(NBTTag root) {
+        List<NBTTag> result = new ArrayList<>();
+        TagReader.applyVisitor(createVisitor(result::add), root);
+        return result;
+    }
+    
+    @Override
+    public String toString() {
+        return this.source;
+    }
+    
+    private static final class Segment {
+        
+        private final String key;
+        private final int index;
+        private final boolean any;
+        
+        private static Segment key(String key, boolean any) {
+            return new Segment(key, 0, any);
+        }
+        
+        private static Segment index(int index) {
+            return new Segment(null, index, index < 0);
+        }
+        
+        private Segment(String key, int index, boolean any) {
+            this.key = key;
+            this.index = index;
+            this.any = any;
+        }
+        
+        private boolean isKey() {
+            return this.key != null;
+        }
+    }
+    
+    private final class Query {
+        
+        private final Consumer<NBTTag> sink;
+        private final NBTValueVisitor[] matchers;
+        
+        private Query(Consumer<NBTTag> sink) {
+            this.sink = sink;
+            this.matchers = new NBTValueVisitor[segments.length];
+        }
+        
+        private NBTValueVisitor next(int segment) {
+            if (segment == segments.length) {
+                return new TagWriter() {
+                    @Override
+                    protected void set(NBTTag entry) {
+                        sink.accept(entry);
+                    }
+                };
+            }
+            if (matchers[segment] == null) {
+                matchers[segment] = new Matcher(this, segment);
+            }
+            return matchers[segment];
+        }
+    }
+    
+    //Descends into containers matching the segment, every other value is skipped
+    private final class Matcher extends AbstractNBTValueVisitor {
+        
+        private final Query query;
+        private final Segment segment;
+        private final int segmentIndex;
+        
+        private Matcher(Query query, int segmentIndex) {
+            super(null);
+            this.query = query;
+            this.segmentIndex = segmentIndex;
+            this.segment = segments[segmentIndex];
+        }
+        
+        @Override
+        public NBTCompoundVisitor visitCompound() {
+            if (!segment.isKey()) {
+                return null;
+            }
+            return new NBTCompoundVisitor() {
+                @Override
+                public NBTValueVisitor visitValue(String key) {
+                    return segment.any || segment.key.equals(key) ? query.next(segmentIndex + 1) : null;
+                }
+                
+                @Override
+                public void visitEnd() {
+                }
+            };
+        }
+        
+        @Override
+        public NBTListVisitor visitList() {
+            if (segment.isKey()) {
+                return null;
+            }
+            return new NBTListVisitor() {
+                private int position = 0;
+                
+                @Override
+                public void visitType(NBTType type) {
+                }
+                
+                @Override
+                public void visitLength(int l) {
+                }
+                
+                @Override
+                public NBTValueVisitor visitValue() {
+                    int current = position++;
+                    return segment.any || segment.index == current ? query.next(segmentIndex + 1) : null;
+                }
+                
+                @Override
+                public void visitEnd() {
+                }
+            };
+        }
+    }
+}
@@ -1,42 +1,168 @@
 package de.pcfreak9000.nbt;
 
+import java.io.ByteArrayInputStream;
 import java.io.Closeable;
-import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
 import java.nio.ByteBuffer;
-import java.nio.IntBuffer;
-import java.nio.LongBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
-import java.util.concurrent.atomic.AtomicInteger;
 
+import de.pcfreak9000.nbt.compression.CompressionCodec;
+import de.pcfreak9000.nbt.util.BufferNbtInput;
+import de.pcfreak9000.nbt.util.BufferPool;
 import de.pcfreak9000.nbt.util.ContextStackEvaluator;
 import de.pcfreak9000.nbt.util.ContextStackEvaluator.ContextType;
 import de.pcfreak9000.nbt.util.ContextStackEvaluator.IContext;
+import de.pcfreak9000.nbt.util.FramePool;
+import de.pcfreak9000.nbt.util.KeyCache;
+import de.pcfreak9000.nbt.util.NbtInput;
+import de.pcfreak9000.nbt.util.StreamNbtInput;
 import de.pcfreak9000.nbt.visitor.NBTCompoundVisitor;
 import de.pcfreak9000.nbt.visitor.NBTListVisitor;
+import de.pcfreak9000.nbt.visitor.NBTPrimitiveListVisitor;
 import de.pcfreak9000.nbt.visitor.NBTValueVisitor;
 
 public class NbtReader implements Closeable {
     
-    private final DataInputStream stream;
+    /**
+     * Maps the whole file into memory and reads from the mapping. The file is closed right away, the mapping stays
+     * valid until it is garbage collected.
+     */
+    public static NbtReader map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return new NbtReader(channel.map(MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+    
+    /**
+     * Detects the compression of the data, see {@link CompressionCodec#detect(byte[], int, int)}. Streams that don't
+     * support mark/reset are wrapped to look at the first bytes.
+     */
+    public static NbtReader open(InputStream instream) throws IOException {
+        byte[] header = new byte[CompressionCodec.DETECT_LENGTH];
+        InputStream in = instream;
+        int length;
+        if (in.markSupported()) {
+            in.mark(header.length);
+            length = in.readNBytes(header, 0, header.length);
+            in.reset();
+        } else {
+            PushbackInputStream pushback = new PushbackInputStream(in, header.length);
+            length = pushback.readNBytes(header, 0, header.length);
+            pushback.unread(header, 0, length);
+            in = pushback;
+        }
+        return new NbtReader(CompressionCodec.detect(header, 0, length).decompress(in));
+    }
+    
+    /**
+     * Detects the compression of the data. Uncompressed data is read in place, like {@link #NbtReader(byte[])}.
+     */
+    public static NbtReader open(byte[] bytes) throws IOException {
+        CompressionCodec codec = CompressionCodec.detect(bytes, 0, bytes.length);
+        if (codec == CompressionCodec.NONE) {
+            return new NbtReader(bytes);
+        }
+        return new NbtReader(codec.decompress(new ByteArrayInputStream(bytes)));
+    }
+    
+    /**
+     * Detects the compression of the file. Uncompressed files are mapped like with {@link #map(File)}.
+     */
+    public static NbtReader open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(CompressionCodec.DETECT_LENGTH);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+            }
+            CompressionCodec codec = CompressionCodec.detect(header.array(), 0, header.position());
+            if (codec == CompressionCodec.NONE) {
+                NbtReader reader = new NbtReader(channel.map(MapMode.READ_ONLY, 0, channel.size()));
+                channel.close();
+                return reader;
+            }
+            channel.position(0);
+            return new NbtReader(codec.decompress(Channels.newInputStream(channel)));
+        } catch (IOException | RuntimeException e) {
+            try {
+                channel.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+    
+    private final NbtInput input;
+    private final PayloadSkipper skipper;
+    private final byte[] keyBuffer = new byte[KeyCache.MAX_KEY_LENGTH];
     private final NBTType initialType;
     private final String initialName;
     
+    private final ContextStackEvaluator evaluator = new ContextStackEvaluator();
+    private final FramePool<ValueContext> valueFrames = new FramePool<>(ValueContext::new);
+    private final FramePool<CompoundContext> compoundFrames = new FramePool<>(CompoundContext::new);
+    private final FramePool<ListContext> listFrames = new FramePool<>(ListContext::new);
+    
     public NbtReader(InputStream instream) throws IOException {
-        this.stream = instream instanceof DataInputStream ? (DataInputStream) instream : new DataInputStream(instream);
+        this(instream, BufferPool.DEFAULT_SIZE);
+    }
+    
+    /**
+     * The stream is read ahead in chunks of the given size. A size of 0 disables read-ahead, so the stream is positioned
+     * right after the tag once it has been read, at the cost of one stream call per value.
+     */
+    public NbtReader(InputStream instream, int bufferSize) throws IOException {
+        this(new StreamNbtInput(instream, bufferSize));
+    }
+    
+    /**
+     * Reads from the remaining bytes of the buffer. The buffer's position is not modified.
+     */
+    public NbtReader(ByteBuffer buffer) throws IOException {
+        this(new BufferNbtInput(buffer));
+    }
+    
+    public NbtReader(byte[] bytes) throws IOException {
+        this(bytes, 0, bytes.length);
+    }
+    
+    public NbtReader(byte[] bytes, int offset, int length) throws IOException {
+        this(ByteBuffer.wrap(bytes, offset, length));
+    }
+    
+    private NbtReader(NbtInput input) throws IOException {
+        this.input = input;
+        this.skipper = new PayloadSkipper(input);
         initialType = nextType();
-        initialName = initialType != NBTType.End ? nextString() : "";
+        initialName = initialType != NBTType.End ? nextKey() : "";
+    }
+    
+    //Reads a nameless payload of the given type, used to decode lazy entries
+    private NbtReader(NbtInput input, NBTType type) {
+        this.input = input;
+        this.skipper = new PayloadSkipper(input);
+        this.initialType = type;
+        this.initialName = "";
     }
     
     public void applyVisitor(NBTValueVisitor visitor) throws IOException {
-        ContextStackEvaluator.evaluate(new ValueContext(visitor, initialType));
+        int position = evaluator.depth();
+        evaluator.run(valueFrames.get(position).init(position, visitor, initialType));
     }
     
     @Override
     public void close() throws IOException {
-        this.stream.close();
+        this.input.close();
     }
     
     public String getName() {
@@ -60,8 +186,60 @@ public class NbtReader implements Closeable {
         return writer.get();
     }
     
+    /**
+     * Only records the type and offset of each entry of the root compound, entries are decoded when they are first
+     * accessed. The ByteBuffer or byte[] source must not be modified while the returned compound is in use. Stream
+     * sources can't be revisited, their compound is decoded completely like {@link #toCompoundTag()} does.
+     * <p>
+     * Like any compound, the returned one may be read by several threads as long as none modifies it. Entries decoded
+     * concurrently are published atomically, so all threads get the same instance of an entry.
+     */
+    public NBTCompound toLazyCompoundTag() throws IOException {
+        if (!(this.input instanceof BufferNbtInput)) {
+            return toCompoundTag();
+        }
+        if (this.initialType != NBTType.Compound) {
+            throw new IOException("Unexpected type: " + this.initialType);
+        }
+        return indexCompound();
+    }
+    
+    static NBTTag decodeLazy(BufferNbtInput source, int offset, NBTType type) throws IOException {
+        NbtReader reader = new NbtReader(source.at(offset), type);
+        return type == NBTType.Compound ? reader.indexCompound() : reader.toTag();
+    }
+    
+    static void applyVisitorLazy(BufferNbtInput source, int offset, NBTType type, NBTValueVisitor visitor)
+            throws IOException {
+        new NbtReader(source.at(offset), type).applyVisitor(visitor);
+    }
+    
+    private NBTCompound indexCompound() throws IOException {
+        BufferNbtInput source = (BufferNbtInput) this.input;
+        NBTCompound compound = new NBTCompound();
+        NBTType type;
+        while ((type = nextType()) != NBTType.End) {
+            String name = nextKey();
+            compound.putLazy(name, new LazyTag(type, source, source.position()));
+            skipper.skipPayload(type);
+        }
+        return compound;
+    }
+    
     private NBTType nextType() throws IOException {
-        int abyte = this.stream.readByte();
+        return readType(this.input);
+    }
+    
+    private String nextString() throws IOException {
+        return readString(this.input);
+    }
+    
+    private String nextKey() throws IOException {
+        return readKey(this.input, this.keyBuffer);
+    }
+    
+    static NBTType readType(NbtInput input) throws IOException {
+        int abyte = input.readByte();
         try {
             return NBTType.getById(abyte);
         } catch (NoSuchElementException ex) {
@@ -69,111 +247,240 @@ public class NbtReader implements Closeable {
         }
     }
     
-    private String nextString() throws IOException {
-        int length = this.stream.readShort() & 0xFFFF;
+    static String readString(NbtInput input) throws IOException {
+        int length = input.readShort() & 0xFFFF;
         byte[] bytes = new byte[length];
-        this.stream.readFully(bytes, 0, length);
+        input.readFully(bytes, 0, length);
         return new String(bytes, StandardCharsets.UTF_8);
     }
     
+    //Keys are decoded through the shared key cache, the scratch buffer must hold KeyCache.MAX_KEY_LENGTH bytes
+    static String readKey(NbtInput input, byte[] scratch) throws IOException {
+        int length = input.readShort() & 0xFFFF;
+        byte[] bytes = length <= scratch.length ? scratch : new byte[length];
+        input.readFully(bytes, 0, length);
+        return KeyCache.shared().decode(bytes, 0, length);
+    }
+    
+    static int readArrayLength(NbtInput input) throws IOException {
+        int len = input.readInt();
+        if (len >= 0 && len <= 0x7FFFFFF7) {
+            return len;
+        }
+        throw new IOException("Size exceeds " + 0x7FFFFFF7 + ", got " + (len & 0xFFFFFFFFL));
+    }
+    
+    //NBTListVisitor.UNKNOWN_LENGTH is only for callers, a negative length in the input is corrupt. Lists of End tags
+    //are always empty, some writers give them a negative length.
+    static int readListLength(NbtInput input, NBTType elementType) throws IOException {
+        int size = input.readInt();
+        if (size >= 0) {
+            return size;
+        }
+        if (elementType == NBTType.End) {
+            return 0;
+        }
+        throw new IOException("Negative list length: " + size);
+    }
+    
+    //Arrays for streams are allocated up to this size at once and grown with the data that actually arrives
+    private static final int MAX_UNCHECKED_BYTES = 1 << 20;
+    
+    //A buffer knows how much data is left, so a length beyond that is corrupt. A stream doesn't, reading it must not
+    //allocate much more than it delivers.
+    private static int initialCapacity(NbtInput input, int length, int elementSize) throws IOException {
+        if (input instanceof BufferNbtInput) {
+            int remaining = ((BufferNbtInput) input).remaining();
+            if (length > remaining / elementSize) {
+                throw new EOFException("Needed " + (long) length * elementSize + " bytes, only " + remaining
+                        + " remaining");
+            }
+            return length;
+        }
+        return Math.min(length, MAX_UNCHECKED_BYTES / elementSize);
+    }
+    
+    private static int grow(int capacity, int length) {
+        return (int) Math.min(length, capacity * 2L);
+    }
+    
+    static byte[] readBytes(NbtInput input, int length) throws IOException {
+        byte[] values = new byte[initialCapacity(input, length, Byte.BYTES)];
+        input.readFully(values, 0, values.length);
+        while (values.length < length) {
+            int read = values.length;
+            values = Arrays.copyOf(values, grow(read, length));
+            input.readFully(values, read, values.length - read);
+        }
+        return values;
+    }
+    
+    static short[] readShorts(NbtInput input, int length) throws IOException {
+        short[] values = new short[initialCapacity(input, length, Short.BYTES)];
+        input.readShorts(values, 0, values.length);
+        while (values.length < length) {
+            int read = values.length;
+            values = Arrays.copyOf(values, grow(read, length));
+            input.readShorts(values, read, values.length - read);
+        }
+        return values;
+    }
+    
+    static int[] readInts(NbtInput input, int length) throws IOException {
+        int[] values = new int[initialCapacity(input, length, Integer.BYTES)];
+        input.readInts(values, 0, values.length);
+        while (values.length < length) {
+            int read = values.length;
+            values = Arrays.copyOf(values, grow(read, length));
+            input.readInts(values, read, values.length - read);
+        }
+        return values;
+    }
+    
+    static long[] readLongs(NbtInput input, int length) throws IOException {
+        long[] values = new long[initialCapacity(input, length, Long.BYTES)];
+        input.readLongs(values, 0, values.length);
+        while (values.length < length) {
+            int read = values.length;
+            values = Arrays.copyOf(values, grow(read, length));
+            input.readLongs(values, read, values.length - read);
+        }
+        return values;
+    }
+    
+    static float[] readFloats(NbtInput input, int length) throws IOException {
+        float[] values = new float[initialCapacity(input, length, Float.BYTES)];
+        input.readFloats(values, 0, values.length);
+        while (values.length < length) {
+            int read = values.length;
+            values = Arrays.copyOf(values, grow(read, length));
+            input.readFloats(values, read, values.length - read);
+        }
+        return values;
+    }
+    
+    static double[] readDoubles(NbtInput input, int length) throws IOException {
+        double[] values = new double[initialCapacity(input, length, Double.BYTES)];
+        input.readDoubles(values, 0, values.length);
+        while (values.length < length) {
+            int read = values.length;
+            values = Arrays.copyOf(values, grow(read, length));
+            input.readDoubles(values, read, values.length - read);
+        }
+        return values;
+    }
+    
+    //Reads a list of numbers with bulk reads, returns false for other element types
+    private boolean readPrimitiveList(NBTPrimitiveListVisitor visitor, NBTType type, int size) throws IOException {
+        switch (type) {
+        case Byte: {
+            visitor.visitByteList(readBytes(input, size));
+            return true;
+        }
+        case Short: {
+            visitor.visitShortList(readShorts(input, size));
+            return true;
+        }
+        case Int: {
+            visitor.visitIntList(readInts(input, size));
+            return true;
+        }
+        case Long: {
+            visitor.visitLongList(readLongs(input, size));
+            return true;
+        }
+        case Float: {
+            visitor.visitFloatList(readFloats(input, size));
+            return true;
+        }
+        case Double: {
+            visitor.visitDoubleList(readDoubles(input, size));
+            return true;
+        }
+        default:
+            return false;
+        }
+    }
+    
+    //Frames are pooled per stack position and reinitialized instead of allocated for every value
     private class ValueContext implements IContext {
-        private final NBTValueVisitor valueVisitor;
-        private final NBTType nbtType;
+        private int position;
+        private NBTValueVisitor valueVisitor;
+        private NBTType nbtType;
         
-        public ValueContext(NBTValueVisitor valueVisitor, NBTType nbtType) {
+        private ValueContext init(int position, NBTValueVisitor valueVisitor, NBTType nbtType) {
+            this.position = position;
             this.valueVisitor = valueVisitor;
             this.nbtType = nbtType;
+            return this;
         }
         
         @Override
         public IContext evaluate() throws IOException {
+            NBTValueVisitor valueVisitor = this.valueVisitor;
+            this.valueVisitor = null;
             switch (nbtType) {
-            case Compound:
-                return new CompoundContext(valueVisitor.visitCompound());
+            case Compound: {
+                NBTCompoundVisitor compoundVisitor = valueVisitor.visitCompound();
+                if (compoundVisitor == null) {
+                    skipper.skipPayload(NBTType.Compound);
+                    return null;
+                }
+                return compoundFrames.get(position).init(position, compoundVisitor);
+            }
             case End:
                 valueVisitor.visitEnd();
                 break;
             case Byte:
-                valueVisitor.visitByte(stream.readByte());
+                valueVisitor.visitByte(input.readByte());
                 break;
             case Short:
-                valueVisitor.visitShort(stream.readShort());
+                valueVisitor.visitShort(input.readShort());
                 break;
             case Int:
-                valueVisitor.visitInt(stream.readInt());
+                valueVisitor.visitInt(input.readInt());
                 break;
             case Long:
-                valueVisitor.visitLong(stream.readLong());
+                valueVisitor.visitLong(input.readLong());
                 break;
             case Float:
-                valueVisitor.visitFloat(stream.readFloat());
+                valueVisitor.visitFloat(input.readFloat());
                 break;
             case Double:
-                valueVisitor.visitDouble(stream.readDouble());
+                valueVisitor.visitDouble(input.readDouble());
                 break;
             case String:
                 valueVisitor.visitString(nextString());
                 break;
             case ByteArray: {
-                int len = stream.readInt();
-                if (len >= 0 && len <= 0x7FFFFFF7) {
-                    byte[] bytes = new byte[len];
-                    stream.readFully(bytes);
-                    valueVisitor.visitByteArray(bytes);
-                    break;
-                }
-                throw new IOException("Size exceeds " + 0x7FFFFFF7 + ", got " + (len & 0xFFFFFFFFL));
+                valueVisitor.visitByteArray(readBytes(input, readArrayLength(input)));
+                break;
             }
             case IntArray: {
-                int len = stream.readInt();
-                if (len >= 0 && len <= 0x7FFFFFF7) {
-                    byte[] bufferArray = new byte[8192];
-                    int[] ints = new int[len];
-                    int fillIndex = 0;
-                    IntBuffer buffer = ByteBuffer.wrap(bufferArray).asIntBuffer();
-                    for (int bufferLimit = buffer.limit(), offset = 0,
-                            bufferStep; (bufferStep = Math.min(bufferLimit, len - offset)) > 0; offset += bufferStep) {
-                        stream.readFully(bufferArray, 0, bufferArray.length * bufferStep / bufferLimit);
-                        buffer.limit(bufferStep);
-                        int remaining = buffer.remaining();
-                        buffer.get(ints, fillIndex, remaining);
-                        fillIndex += remaining;
-                        buffer.clear();
-                    }
-                    valueVisitor.visitIntArray(ints);
-                    break;
-                }
-                throw new IOException("Size exceeds " + 0x7FFFFFF7 + ", got " + (len & 0xFFFFFFFFL));
+                valueVisitor.visitIntArray(readInts(input, readArrayLength(input)));
+                break;
             }
             case LongArray: {
-                int len = stream.readInt();
-                if (len >= 0 && len <= 0x7FFFFFF7) {
-                    byte[] bufferArray = new byte[8192];
-                    long[] longs = new long[len];
-                    int fillIndex = 0;
-                    LongBuffer buffer = ByteBuffer.wrap(bufferArray).asLongBuffer();
-                    for (int bufferLimit = buffer.limit(), offset = 0,
-                            bufferStep; (bufferStep = Math.min(bufferLimit, len - offset)) > 0; offset += bufferStep) {
-                        stream.readFully(bufferArray, 0, bufferArray.length * bufferStep / bufferLimit);
-                        buffer.limit(bufferStep);
-                        int remaining = buffer.remaining();
-                        buffer.get(longs, fillIndex, remaining);
-                        fillIndex += remaining;
-                        buffer.clear();
-                    }
-                    valueVisitor.visitLongArray(longs);
-                    break;
-                }
-                throw new IOException("Size exceeds " + 0x7FFFFFF7 + ", got " + (len & 0xFFFFFFFFL));
+                valueVisitor.visitLongArray(readLongs(input, readArrayLength(input)));
+                break;
             }
             case List:
                 NBTType type = nextType();
-                int size = stream.readInt();
+                int size = readListLength(input, type);
                 if (type != NBTType.End || size <= 0) {
                     NBTListVisitor listVisitor = valueVisitor.visitList();
+                    if (listVisitor == null) {
+                        skipper.skipListPayload(type, size);
+                        return null;
+                    }
                     listVisitor.visitType(size <= 0 && type == NBTType.End ? NBTType.Byte : type);//Hmmm
                     listVisitor.visitLength(size);
-                    return new ListContext(listVisitor, type, size);
+                    if (size > 0 && listVisitor instanceof NBTPrimitiveListVisitor
+                            && readPrimitiveList((NBTPrimitiveListVisitor) listVisitor, type, size)) {
+                        listVisitor.visitEnd();
+                        return null;
+                    }
+                    return listFrames.get(position).init(position, listVisitor, type, size);
                 }
                 throw new IOException("Lists may not contain end tags");
             default:
@@ -189,23 +496,31 @@ public class NbtReader implements Closeable {
     }
     
     private class ListContext implements IContext {
-        private final NBTListVisitor listVisitor;
-        private final NBTType listType;
-        private final AtomicInteger left;
+        private int position;
+        private NBTListVisitor listVisitor;
+        private NBTType listType;
+        private int left;
         
-        public ListContext(NBTListVisitor listVisitor, NBTType listType, int len) {
+        private ListContext init(int position, NBTListVisitor listVisitor, NBTType listType, int len) {
+            this.position = position;
             this.listVisitor = listVisitor;
             this.listType = listType;
-            this.left = new AtomicInteger(len);
+            this.left = len;
+            return this;
         }
         
         @Override
         public IContext evaluate() throws IOException {
-            if (left.getAndDecrement() <= 0) {
-                listVisitor.visitEnd();
-                return null;
+            while (left-- > 0) {
+                NBTValueVisitor valueVisitor = listVisitor.visitValue();
+                if (valueVisitor != null) {
+                    return valueFrames.get(position + 1).init(position + 1, valueVisitor, listType);
+                }
+                skipper.skipPayload(listType);
             }
-            return new ValueContext(listVisitor.visitValue(), listType);
+            listVisitor.visitEnd();
+            listVisitor = null;
+            return null;
         }
         
         @Override
@@ -216,20 +531,28 @@ public class NbtReader implements Closeable {
     
     private class CompoundContext implements IContext {
         
-        private final NBTCompoundVisitor compoundVisitor;
+        private int position;
+        private NBTCompoundVisitor compoundVisitor;
         
-        public CompoundContext(NBTCompoundVisitor compoundVisitor) {
+        private CompoundContext init(int position, NBTCompoundVisitor compoundVisitor) {
+            this.position = position;
             this.compoundVisitor = compoundVisitor;
+            return this;
         }
         
         @Override
         public IContext evaluate() throws IOException {
-            NBTType nextType = nextType();
-            if (nextType == NBTType.End) {
-                this.compoundVisitor.visitEnd();
-                return null;
+            NBTType nextType;
+            while ((nextType = nextType()) != NBTType.End) {
+                NBTValueVisitor valueVisitor = this.compoundVisitor.visitValue(nextKey());
+                if (valueVisitor != null) {
+                    return valueFrames.get(position + 1).init(position + 1, valueVisitor, nextType);
+                }
+                skipper.skipPayload(nextType);
             }
-            return new ValueContext(this.compoundVisitor.visitValue(nextString()), nextType);
+            this.compoundVisitor.visitEnd();
+            this.compoundVisitor = null;
+            return null;
         }
         
         @Override
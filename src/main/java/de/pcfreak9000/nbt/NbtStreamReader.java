@@ -0,0 +1,339 @@
+package de.pcfreak9000.nbt;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import de.pcfreak9000.nbt.util.BufferNbtInput;
+import de.pcfreak9000.nbt.util.KeyCache;
+import de.pcfreak9000.nbt.util.NbtInput;
+import de.pcfreak9000.nbt.util.StreamNbtInput;
+
+/**
+ * Cursor over binary NBT. Each call to {@link #next()} advances to the next token, the payload of a
+ * {@link Token#Value} is read through the typed accessors or skipped by the next call to {@link #next()} or
+ * {@link #skipValue()}. Apart from strings and arrays requested by the caller, nothing is allocated per token.
+ */
+public class NbtStreamReader implements Closeable {
+    
+    public static enum Token {
+        CompoundStart, CompoundEnd, ListStart, ListEnd, Value, EndOfInput;
+    }
+    
+    private static final int INITIAL_DEPTH = 16;
+    
+    private final NbtInput input;
+    private final PayloadSkipper skipper;
+    private final byte[] keyBuffer = new byte[KeyCache.MAX_KEY_LENGTH];
+    
+    //frameListTypes[i] == null marks a compound frame
+    private NBTType[] frameListTypes = new NBTType[INITIAL_DEPTH];
+    private int[] frameLeft = new int[INITIAL_DEPTH];
+    private int depth;
+    private boolean started;
+    
+    private Token token;
+    private NBTType type;
+    private String name;
+    private int listLength;
+    private boolean pending;
+    private int arrayLength = -1;
+    
+    public NbtStreamReader(InputStream instream) {
+        this(new StreamNbtInput(instream));
+    }
+    
+    public NbtStreamReader(ByteBuffer buffer) {
+        this(new BufferNbtInput(buffer));
+    }
+    
+    public NbtStreamReader(byte[] bytes) {
+        this(ByteBuffer.wrap(bytes));
+    }
+    
+    private NbtStreamReader(NbtInput input) {
+        this.input = input;
+        this.skipper = new PayloadSkipper(input);
+    }
+    
+    public Token next() throws IOException {
+        if (pending) {
+            skipPending();
+        }
+        name = null;
+        if (!started) {
+            started = true;
+            NBTType rootType = NbtReader.readType(input);
+            if (rootType == NBTType.End) {
+                return end(Token.EndOfInput, null);
+            }
+            name = NbtReader.readKey(input, keyBuffer);
+            return enter(rootType);
+        }
+        if (depth == 0) {
+            return end(Token.EndOfInput, null);
+        }
+        int top = depth - 1;
+        NBTType listType = frameListTypes[top];
+        if (listType == null) {
+            NBTType entryType = NbtReader.readType(input);
+            if (entryType == NBTType.End) {
+                depth--;
+                return end(Token.CompoundEnd, NBTType.Compound);
+            }
+            name = NbtReader.readKey(input, keyBuffer);
+            return enter(entryType);
+        }
+        if (frameLeft[top] > 0) {
+            frameLeft[top]--;
+            return enter(listType);
+        }
+        depth--;
+        return end(Token.ListEnd, NBTType.List);
+    }
+    
+    /**
+     * Skips the payload of the current value, or the remaining content of the container that has just been started.
+     * In the latter case the reader is afterwards positioned as if the matching end token had been returned.
+     */
+    public void skipValue() throws IOException {
+        switch (token) {
+        case Value:
+            if (pending) {
+                skipPending();
+            }
+            break;
+        case CompoundStart:
+            depth--;
+            skipper.skipPayload(NBTType.Compound);
+            end(Token.CompoundEnd, NBTType.Compound);
+            break;
+        case ListStart:
+            depth--;
+            skipper.skipListPayload(frameListTypes[depth], frameLeft[depth]);
+            end(Token.ListEnd, NBTType.List);
+            break;
+        default:
+            throw new IllegalStateException("Nothing to skip at " + token);
+        }
+    }
+    
+    public Token token() {
+        return token;
+    }
+    
+    /**
+     * @return the type of the current value or container
+     */
+    public NBTType type() {
+        return type;
+    }
+    
+    /**
+     * @return the key of the current value if it is part of a compound or the root, null otherwise
+     */
+    public String name() {
+        return name;
+    }
+    
+    public int depth() {
+        return depth;
+    }
+    
+    public NBTType listType() {
+        checkToken(Token.ListStart);
+        return frameListTypes[depth - 1];
+    }
+    
+    public int listLength() {
+        checkToken(Token.ListStart);
+        return listLength;
+    }
+    
+    public byte byteValue() throws IOException {
+        consume(NBTType.Byte);
+        return input.readByte();
+    }
+    
+    public short shortValue() throws IOException {
+        consume(NBTType.Short);
+        return input.readShort();
+    }
+    
+    public int intValue() throws IOException {
+        consume(NBTType.Int);
+        return input.readInt();
+    }
+    
+    public long longValue() throws IOException {
+        consume(NBTType.Long);
+        return input.readLong();
+    }
+    
+    public float floatValue() throws IOException {
+        consume(NBTType.Float);
+        return input.readFloat();
+    }
+    
+    public double doubleValue() throws IOException {
+        consume(NBTType.Double);
+        return input.readDouble();
+    }
+    
+    public String stringValue() throws IOException {
+        consume(NBTType.String);
+        return NbtReader.readString(input);
+    }
+    
+    /**
+     * @return the length of the current array value, the elements can still be read afterwards
+     */
+    public int arrayLength() throws IOException {
+        checkArray();
+        if (arrayLength < 0) {
+            arrayLength = NbtReader.readArrayLength(input);
+        }
+        return arrayLength;
+    }
+    
+    public byte[] byteArray() throws IOException {
+        checkValue(NBTType.ByteArray);
+        byte[] ar = new byte[arrayLength()];
+        byteArrayInto(ar);
+        return ar;
+    }
+    
+    public int[] intArray() throws IOException {
+        checkValue(NBTType.IntArray);
+        int[] ar = new int[arrayLength()];
+        intArrayInto(ar);
+        return ar;
+    }
+    
+    public long[] longArray() throws IOException {
+        checkValue(NBTType.LongArray);
+        long[] ar = new long[arrayLength()];
+        longArrayInto(ar);
+        return ar;
+    }
+    
+    /**
+     * Reads the current byte array value into the start of the given array.
+     *
+     * @return the number of elements read
+     */
+    public int byteArrayInto(byte[] target) throws IOException {
+        int len = arrayInto(NBTType.ByteArray, target.length);
+        input.readFully(target, 0, len);
+        return len;
+    }
+    
+    public int intArrayInto(int[] target) throws IOException {
+        int len = arrayInto(NBTType.IntArray, target.length);
+        input.readInts(target, 0, len);
+        return len;
+    }
+    
+    public int longArrayInto(long[] target) throws IOException {
+        int len = arrayInto(NBTType.LongArray, target.length);
+        input.readLongs(target, 0, len);
+        return len;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+    
+    private Token enter(NBTType valueType) throws IOException {
+        type = valueType;
+        arrayLength = -1;
+        switch (valueType) {
+        case Compound:
+            push(null, 0);
+            token = Token.CompoundStart;
+            break;
+        case List:
+            NBTType elementType = NbtReader.readType(input);
+            int size = NbtReader.readListLength(input, elementType);
+            if (elementType == NBTType.End && size > 0) {
+                throw new IOException("Lists may not contain end tags");
+            }
+            listLength = size;
+            push(elementType, listLength);
+            token = Token.ListStart;
+            break;
+        default:
+            pending = true;
+            token = Token.Value;
+            break;
+        }
+        return token;
+    }
+    
+    private Token end(Token endToken, NBTType endType) {
+        token = endToken;
+        type = endType;
+        return endToken;
+    }
+    
+    private void push(NBTType listType, int size) {
+        if (depth == frameListTypes.length) {
+            frameListTypes = Arrays.copyOf(frameListTypes, depth * 2);
+            frameLeft = Arrays.copyOf(frameLeft, depth * 2);
+        }
+        frameListTypes[depth] = listType;
+        frameLeft[depth] = size;
+        depth++;
+    }
+    
+    private void skipPending() throws IOException {
+        pending = false;
+        if (arrayLength >= 0) {
+            skipper.skipArrayElements(type, arrayLength);
+        } else {
+            skipper.skipPayload(type);
+        }
+    }
+    
+    private int arrayInto(NBTType arrayType, int capacity) throws IOException {
+        checkValue(arrayType);
+        int len = arrayLength();
+        if (capacity < len) {
+            throw new IllegalArgumentException("Target array too small, " + len + " elements needed");
+        }
+        pending = false;
+        return len;
+    }
+    
+    private void consume(NBTType valueType) {
+        checkValue(valueType);
+        pending = false;
+    }
+    
+    private void checkValue(NBTType valueType) {
+        if (!pending || token != Token.Value) {
+            throw new IllegalStateException("No unread value at " + token);
+        }
+        if (type != valueType) {
+            throw new NBTTypeException("Current value is of type " + type + ", not " + valueType);
+        }
+    }
+    
+    private void checkArray() {
+        if (!pending || token != Token.Value) {
+            throw new IllegalStateException("No unread value at " + token);
+        }
+        if (type != NBTType.ByteArray && type != NBTType.IntArray && type != NBTType.LongArray) {
+            throw new NBTTypeException("Current value is not an array: " + type);
+        }
+    }
+    
+    private void checkToken(Token expected) {
+        if (token != expected) {
+            throw new IllegalStateException("Expected " + expected + ", but at " + token);
+        }
+    }
+}
@@ -1,30 +1,40 @@
 package de.pcfreak9000.nbt;
 
 import java.io.Closeable;
-import java.io.DataOutputStream;
 import java.io.Flushable;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
-import java.nio.IntBuffer;
-import java.nio.LongBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
 
-import de.pcfreak9000.nbt.util.AbstractWriterHelper;
+import de.pcfreak9000.nbt.util.BufferNbtOutput;
+import de.pcfreak9000.nbt.util.BufferPool;
+import de.pcfreak9000.nbt.util.ChannelNbtOutput;
+import de.pcfreak9000.nbt.util.FramePool;
+import de.pcfreak9000.nbt.util.KeyCache;
+import de.pcfreak9000.nbt.util.NbtOutput;
+import de.pcfreak9000.nbt.util.StreamNbtOutput;
 import de.pcfreak9000.nbt.visitor.AbstractNBTValueVisitor;
 import de.pcfreak9000.nbt.visitor.NBTCompoundVisitor;
 import de.pcfreak9000.nbt.visitor.NBTListVisitor;
+import de.pcfreak9000.nbt.visitor.NBTPrimitiveListVisitor;
 import de.pcfreak9000.nbt.visitor.NBTValueVisitor;
 
+/**
+ * Writes binary NBT. By default every compound, list and value visitor handed out is a new object, which stays valid
+ * as long as the writer. With {@link #NbtWriter(NbtOutput, String, boolean) reused visitors} they are reused per
+ * nesting level instead, so writing allocates nothing, but each of them is only valid until its parent visitor is
+ * called again. That is how the readers of this library and {@link TagReader#applyVisitor} use them.
+ * <p>
+ * The first {@link IOException} stops all further output and is thrown by {@link #close()}.
+ * <p>
+ * Lists may be given {@link NBTListVisitor#UNKNOWN_LENGTH}, the length is then counted and patched in at the end of
+ * the list, see {@link NbtOutput#reserveInt()}.
+ */
 public class NbtWriter extends AbstractNBTValueVisitor implements Closeable, Flushable {
     
-    private static final int TMP_BUFFER_LENGTH = 8192;
-    
-    private final DataOutputStream stream;
-    private final List<IOException> exceptionsCatched;
+    private final Writers writers;
     
     //name==null => no type prefix (type and name) will be written
     
@@ -33,237 +43,492 @@ public class NbtWriter extends AbstractNBTValueVisitor implements Closeable, Flu
     }
     
     public NbtWriter(OutputStream out, String name) {
-        this(name, out instanceof DataOutputStream ? (DataOutputStream) out : new DataOutputStream(out),
-                new ArrayList<>(1));
+        this(out, name, BufferPool.DEFAULT_SIZE);
+    }
+    
+    /**
+     * Output is buffered in chunks of the given size. It is written to the stream whenever the root value is complete,
+     * like an unbuffered writer would have done, and at the latest on {@link #flush()} and {@link #close()}.
+     */
+    public NbtWriter(OutputStream out, String name, int bufferSize) {
+        this(new Writers(new StreamNbtOutput(out, bufferSize), false), name);
+    }
+    
+    public NbtWriter(WritableByteChannel channel, String name) {
+        this(channel, name, BufferPool.DEFAULT_SIZE);
+    }
+    
+    /**
+     * Like the stream variant, but large byte arrays are handed to the channel without being copied into the buffer.
+     */
+    public NbtWriter(WritableByteChannel channel, String name, int bufferSize) {
+        this(new Writers(new ChannelNbtOutput(channel, bufferSize), false), name);
+    }
+    
+    /**
+     * Writes into the buffer starting at its position. The position is advanced when the root value is complete, on
+     * {@link #flush()} and on {@link #close()}. Running out of space fails like any other I/O error.
+     */
+    public NbtWriter(ByteBuffer buffer, String name) {
+        this(new Writers(new BufferNbtOutput(buffer), false), name);
+    }
+    
+    public NbtWriter(NbtOutput out, String name) {
+        this(out, name, false);
+    }
+    
+    /**
+     * @param reuseVisitors if the visitors are reused per nesting level, see the class documentation
+     */
+    public NbtWriter(NbtOutput out, String name, boolean reuseVisitors) {
+        this(new Writers(out, reuseVisitors), name);
     }
     
-    private NbtWriter(String name, DataOutputStream s, List<IOException> exceptionsCatched) {
-        super(new ValueWriter(name, s, exceptionsCatched));
-        this.exceptionsCatched = exceptionsCatched;
-        this.stream = s;
+    private NbtWriter(Writers writers, String name) {
+        super(writers.valueWriter(0, name));
+        this.writers = writers;
     }
     
     @Override
     public void flush() throws IOException {
-        this.stream.flush();
+        this.writers.out.flush();
     }
     
     @Override
     public void close() throws IOException {
-        this.closeParentQuietly();
-        this.throwException();
-    }
-    
-    private void closeParentQuietly() {
         try {
-            this.stream.close();
+            this.writers.out.close();
         } catch (IOException e) {
-            this.exceptionsCatched.add(e);
+            this.writers.fail(e);
+        }
+        if (this.writers.failure != null) {
+            throw this.writers.failure;
         }
     }
     
-    private void throwException() throws IOException {
-        if (!this.exceptionsCatched.isEmpty()) {
-            IOException first = this.exceptionsCatched.get(0);
-            for (int i = 1; i < this.exceptionsCatched.size(); i++) {
-                first.addSuppressed(this.exceptionsCatched.get(i));
+    //State shared by all writers of one NbtWriter. If visitors are reused, they are used strictly nested, so there is
+    //one writer of each kind per nesting level, which is reinitialized whenever it is handed out again
+    private static final class Writers {
+        
+        private final NbtOutput out;
+        private IOException failure;
+        
+        //Null unless visitors are reused
+        private final FramePool<ValueWriter> valueWriters;
+        private final FramePool<CompoundWriter> compoundWriters;
+        private final FramePool<ListWriter> listWriters;
+        
+        private Writers(NbtOutput out, boolean reuseVisitors) {
+            this.out = out;
+            this.valueWriters = reuseVisitors ? new FramePool<>(() -> new ValueWriter(this)) : null;
+            this.compoundWriters = reuseVisitors ? new FramePool<>(() -> new CompoundWriter(this)) : null;
+            this.listWriters = reuseVisitors ? new FramePool<>(() -> new ListWriter(this)) : null;
+        }
+        
+        private ValueWriter valueWriter(int depth, String name) {
+            ValueWriter writer = valueWriters == null ? new ValueWriter(this) : valueWriters.get(depth);
+            return writer.init(depth, name);
+        }
+        
+        private CompoundWriter compoundWriter(int depth) {
+            CompoundWriter writer = compoundWriters == null ? new CompoundWriter(this) : compoundWriters.get(depth);
+            return writer.init(depth);
+        }
+        
+        private ListWriter listWriter(int depth) {
+            ListWriter writer = listWriters == null ? new ListWriter(this) : listWriters.get(depth);
+            return writer.init(depth);
+        }
+        
+        private boolean failed() {
+            return failure != null;
+        }
+        
+        //Hands a complete root value to the target, so it doesn't wait for a flush by the caller
+        private void ended(int depth) {
+            if (depth == 0 && failure == null) {
+                try {
+                    out.flushBuffer();
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+        }
+        
+        private void fail(IOException e) {
+            if (failure == null) {
+                failure = e;
+            } else {
+                failure.addSuppressed(e);
             }
-            throw first;
         }
     }
     
-    private static class ValueWriter extends AbstractWriterHelper<DataOutputStream> implements NBTValueVisitor {
+    private static final class ValueWriter implements NBTValueVisitor {
         
-        private final String name;
+        private final Writers writers;
+        private final NbtOutput out;
+        private int depth;
+        private String name;
         
-        public ValueWriter(String name, DataOutputStream stream, List<IOException> catched) {
-            super(stream, catched);
+        private ValueWriter(Writers writers) {
+            this.writers = writers;
+            this.out = writers.out;
+        }
+        
+        private ValueWriter init(int depth, String name) {
+            this.depth = depth;
             this.name = name;
+            return this;
         }
         
         private void writeString(String s) throws IOException {
-            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
-            this.dataOut.writeShort(bytes.length);
-            this.dataOut.write(bytes);
+            writeBytes(s.getBytes(StandardCharsets.UTF_8));
+        }
+        
+        private void writeBytes(byte[] bytes) throws IOException {
+            this.out.writeShort(bytes.length);
+            this.out.write(bytes, 0, bytes.length);
         }
         
-        private void writePrefix(NBTType type) throws IOException {
+        //Writes type and name if this is a named value, returns false if nothing may be written anymore
+        private boolean begin(NBTType type) throws IOException {
+            if (this.writers.failed()) {
+                return false;
+            }
             if (this.name != null) {
-                this.dataOut.writeByte(type.id);
+                this.out.writeByte(type.id);
                 if (type != NBTType.End) {
-                    this.writeString(this.name);
+                    writeBytes(KeyCache.shared().encode(this.name));
                 }
             }
+            return true;
         }
         
         @Override
         public NBTCompoundVisitor visitCompound() {
-            run(() -> writePrefix(NBTType.Compound));
-            return new CompoundWriter(dataOut, supressedExceptions);
+            try {
+                begin(NBTType.Compound);
+            } catch (IOException e) {
+                writers.fail(e);
+            }
+            return writers.compoundWriter(depth);
         }
         
         @Override
         public void visitEnd() {
-            run(() -> writePrefix(NBTType.End));
+            try {
+                begin(NBTType.End);
+            } catch (IOException e) {
+                writers.fail(e);
+            }
+            writers.ended(depth);
         }
         
         @Override
         public void visitInt(int i) {
-            run(() -> writePrefix(NBTType.Int));
-            run(() -> this.dataOut.writeInt(i));
+            try {
+                if (begin(NBTType.Int)) {
+                    this.out.writeInt(i);
+                }
+            } catch (IOException e) {
+                writers.fail(e);
+            }
+            writers.ended(depth);
         }
         
         @Override
         public void visitString(String s) {
-            run(() -> writePrefix(NBTType.String));
-            run(() -> writeString(s));
+            try {
+                if (begin(NBTType.String)) {
+                    writeString(s);
+                }
+            } catch (IOException e) {
+                writers.fail(e);
+            }
+            writers.ended(depth);
         }
         
         @Override
         public void visitByte(byte b) {
-            run(() -> writePrefix(NBTType.Byte));
-            run(() -> this.dataOut.writeByte(b));
+            try {
+                if (begin(NBTType.Byte)) {
+                    this.out.writeByte(b);
+                }
+            } catch (IOException e) {
+                writers.fail(e);
+            }
+            writers.ended(depth);
         }
         
         @Override
         public void visitShort(short s) {
-            run(() -> writePrefix(NBTType.Short));
-            run(() -> this.dataOut.writeShort(s));
+            try {
+                if (begin(NBTType.Short)) {
+                    this.out.writeShort(s);
+                }
+            } catch (IOException e) {
+                writers.fail(e);
+            }
+            writers.ended(depth);
         }
         
         @Override
         public void visitLong(long l) {
-            run(() -> writePrefix(NBTType.Long));
-            run(() -> this.dataOut.writeLong(l));
+            try {
+                if (begin(NBTType.Long)) {
+                    this.out.writeLong(l);
+                }
+            } catch (IOException e) {
+                writers.fail(e);
+            }
+            writers.ended(depth);
         }
         
         @Override
         public void visitFloat(float f) {
-            run(() -> writePrefix(NBTType.Float));
-            run(() -> this.dataOut.writeFloat(f));
+            try {
+                if (begin(NBTType.Float)) {
+                    this.out.writeFloat(f);
+                }
+            } catch (IOException e) {
+                writers.fail(e);
+            }
+            writers.ended(depth);
         }
         
         @Override
         public void visitDouble(double d) {
-            run(() -> writePrefix(NBTType.Double));
-            run(() -> this.dataOut.writeDouble(d));
+            try {
+                if (begin(NBTType.Double)) {
+                    this.out.writeDouble(d);
+                }
+            } catch (IOException e) {
+                writers.fail(e);
+            }
+            writers.ended(depth);
         }
         
         @Override
         public NBTListVisitor visitList() {
-            run(() -> writePrefix(NBTType.List));
-            return new ListWriter(dataOut, supressedExceptions);
+            try {
+                begin(NBTType.List);
+            } catch (IOException e) {
+                writers.fail(e);
+            }
+            return writers.listWriter(depth);
         }
         
         @Override
         public void visitByteArray(byte[] ar) {
-            run(() -> {
-                writePrefix(NBTType.ByteArray);
-                int length = ar.length;
-                this.dataOut.writeInt(length);
-                byte[] bufferArray = new byte[TMP_BUFFER_LENGTH];
-                ByteBuffer buffer = ByteBuffer.wrap(bufferArray);
-                for (int bufferLimit = buffer.limit(), offset = 0,
-                        bufferStep; (bufferStep = Math.min(bufferLimit, length - offset)) > 0; offset += bufferStep) {
-                    buffer.put(Arrays.copyOfRange(ar, offset, offset + bufferStep));
-                    this.dataOut.write(bufferArray, 0, bufferArray.length * bufferStep / bufferLimit);
-                    buffer.rewind();
+            try {
+                if (begin(NBTType.ByteArray)) {
+                    this.out.writeInt(ar.length);
+                    this.out.write(ar, 0, ar.length);
                 }
-            });
+            } catch (IOException e) {
+                writers.fail(e);
+            }
+            writers.ended(depth);
         }
         
         @Override
         public void visitIntArray(int[] ar) {
-            run(() -> {
-                writePrefix(NBTType.IntArray);
-                int length = ar.length;
-                this.dataOut.writeInt(length);
-                byte[] bufferArray = new byte[TMP_BUFFER_LENGTH];
-                IntBuffer buffer = ByteBuffer.wrap(bufferArray).asIntBuffer();
-                for (int bufferLimit = buffer.limit(), offset = 0,
-                        bufferStep; (bufferStep = Math.min(bufferLimit, length - offset)) > 0; offset += bufferStep) {
-                    buffer.put(Arrays.copyOfRange(ar, offset, offset + bufferStep));
-                    this.dataOut.write(bufferArray, 0, bufferArray.length * bufferStep / bufferLimit);
-                    buffer.rewind();
+            try {
+                if (begin(NBTType.IntArray)) {
+                    this.out.writeInt(ar.length);
+                    this.out.writeInts(ar, 0, ar.length);
                 }
-            });
+            } catch (IOException e) {
+                writers.fail(e);
+            }
+            writers.ended(depth);
         }
         
         @Override
         public void visitLongArray(long[] ar) {
-            run(() -> {
-                writePrefix(NBTType.LongArray);
-                int length = ar.length;
-                this.dataOut.writeInt(length);
-                byte[] bufferArray = new byte[TMP_BUFFER_LENGTH];
-                LongBuffer buffer = ByteBuffer.wrap(bufferArray).asLongBuffer();
-                for (int bufferLimit = buffer.limit(), offset = 0,
-                        bufferStep; (bufferStep = Math.min(bufferLimit, length - offset)) > 0; offset += bufferStep) {
-                    buffer.put(Arrays.copyOfRange(ar, offset, offset + bufferStep));
-                    this.dataOut.write(bufferArray, 0, bufferArray.length * bufferStep / bufferLimit);
-                    buffer.rewind();
+            try {
+                if (begin(NBTType.LongArray)) {
+                    this.out.writeInt(ar.length);
+                    this.out.writeLongs(ar, 0, ar.length);
                 }
-            });
+            } catch (IOException e) {
+                writers.fail(e);
+            }
+            writers.ended(depth);
         }
         
     }
     
-    private static class ListWriter extends AbstractWriterHelper<DataOutputStream> implements NBTListVisitor {
+    private static final class ListWriter implements NBTPrimitiveListVisitor {
         
-        //This would probably handle cases where values are visited before the length has been visited, but why should that happen?
-        //private ByteArrayOutputStream tmp;
+        private final Writers writers;
+        private final NbtOutput out;
+        private int depth;
+        //Mark of the length if it is counted, -1 otherwise
+        private long lengthMark;
+        private int count;
         
-        public ListWriter(DataOutputStream s, List<IOException> es) {
-            super(s, es);
-            //tmp = new ByteArrayOutputStream(0);
+        private ListWriter(Writers writers) {
+            this.writers = writers;
+            this.out = writers.out;
+        }
+        
+        private ListWriter init(int depth) {
+            this.depth = depth;
+            this.lengthMark = -1;
+            this.count = 0;
+            return this;
         }
         
         @Override
         public void visitType(NBTType type) {
-            run(() -> dataOut.writeByte(type.id));
+            try {
+                if (!writers.failed()) {
+                    out.writeByte(type.id);
+                }
+            } catch (IOException e) {
+                writers.fail(e);
+            }
         }
         
         @Override
         public void visitLength(int l) {
-            run(() -> {
-                dataOut.writeInt(l);
-                //                if (tmp != null) {
-                //                    byte[] ar = tmp.toByteArray();
-                //                    dataOut.write(ar);
-                //                    tmp.close();
-                //                    tmp = null;
-                //                }
-            });
-            
+            try {
+                if (writers.failed()) {
+                    return;
+                }
+                if (l == UNKNOWN_LENGTH) {
+                    lengthMark = out.reserveInt();
+                } else {
+                    out.writeInt(l);
+                }
+            } catch (IOException e) {
+                writers.fail(e);
+            }
         }
         
         @Override
         public NBTValueVisitor visitValue() {
-            //   DataOutputStream output = this.tmp != null ? new DataOutputStream(tmp) : dataOut;
-            return new ValueWriter(null, dataOut, supressedExceptions);
+            count++;
+            return writers.valueWriter(depth + 1, null);
+        }
+        
+        @Override
+        public void visitByteList(byte[] values) {
+            try {
+                if (!writers.failed()) {
+                    count += values.length;
+                    out.write(values, 0, values.length);
+                }
+            } catch (IOException e) {
+                writers.fail(e);
+            }
+        }
+        
+        @Override
+        public void visitShortList(short[] values) {
+            try {
+                if (!writers.failed()) {
+                    count += values.length;
+                    out.writeShorts(values, 0, values.length);
+                }
+            } catch (IOException e) {
+                writers.fail(e);
+            }
+        }
+        
+        @Override
+        public void visitIntList(int[] values) {
+            try {
+                if (!writers.failed()) {
+                    count += values.length;
+                    out.writeInts(values, 0, values.length);
+                }
+            } catch (IOException e) {
+                writers.fail(e);
+            }
+        }
+        
+        @Override
+        public void visitLongList(long[] values) {
+            try {
+                if (!writers.failed()) {
+                    count += values.length;
+                    out.writeLongs(values, 0, values.length);
+                }
+            } catch (IOException e) {
+                writers.fail(e);
+            }
+        }
+        
+        @Override
+        public void visitFloatList(float[] values) {
+            try {
+                if (!writers.failed()) {
+                    count += values.length;
+                    out.writeFloats(values, 0, values.length);
+                }
+            } catch (IOException e) {
+                writers.fail(e);
+            }
+        }
+        
+        @Override
+        public void visitDoubleList(double[] values) {
+            try {
+                if (!writers.failed()) {
+                    count += values.length;
+                    out.writeDoubles(values, 0, values.length);
+                }
+            } catch (IOException e) {
+                writers.fail(e);
+            }
         }
         
         @Override
         public void visitEnd() {
-            //we dont do this, because this is handled via the list length
-            //run(() -> this.dataOut.writeByte(NBTType.End.id));
+            //there is no end tag, lists are terminated by their length
+            try {
+                if (lengthMark != -1 && !writers.failed()) {
+                    out.patchInt(lengthMark, count);
+                }
+            } catch (IOException e) {
+                writers.fail(e);
+            }
+            writers.ended(depth);
         }
     }
     
-    private static class CompoundWriter extends AbstractWriterHelper<DataOutputStream> implements NBTCompoundVisitor {
+    private static final class CompoundWriter implements NBTCompoundVisitor {
+        
+        private final Writers writers;
+        private int depth;
+        
+        private CompoundWriter(Writers writers) {
+            this.writers = writers;
+        }
         
-        public CompoundWriter(DataOutputStream s, List<IOException> es) {
-            super(s, es);
+        private CompoundWriter init(int depth) {
+            this.depth = depth;
+            return this;
         }
         
         @Override
         public NBTValueVisitor visitValue(String key) {
-            return new ValueWriter(key, dataOut, supressedExceptions);
+            return writers.valueWriter(depth + 1, key);
         }
         
         @Override
         public void visitEnd() {
-            run(() -> this.dataOut.writeByte(NBTType.End.id));
+            try {
+                if (!writers.failed()) {
+                    writers.out.writeByte(NBTType.End.id);
+                }
+            } catch (IOException e) {
+                writers.fail(e);
+            }
+            writers.ended(depth);
         }
         
     }
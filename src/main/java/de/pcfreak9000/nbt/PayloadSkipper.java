@@ -0,0 +1,143 @@
+package de.pcfreak9000.nbt;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import de.pcfreak9000.nbt.util.NbtInput;
+
+//Skips values using the length prefixes only, nested containers are tracked on an explicit stack that is reused
+class PayloadSkipper {
+    
+    private final NbtInput input;
+    private NBTType[] skipTypes;
+    private int[] skipLeft;
+    
+    PayloadSkipper(NbtInput input) {
+        this.input = input;
+    }
+    
+    void skipPayload(NBTType type) throws IOException {
+        skip(type, 0);
+    }
+    
+    //Skips the elements of a list whose element type and size have already been read
+    void skipListPayload(NBTType elementType, int size) throws IOException {
+        skip(null, skipListHeader(elementType, size, 0));
+    }
+    
+    //Skips the elements of an array whose length has already been read
+    void skipArrayElements(NBTType arrayType, int length) throws IOException {
+        switch (arrayType) {
+        case ByteArray:
+            input.skipBytes(length);
+            break;
+        case IntArray:
+            input.skipBytes(length * (long) Integer.BYTES);
+            break;
+        case LongArray:
+            input.skipBytes(length * (long) Long.BYTES);
+            break;
+        default:
+            throw new IllegalArgumentException("Not an array type: " + arrayType);
+        }
+    }
+    
+    private void skip(NBTType next, int depth) throws IOException {
+        while (true) {
+            if (next != null) {
+                switch (next) {
+                case Compound:
+                    depth = pushSkip(depth, null, 0);
+                    break;
+                case List:
+                    NBTType elementType = NbtReader.readType(input);
+                    depth = skipListHeader(elementType, NbtReader.readListLength(input, elementType), depth);
+                    break;
+                case String:
+                    input.skipBytes(input.readShort() & 0xFFFF);
+                    break;
+                case ByteArray:
+                    input.skipBytes(NbtReader.readArrayLength(input));
+                    break;
+                case IntArray:
+                    input.skipBytes(NbtReader.readArrayLength(input) * (long) Integer.BYTES);
+                    break;
+                case LongArray:
+                    input.skipBytes(NbtReader.readArrayLength(input) * (long) Long.BYTES);
+                    break;
+                case End:
+                    break;
+                default:
+                    input.skipBytes(fixedSize(next));
+                    break;
+                }
+            }
+            if (depth == 0) {
+                return;
+            }
+            int top = depth - 1;
+            if (skipTypes[top] == null) {
+                next = NbtReader.readType(input);
+                if (next == NBTType.End) {
+                    depth--;
+                    next = null;
+                } else {
+                    input.skipBytes(input.readShort() & 0xFFFF);
+                }
+            } else if (skipLeft[top] > 0) {
+                skipLeft[top]--;
+                next = skipTypes[top];
+            } else {
+                depth--;
+                next = null;
+            }
+        }
+    }
+    
+    private int skipListHeader(NBTType elementType, int size, int depth) throws IOException {
+        if (size <= 0) {
+            return depth;
+        }
+        int fixed = fixedSize(elementType);
+        if (fixed > 0) {
+            input.skipBytes((long) size * fixed);
+            return depth;
+        }
+        if (elementType == NBTType.End) {
+            throw new IOException("Lists may not contain end tags");
+        }
+        return pushSkip(depth, elementType, size);
+    }
+    
+    private int pushSkip(int depth, NBTType listType, int size) {
+        if (skipTypes == null) {
+            skipTypes = new NBTType[8];
+            skipLeft = new int[8];
+        } else if (depth == skipTypes.length) {
+            skipTypes = Arrays.copyOf(skipTypes, depth * 2);
+            skipLeft = Arrays.copyOf(skipLeft, depth * 2);
+        }
+        skipTypes[depth] = listType;
+        skipLeft[depth] = size;
+        return depth + 1;
+    }
+    
+    static int fixedSize(NBTType type) {
+        switch (type) {
+        case Byte:
+            return Byte.BYTES;
+        case Short:
+            return Short.BYTES;
+        case Int:
+            return Integer.BYTES;
+        case Long:
+            return Long.BYTES;
+        case Float:
+            return Float.BYTES;
+        case Double:
+            return Double.BYTES;
+        default:
+            return -1;
+        }
+    }
+}
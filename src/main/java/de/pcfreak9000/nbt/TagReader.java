@@ -3,15 +3,20 @@ package de.pcfreak9000.nbt;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
+import de.pcfreak9000.nbt.compression.CompressionCodec;
+import de.pcfreak9000.nbt.util.BufferNbtOutput;
+import de.pcfreak9000.nbt.util.ChannelNbtOutput;
 import de.pcfreak9000.nbt.util.ContextStackEvaluator;
 import de.pcfreak9000.nbt.util.ContextStackEvaluator.ContextType;
 import de.pcfreak9000.nbt.util.ContextStackEvaluator.IContext;
+import de.pcfreak9000.nbt.util.FramePool;
 import de.pcfreak9000.nbt.visitor.NBTCompoundVisitor;
 import de.pcfreak9000.nbt.visitor.NBTListVisitor;
+import de.pcfreak9000.nbt.visitor.NBTPrimitiveListVisitor;
 import de.pcfreak9000.nbt.visitor.NBTValueVisitor;
 
 public class TagReader {
@@ -20,42 +25,115 @@ public class TagReader {
     }
     
     public static void toCompressedBinaryNBTFile(File target, NBTTag nbt) throws IOException {
-        try (CompressedNbtWriter writer = new CompressedNbtWriter(new FileOutputStream(target))) {
+        toCompressedBinaryNBTFile(target, nbt, CompressionCodec.gzip());
+    }
+    
+    public static void toCompressedBinaryNBTFile(File target, NBTTag nbt, CompressionCodec codec) throws IOException {
+        try (CompressedNbtWriter writer = new CompressedNbtWriter(new FileOutputStream(target), codec)) {
             applyVisitor(writer, nbt);
         }
     }
     
     public static void toBinaryNBTFile(File target, NBTTag tag) throws IOException {
-        try (NbtWriter writer = new NbtWriter(new FileOutputStream(target))) {
+        FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try (NbtWriter writer = new NbtWriter(new ChannelNbtOutput(channel), "", true)) {
+            applyVisitor(writer, tag);
+        }
+    }
+    
+    /**
+     * @return the number of bytes the tag takes when written with the given name, or without type and name if the name
+     *         is null
+     */
+    public static int serializedSize(NBTTag tag, String name) {
+        int size = tag.serializedSize();
+        if (name == null) {
+            return size;
+        }
+        if (tag.type() == NBTType.End) {
+            return Byte.BYTES;
+        }
+        return Math.addExact(size, Byte.BYTES + Short.BYTES + NBTTag.utf8Length(name));
+    }
+    
+    /**
+     * Serializes the tag into an array of exactly the required size.
+     */
+    public static byte[] toByteArray(NBTTag tag, String name) {
+        byte[] bytes = new byte[serializedSize(tag, name)];
+        try {
+            writeTo(ByteBuffer.wrap(bytes), tag, name);
+        } catch (IOException e) {
+            throw new IllegalStateException("Tag changed while being written", e);
+        }
+        return bytes;
+    }
+    
+    /**
+     * Writes the tag at the position of the buffer and advances it. Use {@link #serializedSize(NBTTag, String)} to
+     * check for space first.
+     */
+    public static void writeTo(ByteBuffer target, NBTTag tag, String name) throws IOException {
+        try (NbtWriter writer = new NbtWriter(new BufferNbtOutput(target), name, true)) {
             applyVisitor(writer, tag);
         }
     }
     
+    private static final ThreadLocal<Frames> FRAMES = ThreadLocal.withInitial(Frames::new);
+    
     public static void applyVisitor(NBTValueVisitor visitor, NBTTag start) {
+        Frames frames = FRAMES.get();
+        int position = frames.evaluator.depth();
         try {
-            ContextStackEvaluator.evaluate(new ValueContext(start, visitor));
+            frames.evaluator.run(frames.valueFrames.get(position).init(position, start, visitor));
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
     
+    //Evaluator and frames are reused per thread, nested calls push their frames above the ones in use
+    private static class Frames {
+        private final ContextStackEvaluator evaluator = new ContextStackEvaluator();
+        private final FramePool<ValueContext> valueFrames = new FramePool<>(() -> new ValueContext(this));
+        private final FramePool<CompoundContext> compoundFrames = new FramePool<>(() -> new CompoundContext(this));
+        private final FramePool<ListContext> listFrames = new FramePool<>(() -> new ListContext(this));
+    }
+    
     private static class CompoundContext implements IContext {
-        private final Iterator<Map.Entry<String, NBTTag>> iterator;
-        private final NBTCompoundVisitor compoundVisitor;
+        private final Frames frames;
+        private int position;
+        private NBTCompound compound;
+        private int index;
+        private NBTCompoundVisitor compoundVisitor;
+        
+        public CompoundContext(Frames frames) {
+            this.frames = frames;
+        }
         
-        public CompoundContext(Iterator<Entry<String, NBTTag>> iterator, NBTCompoundVisitor compoundVisitor) {
-            this.iterator = iterator;
+        private CompoundContext init(int position, NBTCompound compound, NBTCompoundVisitor compoundVisitor) {
+            this.position = position;
+            this.compound = compound;
+            this.index = 0;
             this.compoundVisitor = compoundVisitor;
+            return this;
         }
         
         @Override
         public IContext evaluate() {
-            if (!iterator.hasNext()) {
-                compoundVisitor.visitEnd();
-                return null;
+            while (index < compound.entryCount()) {
+                int current = index++;
+                NBTValueVisitor valueVisitor = compoundVisitor.visitValue(compound.keyAt(current));
+                if (valueVisitor != null) {
+                    //Lazy entries are only decoded if they are visited
+                    return frames.valueFrames.get(position + 1).init(position + 1, compound.valueAt(current),
+                            valueVisitor);
+                }
             }
-            Map.Entry<String, NBTTag> next = iterator.next();
-            return new ValueContext(next.getValue(), compoundVisitor.visitValue(next.getKey()));
+            compoundVisitor.visitEnd();
+            compound = null;
+            compoundVisitor = null;
+            return null;
         }
         
         @Override
@@ -66,21 +144,37 @@ public class TagReader {
     
     private static class ListContext implements IContext {
         
-        private final NBTListVisitor listVisitor;
-        private final Iterator<NBTTag> iterator;
+        private final Frames frames;
+        private int position;
+        private NBTListVisitor listVisitor;
+        private NBTList list;
+        private int index;
+        
+        public ListContext(Frames frames) {
+            this.frames = frames;
+        }
         
-        public ListContext(NBTListVisitor lvis, Iterator<NBTTag> it) {
-            this.listVisitor = lvis;
-            this.iterator = it;
+        private ListContext init(int position, NBTListVisitor listVisitor, NBTList list) {
+            this.position = position;
+            this.listVisitor = listVisitor;
+            this.list = list;
+            this.index = 0;
+            return this;
         }
         
         @Override
         public IContext evaluate() throws IOException {
-            if (!iterator.hasNext()) {
-                listVisitor.visitEnd();
-                return null;
+            while (index < list.size()) {
+                NBTTag next = list.get(index++);
+                NBTValueVisitor valueVisitor = listVisitor.visitValue();
+                if (valueVisitor != null) {
+                    return frames.valueFrames.get(position + 1).init(position + 1, next, valueVisitor);
+                }
             }
-            return new ValueContext(iterator.next(), listVisitor.visitValue());
+            listVisitor.visitEnd();
+            listVisitor = null;
+            list = null;
+            return null;
         }
         
         @Override
@@ -91,20 +185,36 @@ public class TagReader {
     }
     
     private static class ValueContext implements IContext {
-        private final NBTTag entry;
-        private final NBTValueVisitor valueVisitor;
+        private final Frames frames;
+        private int position;
+        private NBTTag entry;
+        private NBTValueVisitor valueVisitor;
+        
+        public ValueContext(Frames frames) {
+            this.frames = frames;
+        }
         
-        public ValueContext(NBTTag entry, NBTValueVisitor valueVisitor) {
+        private ValueContext init(int position, NBTTag entry, NBTValueVisitor valueVisitor) {
+            this.position = position;
             this.entry = entry;
             this.valueVisitor = valueVisitor;
+            return this;
         }
         
         @Override
         public IContext evaluate() {
+            NBTTag entry = this.entry;
+            NBTValueVisitor valueVisitor = this.valueVisitor;
+            this.entry = null;
+            this.valueVisitor = null;
             switch (entry.type()) {
             case Compound:
                 NBTCompound compound = (NBTCompound) entry;
-                return new CompoundContext(compound.entrySet().iterator(), valueVisitor.visitCompound());
+                NBTCompoundVisitor compoundVisitor = valueVisitor.visitCompound();
+                if (compoundVisitor == null) {
+                    return null;
+                }
+                return frames.compoundFrames.get(position).init(position, compound, compoundVisitor);
             case End:
             case Byte:
             case Short:
@@ -121,9 +231,17 @@ public class TagReader {
             case List:
                 NBTList list = (NBTList) entry;
                 NBTListVisitor listVisitor = valueVisitor.visitList();
+                if (listVisitor == null) {
+                    return null;
+                }
                 listVisitor.visitType(list.getEntryType());
-                listVisitor.visitLength(list.getContent().size());
-                return new ListContext(listVisitor, list.getContent().iterator());
+                listVisitor.visitLength(list.size());
+                if (!list.isEmpty() && listVisitor instanceof NBTPrimitiveListVisitor
+                        && list.visitPrimitives((NBTPrimitiveListVisitor) listVisitor)) {
+                    listVisitor.visitEnd();
+                    return null;
+                }
+                return frames.listFrames.get(position).init(position, listVisitor, list);
             default:
                 throw new IllegalArgumentException(entry.type() + "");
             }
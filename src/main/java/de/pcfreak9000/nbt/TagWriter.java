@@ -13,6 +13,7 @@ import de.pcfreak9000.nbt.NBTTag.ShortEntry;
 import de.pcfreak9000.nbt.NBTTag.StringEntry;
 import de.pcfreak9000.nbt.visitor.NBTCompoundVisitor;
 import de.pcfreak9000.nbt.visitor.NBTListVisitor;
+import de.pcfreak9000.nbt.visitor.NBTPrimitiveListVisitor;
 import de.pcfreak9000.nbt.visitor.NBTValueVisitor;
 
 public class TagWriter implements NBTValueVisitor {
@@ -132,7 +133,7 @@ public class TagWriter implements NBTValueVisitor {
         protected abstract void set(NBTCompound comp);
     }
     
-    private static abstract class ListWriter implements NBTListVisitor {
+    private static abstract class ListWriter implements NBTPrimitiveListVisitor {
         private NBTList list;
         private int length;
         
@@ -144,7 +145,7 @@ public class TagWriter implements NBTValueVisitor {
             if (list != null) {
                 throw new IllegalStateException("Found a second type");
             }
-            list = new NBTList(type);
+            list = NBTPrimitiveList.create(type);
         }
         
         @Override
@@ -154,6 +155,9 @@ public class TagWriter implements NBTValueVisitor {
         
         @Override
         public NBTValueVisitor visitValue() {
+            if (list.isEmpty() && length != UNKNOWN_LENGTH && list instanceof NBTPrimitiveList) {
+                ((NBTPrimitiveList) list).ensureCapacity(length);
+            }
             return new TagWriter() {
                 @Override
                 protected void set(NBTTag entry) {
@@ -162,9 +166,63 @@ public class TagWriter implements NBTValueVisitor {
             };
         }
         
+        @Override
+        public void visitByteList(byte[] values) {
+            if (list instanceof NBTByteList) {
+                ((NBTByteList) list).append(values);
+            } else {
+                NBTPrimitiveListVisitor.super.visitByteList(values);
+            }
+        }
+        
+        @Override
+        public void visitShortList(short[] values) {
+            if (list instanceof NBTShortList) {
+                ((NBTShortList) list).append(values);
+            } else {
+                NBTPrimitiveListVisitor.super.visitShortList(values);
+            }
+        }
+        
+        @Override
+        public void visitIntList(int[] values) {
+            if (list instanceof NBTIntList) {
+                ((NBTIntList) list).append(values);
+            } else {
+                NBTPrimitiveListVisitor.super.visitIntList(values);
+            }
+        }
+        
+        @Override
+        public void visitLongList(long[] values) {
+            if (list instanceof NBTLongList) {
+                ((NBTLongList) list).append(values);
+            } else {
+                NBTPrimitiveListVisitor.super.visitLongList(values);
+            }
+        }
+        
+        @Override
+        public void visitFloatList(float[] values) {
+            if (list instanceof NBTFloatList) {
+                ((NBTFloatList) list).append(values);
+            } else {
+                NBTPrimitiveListVisitor.super.visitFloatList(values);
+            }
+        }
+        
+        @Override
+        public void visitDoubleList(double[] values) {
+            if (list instanceof NBTDoubleList) {
+                ((NBTDoubleList) list).append(values);
+            } else {
+                NBTPrimitiveListVisitor.super.visitDoubleList(values);
+            }
+        }
+        
         @Override
         public void visitEnd() {
-            if (length != list.getContent().size()) {
+            if (length != UNKNOWN_LENGTH && length != list.size()) {
                 throw new IllegalStateException("List size changed");
             }
             this.set(list);
@@ -0,0 +1,103 @@
+package de.pcfreak9000.nbt.compression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+
+/**
+ * Wraps streams to compress or decompress NBT data. Closing a wrapped stream closes the underlying one.
+ */
+public interface CompressionCodec {
+    
+    /**
+     * The number of leading bytes {@link #detect(byte[], int, int)} needs.
+     */
+    int DETECT_LENGTH = 4;
+    
+    /**
+     * Uncompressed data, streams are passed through as they are.
+     */
+    CompressionCodec NONE = new CompressionCodec() {
+        @Override
+        public OutputStream compress(OutputStream out) {
+            return out;
+        }
+        
+        @Override
+        public InputStream decompress(InputStream in) {
+            return in;
+        }
+        
+        @Override
+        public String toString() {
+            return "none";
+        }
+    };
+    
+    OutputStream compress(OutputStream out) throws IOException;
+    
+    InputStream decompress(InputStream in) throws IOException;
+    
+    static CompressionCodec gzip() {
+        return DeflateCodec.GZIP;
+    }
+    
+    static CompressionCodec gzip(int level) {
+        return new DeflateCodec(DeflateCodec.Format.GZIP, level, Deflater.DEFAULT_STRATEGY);
+    }
+    
+    static CompressionCodec zlib() {
+        return DeflateCodec.ZLIB;
+    }
+    
+    static CompressionCodec zlib(int level) {
+        return new DeflateCodec(DeflateCodec.Format.ZLIB, level, Deflater.DEFAULT_STRATEGY);
+    }
+    
+    static CompressionCodec deflate(int level) {
+        return new DeflateCodec(DeflateCodec.Format.RAW, level, Deflater.DEFAULT_STRATEGY);
+    }
+    
+    /**
+     * Gzip compressed on the common fork-join pool, see {@link ParallelGzipCodec}.
+     */
+    static CompressionCodec parallelGzip(int level) {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        return new ParallelGzipCodec(level, pool, pool.getParallelism());
+    }
+    
+    static CompressionCodec lz4() {
+        return Lz4Codec.INSTANCE;
+    }
+    
+    /**
+     * Identifies gzip, zlib and LZ4 data by their headers. Anything else, including raw deflate, is assumed to be
+     * uncompressed.
+     * 
+     * @return the codec to read the data with, {@link #NONE} if it is uncompressed
+     */
+    static CompressionCodec detect(byte[] header, int off, int len) {
+        if (len >= 2) {
+            int b0 = header[off] & 0xFF;
+            int b1 = header[off + 1] & 0xFF;
+            if (b0 == 0x1F && b1 == 0x8B) {
+                return gzip();
+            }
+            //Deflate with a window of at most 32 KiB, no preset dictionary and a valid header check
+            if ((b0 & 0x0F) == 8 && (b0 >>> 4) <= 7 && (b1 & 0x20) == 0 && ((b0 << 8) | b1) % 31 == 0) {
+                return zlib();
+            }
+        }
+        if (len >= 4) {
+            int magic = (header[off] & 0xFF) | (header[off + 1] & 0xFF) << 8 | (header[off + 2] & 0xFF) << 16
+                    | (header[off + 3] & 0xFF) << 24;
+            if (magic == Lz4OutputStream.MAGIC || (magic & 0xFFFFFFF0) == Lz4InputStream.SKIPPABLE_MAGIC) {
+                return lz4();
+            }
+        }
+        return NONE;
+    }
+    
+}
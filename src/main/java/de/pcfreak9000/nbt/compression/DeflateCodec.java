@@ -0,0 +1,78 @@
+package de.pcfreak9000.nbt.compression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Deflate in one of its containers, with configurable level and strategy.
+ */
+public final class DeflateCodec implements CompressionCodec {
+    
+    public static enum Format {
+        GZIP, ZLIB, RAW;
+    }
+    
+    static final DeflateCodec GZIP = new DeflateCodec(Format.GZIP, Deflater.DEFAULT_COMPRESSION,
+            Deflater.DEFAULT_STRATEGY);
+    static final DeflateCodec ZLIB = new DeflateCodec(Format.ZLIB, Deflater.DEFAULT_COMPRESSION,
+            Deflater.DEFAULT_STRATEGY);
+    
+    private final Format format;
+    private final int level;
+    private final int strategy;
+    private final ZlibPool pool;
+    
+    /**
+     * @param level    0-9 or {@link Deflater#DEFAULT_COMPRESSION}
+     * @param strategy one of the strategies of {@link Deflater}
+     */
+    public DeflateCodec(Format format, int level, int strategy) {
+        this(format, level, strategy, ZlibPool.shared());
+    }
+    
+    /**
+     * @param pool the pool deflaters and inflaters are taken from
+     */
+    public DeflateCodec(Format format, int level, int strategy, ZlibPool pool) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid level " + level);
+        }
+        if (strategy != Deflater.DEFAULT_STRATEGY && strategy != Deflater.FILTERED
+                && strategy != Deflater.HUFFMAN_ONLY) {
+            throw new IllegalArgumentException("Invalid strategy " + strategy);
+        }
+        this.format = format;
+        this.level = level;
+        this.strategy = strategy;
+        this.pool = pool;
+    }
+    
+    public Format getFormat() {
+        return this.format;
+    }
+    
+    public int getLevel() {
+        return this.level;
+    }
+    
+    public int getStrategy() {
+        return this.strategy;
+    }
+    
+    @Override
+    public OutputStream compress(OutputStream out) throws IOException {
+        return new DeflateOutputStream(out, this.format, this.level, this.strategy, this.pool);
+    }
+    
+    @Override
+    public InputStream decompress(InputStream in) throws IOException {
+        return new InflateInputStream(in, this.format, this.pool);
+    }
+    
+    @Override
+    public String toString() {
+        return this.format.name().toLowerCase() + "(level " + this.level + ", strategy " + this.strategy + ")";
+    }
+}
@@ -0,0 +1,112 @@
+package de.pcfreak9000.nbt.compression;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import de.pcfreak9000.nbt.compression.DeflateCodec.Format;
+import de.pcfreak9000.nbt.util.BufferPool;
+
+/**
+ * Deflates into gzip, zlib or raw deflate with a {@link Deflater} from a {@link ZlibPool}, which is returned on
+ * {@link #close()}. {@link #flush()} performs a sync flush, so everything written so far can be decompressed.
+ */
+public class DeflateOutputStream extends FilterOutputStream {
+    
+    private final Format format;
+    private final ZlibPool pool;
+    private final Deflater deflater;
+    private final int level;
+    private final int strategy;
+    private final CRC32 crc;
+    private final byte[] single = new byte[1];
+    private byte[] buffer;
+    
+    public DeflateOutputStream(OutputStream out, Format format, int level, int strategy, ZlibPool pool)
+            throws IOException {
+        super(out);
+        this.format = format;
+        this.pool = pool;
+        this.crc = format == Format.GZIP ? new CRC32() : null;
+        if (format == Format.GZIP) {
+            //magic, deflate, no flags, no mtime, no extra flags, unknown OS
+            out.write(new byte[] { 0x1F, (byte) 0x8B, 8, 0, 0, 0, 0, 0, 0, (byte) 0xFF });
+        }
+        this.level = level;
+        this.strategy = strategy;
+        this.deflater = pool.acquireDeflater(level, strategy, nowrap());
+        this.buffer = BufferPool.acquire(BufferPool.DEFAULT_SIZE);
+    }
+    
+    private boolean nowrap() {
+        return this.format != Format.ZLIB;
+    }
+    
+    private void ensureOpen() throws IOException {
+        if (this.buffer == null) {
+            throw new IOException("Stream closed");
+        }
+    }
+    
+    @Override
+    public void write(int b) throws IOException {
+        this.single[0] = (byte) b;
+        write(this.single, 0, 1);
+    }
+    
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len == 0) {
+            return;
+        }
+        if (this.crc != null) {
+            this.crc.update(b, off, len);
+        }
+        this.deflater.setInput(b, off, len);
+        while (!this.deflater.needsInput()) {
+            deflate(Deflater.NO_FLUSH);
+        }
+    }
+    
+    private int deflate(int flush) throws IOException {
+        int n = this.deflater.deflate(this.buffer, 0, this.buffer.length, flush);
+        if (n > 0) {
+            this.out.write(this.buffer, 0, n);
+        }
+        return n;
+    }
+    
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        while (deflate(Deflater.SYNC_FLUSH) == this.buffer.length) {
+        }
+        this.out.flush();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (this.buffer == null) {
+            return;
+        }
+        try (OutputStream out = this.out) {
+            this.deflater.finish();
+            while (!this.deflater.finished()) {
+                deflate(Deflater.NO_FLUSH);
+            }
+            if (this.crc != null) {
+                int crc = (int) this.crc.getValue();
+                int size = (int) this.deflater.getBytesRead();
+                out.write(new byte[] { (byte) crc, (byte) (crc >>> 8), (byte) (crc >>> 16), (byte) (crc >>> 24),
+                        (byte) size, (byte) (size >>> 8), (byte) (size >>> 16), (byte) (size >>> 24) });
+            }
+        } finally {
+            this.pool.release(this.deflater, this.level, this.strategy, nowrap());
+            BufferPool.release(this.buffer);
+            this.buffer = null;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package de.pcfreak9000.nbt.compression;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import de.pcfreak9000.nbt.compression.DeflateCodec.Format;
+import de.pcfreak9000.nbt.util.BufferPool;
+
+/**
+ * Inflates gzip, zlib or raw deflate data with an {@link Inflater} from a {@link ZlibPool}, which is returned on
+ * {@link #close()}. Concatenated gzip members are read as one stream and their trailers are verified.
+ */
+public class InflateInputStream extends FilterInputStream {
+    
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    
+    private final Format format;
+    private final ZlibPool pool;
+    private final Inflater inflater;
+    private final CRC32 crc;
+    private final byte[] single = new byte[1];
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    private boolean eof;
+    
+    public InflateInputStream(InputStream in, Format format, ZlibPool pool) throws IOException {
+        super(in);
+        this.format = format;
+        this.pool = pool;
+        this.crc = format == Format.GZIP ? new CRC32() : null;
+        this.buffer = BufferPool.acquire(BufferPool.DEFAULT_SIZE);
+        this.inflater = pool.acquireInflater(nowrap());
+        try {
+            if (format == Format.GZIP) {
+                readHeader(readUByte(), readUByte());
+            }
+        } catch (IOException | RuntimeException e) {
+            release();
+            throw e;
+        }
+    }
+    
+    private boolean nowrap() {
+        return this.format != Format.ZLIB;
+    }
+    
+    private void ensureOpen() throws IOException {
+        if (this.buffer == null) {
+            throw new IOException("Stream closed");
+        }
+    }
+    
+    //Returns false at the end of the underlying stream
+    private boolean fill() throws IOException {
+        if (this.position < this.limit) {
+            return true;
+        }
+        int n = this.in.read(this.buffer, 0, this.buffer.length);
+        if (n <= 0) {
+            return false;
+        }
+        this.position = 0;
+        this.limit = n;
+        return true;
+    }
+    
+    private int readUByte() throws IOException {
+        if (!fill()) {
+            throw new EOFException("Unexpected end of compressed stream");
+        }
+        return this.buffer[this.position++] & 0xFF;
+    }
+    
+    private int readIntLE() throws IOException {
+        return readUByte() | readUByte() << 8 | readUByte() << 16 | readUByte() << 24;
+    }
+    
+    private void readHeader(int magic0, int magic1) throws IOException {
+        if (magic0 != 0x1F || magic1 != 0x8B) {
+            throw new ZipException("Not in GZIP format");
+        }
+        if (readUByte() != 8) {
+            throw new ZipException("Unsupported compression method");
+        }
+        int flags = readUByte();
+        //mtime, extra flags and OS
+        for (int i = 0; i < 6; i++) {
+            readUByte();
+        }
+        if ((flags & FEXTRA) != 0) {
+            int length = readUByte() | readUByte() << 8;
+            for (int i = 0; i < length; i++) {
+                readUByte();
+            }
+        }
+        if ((flags & FNAME) != 0) {
+            while (readUByte() != 0) {
+            }
+        }
+        if ((flags & FCOMMENT) != 0) {
+            while (readUByte() != 0) {
+            }
+        }
+        if ((flags & FHCRC) != 0) {
+            readUByte();
+            readUByte();
+        }
+    }
+    
+    //Called once the inflater is finished, returns true if another gzip member follows
+    private boolean nextMember() throws IOException {
+        this.position = this.limit - this.inflater.getRemaining();
+        if (this.format != Format.GZIP) {
+            return false;
+        }
+        if (readIntLE() != (int) this.crc.getValue()) {
+            throw new ZipException("Corrupt GZIP trailer, CRC mismatch");
+        }
+        if (readIntLE() != (int) this.inflater.getBytesWritten()) {
+            throw new ZipException("Corrupt GZIP trailer, size mismatch");
+        }
+        if (!fill()) {
+            return false;
+        }
+        int magic0 = readUByte();
+        if (!fill()) {
+            return false;
+        }
+        //Trailing data that isn't another member is ignored, like GZIPInputStream does
+        int magic1 = readUByte();
+        if (magic0 != 0x1F || magic1 != 0x8B) {
+            return false;
+        }
+        readHeader(magic0, magic1);
+        this.inflater.reset();
+        this.crc.reset();
+        return true;
+    }
+    
+    @Override
+    public int read() throws IOException {
+        return read(this.single, 0, 1) < 0 ? -1 : this.single[0] & 0xFF;
+    }
+    
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len == 0) {
+            return 0;
+        }
+        while (!this.eof) {
+            int n;
+            try {
+                n = this.inflater.inflate(b, off, len);
+            } catch (DataFormatException e) {
+                throw new ZipException(e.getMessage() != null ? e.getMessage() : "Invalid deflate data");
+            }
+            if (n > 0) {
+                if (this.crc != null) {
+                    this.crc.update(b, off, n);
+                }
+                return n;
+            }
+            if (this.inflater.finished()) {
+                this.eof = !nextMember();
+            } else if (this.inflater.needsDictionary()) {
+                throw new ZipException("Preset dictionaries are not supported");
+            } else if (this.inflater.needsInput()) {
+                if (!fill()) {
+                    throw new EOFException("Unexpected end of compressed stream");
+                }
+                this.inflater.setInput(this.buffer, this.position, this.limit - this.position);
+                this.position = this.limit;
+            }
+        }
+        return -1;
+    }
+    
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        byte[] scratch = new byte[(int) Math.min(n, 2048)];
+        long skipped = 0;
+        while (skipped < n) {
+            int r = read(scratch, 0, (int) Math.min(n - skipped, scratch.length));
+            if (r < 0) {
+                break;
+            }
+            skipped += r;
+        }
+        return skipped;
+    }
+    
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+        return this.eof ? 0 : 1;
+    }
+    
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+    
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+    
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (this.buffer == null) {
+            return;
+        }
+        try {
+            this.in.close();
+        } finally {
+            release();
+        }
+    }
+    
+    private void release() {
+        this.pool.release(this.inflater, nowrap());
+        BufferPool.release(this.buffer);
+        this.buffer = null;
+    }
+}
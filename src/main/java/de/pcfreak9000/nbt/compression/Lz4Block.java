@@ -0,0 +1,170 @@
+package de.pcfreak9000.nbt.compression;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+//The LZ4 block format: sequences of literals and back references of at most 64 KiB
+final class Lz4Block {
+    
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    
+    static final int MAX_DISTANCE = 0xFFFF;
+    static final int HASH_LOG = 14;
+    
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    
+    private Lz4Block() {
+    }
+    
+    private static int hash(int value) {
+        return (value * 0x9E3779B1) >>> (32 - HASH_LOG);
+    }
+    
+    /**
+     * Greedy single-pass compression. The table may contain stale positions from earlier calls, candidates are
+     * verified before they are used.
+     * 
+     * @return the end of the compressed data in dst, or -1 if it doesn't fit before dEnd
+     */
+    static int compress(byte[] src, int off, int len, byte[] dst, int dOff, int dEnd, int[] table) {
+        int end = off + len;
+        int anchor = off;
+        int ip = off;
+        int mfLimit = end - MF_LIMIT;
+        int matchLimit = end - LAST_LITERALS;
+        while (ip < mfLimit) {
+            int value = (int) INT.get(src, ip);
+            int h = hash(value);
+            int ref = table[h];
+            table[h] = ip;
+            if (ref < off || ref >= ip || ip - ref > MAX_DISTANCE || (int) INT.get(src, ref) != value) {
+                //Skip faster through data that doesn't compress
+                ip += 1 + ((ip - anchor) >>> 6);
+                continue;
+            }
+            while (ip > anchor && ref > off && src[ip - 1] == src[ref - 1]) {
+                ip--;
+                ref--;
+            }
+            int matchLength = MIN_MATCH;
+            while (ip + matchLength < matchLimit && src[ip + matchLength] == src[ref + matchLength]) {
+                matchLength++;
+            }
+            dOff = writeSequence(src, anchor, ip - anchor, ip - ref, matchLength, dst, dOff, dEnd);
+            if (dOff < 0) {
+                return -1;
+            }
+            ip += matchLength;
+            anchor = ip;
+            if (ip < mfLimit) {
+                table[hash((int) INT.get(src, ip - 2))] = ip - 2;
+            }
+        }
+        return writeSequence(src, anchor, end - anchor, 0, 0, dst, dOff, dEnd);
+    }
+    
+    //A match length of 0 writes the final literals-only sequence
+    private static int writeSequence(byte[] src, int literalOff, int literals, int distance, int matchLength,
+            byte[] dst, int dOff, int dEnd) {
+        int required = 1 + literals + literals / 255 + 1 + (matchLength == 0 ? 0 : 2 + (matchLength - MIN_MATCH) / 255 + 1);
+        if (required > dEnd - dOff) {
+            return -1;
+        }
+        int matchCode = matchLength == 0 ? 0 : matchLength - MIN_MATCH;
+        dst[dOff++] = (byte) ((Math.min(literals, 15) << 4) | Math.min(matchCode, 15));
+        dOff = writeLength(literals, dst, dOff);
+        System.arraycopy(src, literalOff, dst, dOff, literals);
+        dOff += literals;
+        if (matchLength != 0) {
+            dst[dOff++] = (byte) distance;
+            dst[dOff++] = (byte) (distance >>> 8);
+            dOff = writeLength(matchCode, dst, dOff);
+        }
+        return dOff;
+    }
+    
+    private static int writeLength(int length, byte[] dst, int dOff) {
+        if (length >= 15) {
+            length -= 15;
+            while (length >= 255) {
+                dst[dOff++] = (byte) 255;
+                length -= 255;
+            }
+            dst[dOff++] = (byte) length;
+        }
+        return dOff;
+    }
+    
+    /**
+     * Decodes a block into dst at dOff. Back references may reach into the data between dStart and dOff.
+     * 
+     * @return the end of the decoded data in dst
+     */
+    static int decompress(byte[] src, int off, int len, byte[] dst, int dStart, int dOff, int dEnd)
+            throws IOException {
+        int end = off + len;
+        while (true) {
+            if (off >= end) {
+                throw new IOException("LZ4 block truncated");
+            }
+            int token = src[off++] & 0xFF;
+            int literals = token >>> 4;
+            if (literals == 15) {
+                int b;
+                do {
+                    if (off >= end) {
+                        throw new IOException("LZ4 block truncated");
+                    }
+                    b = src[off++] & 0xFF;
+                    literals += b;
+                } while (b == 255 && literals > 0);
+            }
+            if (literals < 0 || literals > end - off || literals > dEnd - dOff) {
+                throw new IOException("Malformed LZ4 block, literals out of bounds");
+            }
+            System.arraycopy(src, off, dst, dOff, literals);
+            off += literals;
+            dOff += literals;
+            if (off == end) {
+                return dOff;
+            }
+            if (end - off < 2) {
+                throw new IOException("LZ4 block truncated");
+            }
+            int distance = (src[off] & 0xFF) | (src[off + 1] & 0xFF) << 8;
+            off += 2;
+            if (distance == 0 || distance > dOff - dStart) {
+                throw new IOException("Malformed LZ4 block, invalid match distance " + distance);
+            }
+            int matchLength = token & 15;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    if (off >= end) {
+                        throw new IOException("LZ4 block truncated");
+                    }
+                    b = src[off++] & 0xFF;
+                    matchLength += b;
+                } while (b == 255 && matchLength > 0);
+            }
+            matchLength += MIN_MATCH;
+            if (matchLength < MIN_MATCH || matchLength > dEnd - dOff) {
+                throw new IOException("Malformed LZ4 block, match out of bounds");
+            }
+            int ref = dOff - distance;
+            if (distance >= matchLength) {
+                System.arraycopy(dst, ref, dst, dOff, matchLength);
+            } else {
+                //Overlapping match repeats the last distance bytes
+                for (int i = 0; i < matchLength; i++) {
+                    dst[dOff + i] = dst[ref + i];
+                }
+            }
+            dOff += matchLength;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package de.pcfreak9000.nbt.compression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The LZ4 frame format, much faster than deflate at a lower compression ratio.
+ */
+public final class Lz4Codec implements CompressionCodec {
+    
+    static final Lz4Codec INSTANCE = new Lz4Codec();
+    
+    private Lz4Codec() {
+    }
+    
+    @Override
+    public OutputStream compress(OutputStream out) throws IOException {
+        return new Lz4OutputStream(out);
+    }
+    
+    @Override
+    public InputStream decompress(InputStream in) throws IOException {
+        return new Lz4InputStream(in);
+    }
+    
+    @Override
+    public String toString() {
+        return "lz4";
+    }
+}
@@ -0,0 +1,235 @@
+package de.pcfreak9000.nbt.compression;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the LZ4 frame format, including linked blocks, block and content checksums and concatenated frames. Frames
+ * depending on an external dictionary are not supported. Never reads past the last frame.
+ */
+public class Lz4InputStream extends FilterInputStream {
+    
+    static final int SKIPPABLE_MAGIC = 0x184D2A50;
+    private static final int SKIPPABLE_MASK = 0xFFFFFFF0;
+    private static final int WINDOW = 1 << 16;
+    
+    private final byte[] header = new byte[Integer.BYTES * 2];
+    private final XXHash32 checksum = new XXHash32(0);
+    
+    private boolean linked;
+    private boolean blockChecksum;
+    private boolean contentChecksum;
+    private int blockSize;
+    
+    private byte[] source = new byte[0];
+    //Decoded data, for linked blocks the preceding 64 KiB are kept in front of the current block
+    private byte[] window = new byte[0];
+    private int position;
+    private int limit;
+    private boolean eof;
+    
+    public Lz4InputStream(InputStream in) throws IOException {
+        super(in);
+        if (!readFrameHeader(readIntLE(true))) {
+            throw new EOFException("No LZ4 frame");
+        }
+    }
+    
+    private int readIntLE(boolean allowEof) throws IOException {
+        byte[] bytes = this.header;
+        int n = 0;
+        while (n < Integer.BYTES) {
+            int r = this.in.read(bytes, n, Integer.BYTES - n);
+            if (r < 0) {
+                if (allowEof && n == 0) {
+                    this.eof = true;
+                    return 0;
+                }
+                throw new EOFException("LZ4 frame truncated");
+            }
+            n += r;
+        }
+        return (bytes[0] & 0xFF) | (bytes[1] & 0xFF) << 8 | (bytes[2] & 0xFF) << 16 | (bytes[3] & 0xFF) << 24;
+    }
+    
+    private void readFully(byte[] ar, int off, int len) throws IOException {
+        while (len > 0) {
+            int r = this.in.read(ar, off, len);
+            if (r < 0) {
+                throw new EOFException("LZ4 frame truncated");
+            }
+            off += r;
+            len -= r;
+        }
+    }
+    
+    private void skipFully(long n) throws IOException {
+        while (n > 0) {
+            long skipped = this.in.skip(n);
+            if (skipped <= 0) {
+                if (this.in.read() < 0) {
+                    throw new EOFException("LZ4 frame truncated");
+                }
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+    
+    //Returns false if the input ended
+    private boolean readFrameHeader(int magic) throws IOException {
+        while ((magic & SKIPPABLE_MASK) == SKIPPABLE_MAGIC && !this.eof) {
+            skipFully(readIntLE(false) & 0xFFFFFFFFL);
+            magic = readIntLE(true);
+        }
+        if (this.eof) {
+            return false;
+        }
+        if (magic != Lz4OutputStream.MAGIC) {
+            throw new IOException("Not an LZ4 frame, magic " + Integer.toHexString(magic));
+        }
+        byte[] descriptor = new byte[2 + Long.BYTES + Integer.BYTES];
+        readFully(descriptor, 0, 2);
+        int flags = descriptor[0] & 0xFF;
+        if ((flags >>> 6) != 1) {
+            throw new IOException("Unsupported LZ4 frame version " + (flags >>> 6));
+        }
+        this.linked = (flags & 0x20) == 0;
+        this.blockChecksum = (flags & 0x10) != 0;
+        boolean contentSize = (flags & 0x08) != 0;
+        this.contentChecksum = (flags & 0x04) != 0;
+        if ((flags & 0x01) != 0) {
+            throw new IOException("LZ4 frames with dictionaries are not supported");
+        }
+        int sizeCode = (descriptor[1] >>> 4) & 0x7;
+        if (sizeCode < 4) {
+            throw new IOException("Invalid LZ4 block size code " + sizeCode);
+        }
+        int length = 2;
+        if (contentSize) {
+            readFully(descriptor, length, Long.BYTES);
+            length += Long.BYTES;
+        }
+        int expected = this.in.read();
+        if (expected < 0) {
+            throw new EOFException("LZ4 frame truncated");
+        }
+        if (((XXHash32.hash(descriptor, 0, length, 0) >>> 8) & 0xFF) != expected) {
+            throw new IOException("LZ4 frame descriptor checksum mismatch");
+        }
+        this.blockSize = 1 << (2 * sizeCode + 8);
+        if (this.source.length < this.blockSize) {
+            this.source = new byte[this.blockSize];
+        }
+        int windowSize = this.linked ? WINDOW + this.blockSize : this.blockSize;
+        if (this.window.length < windowSize) {
+            this.window = new byte[windowSize];
+        }
+        this.position = 0;
+        this.limit = 0;
+        this.checksum.reset();
+        return true;
+    }
+    
+    //Returns false at the end of the input
+    private boolean nextBlock() throws IOException {
+        while (!this.eof) {
+            int size = readIntLE(false);
+            if (size == 0) {
+                if (this.contentChecksum && readIntLE(false) != this.checksum.value()) {
+                    throw new IOException("LZ4 content checksum mismatch");
+                }
+                readFrameHeader(readIntLE(true));
+                continue;
+            }
+            boolean stored = size < 0;
+            size &= 0x7FFFFFFF;
+            if (size > this.blockSize) {
+                throw new IOException("LZ4 block larger than the maximum block size");
+            }
+            readFully(this.source, 0, size);
+            if (this.blockChecksum && readIntLE(false) != XXHash32.hash(this.source, 0, size, 0)) {
+                throw new IOException("LZ4 block checksum mismatch");
+            }
+            int dictionary = 0;
+            int offset = 0;
+            if (this.linked) {
+                //Keep the last 64 KiB of decoded data as dictionary for the next block
+                dictionary = Math.min(this.limit, WINDOW);
+                System.arraycopy(this.window, this.limit - dictionary, this.window, 0, dictionary);
+                offset = dictionary;
+            }
+            int end;
+            if (stored) {
+                System.arraycopy(this.source, 0, this.window, offset, size);
+                end = offset + size;
+            } else {
+                end = Lz4Block.decompress(this.source, 0, size, this.window, 0, offset, offset + this.blockSize);
+            }
+            this.checksum.update(this.window, offset, end - offset);
+            this.position = offset;
+            this.limit = end;
+            if (end > offset) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    @Override
+    public int read() throws IOException {
+        if (this.position == this.limit && !nextBlock()) {
+            return -1;
+        }
+        return this.window[this.position++] & 0xFF;
+    }
+    
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (this.position == this.limit && !nextBlock()) {
+            return -1;
+        }
+        int n = Math.min(len, this.limit - this.position);
+        System.arraycopy(this.window, this.position, b, off, n);
+        this.position += n;
+        return n;
+    }
+    
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n) {
+            if (this.position == this.limit && !nextBlock()) {
+                break;
+            }
+            int step = (int) Math.min(n - skipped, this.limit - this.position);
+            this.position += step;
+            skipped += step;
+        }
+        return skipped;
+    }
+    
+    @Override
+    public int available() {
+        return this.limit - this.position;
+    }
+    
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+    
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+    
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+}
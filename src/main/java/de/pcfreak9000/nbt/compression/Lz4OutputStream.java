@@ -0,0 +1,115 @@
+package de.pcfreak9000.nbt.compression;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import de.pcfreak9000.nbt.util.BufferPool;
+
+/**
+ * Writes the LZ4 frame format with independent 64 KiB blocks and a content checksum. Blocks that don't compress are
+ * stored as they are. {@link #flush()} ends the current block.
+ */
+public class Lz4OutputStream extends FilterOutputStream {
+    
+    static final int MAGIC = 0x184D2204;
+    static final int BLOCK_SIZE = 1 << 16;
+    
+    private final XXHash32 checksum = new XXHash32(0);
+    private final int[] table = new int[1 << Lz4Block.HASH_LOG];
+    private byte[] block;
+    private byte[] compressed;
+    private int position;
+    private final byte[] intBytes = new byte[Integer.BYTES];
+    
+    public Lz4OutputStream(OutputStream out) throws IOException {
+        super(out);
+        //version 01, independent blocks, content checksum; 64 KiB blocks
+        byte[] header = { (byte) MAGIC, (byte) (MAGIC >>> 8), (byte) (MAGIC >>> 16), (byte) (MAGIC >>> 24), 0x64, 0x40,
+                0 };
+        header[6] = (byte) (XXHash32.hash(header, 4, 2, 0) >>> 8);
+        out.write(header);
+        this.block = BufferPool.acquire(BLOCK_SIZE);
+        this.compressed = BufferPool.acquire(BLOCK_SIZE);
+    }
+    
+    private void ensureOpen() throws IOException {
+        if (this.block == null) {
+            throw new IOException("Stream closed");
+        }
+    }
+    
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (this.position == BLOCK_SIZE) {
+            writeBlock();
+        }
+        this.block[this.position++] = (byte) b;
+    }
+    
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if (this.position == BLOCK_SIZE) {
+                writeBlock();
+            }
+            int n = Math.min(len, BLOCK_SIZE - this.position);
+            System.arraycopy(b, off, this.block, this.position, n);
+            this.position += n;
+            off += n;
+            len -= n;
+        }
+    }
+    
+    private void writeBlock() throws IOException {
+        if (this.position == 0) {
+            return;
+        }
+        this.checksum.update(this.block, 0, this.position);
+        int size = Lz4Block.compress(this.block, 0, this.position, this.compressed, 0, this.position - 1, this.table);
+        if (size < 0) {
+            writeIntLE(this.position | 0x80000000);
+            this.out.write(this.block, 0, this.position);
+        } else {
+            writeIntLE(size);
+            this.out.write(this.compressed, 0, size);
+        }
+        this.position = 0;
+    }
+    
+    private void writeIntLE(int i) throws IOException {
+        byte[] bytes = this.intBytes;
+        bytes[0] = (byte) i;
+        bytes[1] = (byte) (i >>> 8);
+        bytes[2] = (byte) (i >>> 16);
+        bytes[3] = (byte) (i >>> 24);
+        this.out.write(bytes);
+    }
+    
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        writeBlock();
+        this.out.flush();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (this.block == null) {
+            return;
+        }
+        try {
+            writeBlock();
+            writeIntLE(0);
+            writeIntLE(this.checksum.value());
+        } finally {
+            BufferPool.release(this.block);
+            BufferPool.release(this.compressed);
+            this.block = null;
+            this.compressed = null;
+            this.out.close();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package de.pcfreak9000.nbt.compression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+
+/**
+ * Gzip compressed on several threads with {@link ParallelGzipOutputStream}. The output is a regular gzip stream, so it
+ * is read like {@link CompressionCodec#gzip()}.
+ */
+public final class ParallelGzipCodec implements CompressionCodec {
+    
+    private final int level;
+    private final int blockSize;
+    private final Executor executor;
+    private final int parallelism;
+    
+    public ParallelGzipCodec(int level, Executor executor, int parallelism) {
+        this(level, ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE, executor, parallelism);
+    }
+    
+    /**
+     * @param parallelism the number of threads of the executor to use, twice as many blocks are kept in flight
+     */
+    public ParallelGzipCodec(int level, int blockSize, Executor executor, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism < 1");
+        }
+        this.level = level;
+        this.blockSize = blockSize;
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+    
+    @Override
+    public OutputStream compress(OutputStream out) throws IOException {
+        return new ParallelGzipOutputStream(out, this.level, this.blockSize, this.executor, 2 * this.parallelism);
+    }
+    
+    @Override
+    public InputStream decompress(InputStream in) throws IOException {
+        return DeflateCodec.GZIP.decompress(in);
+    }
+    
+    @Override
+    public String toString() {
+        return "parallel gzip(level " + this.level + ", " + this.parallelism + " threads)";
+    }
+}
@@ -0,0 +1,244 @@
+package de.pcfreak9000.nbt.compression;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a single-member gzip stream, deflating fixed-size blocks concurrently on an executor. Each block is primed
+ * with the last 32 KiB of the block before it, so the ratio stays close to that of a sequential deflate. Blocks end
+ * with a sync flush and are written in order by the calling thread, which also computes the CRC. Deflaters are taken
+ * from the {@link ZlibPool#shared() shared pool}.
+ * <p>
+ * At most maxPending blocks are compressed or waiting to be written at a time, further writes block until the oldest
+ * one is done.
+ */
+public class ParallelGzipOutputStream extends FilterOutputStream {
+    
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 17;
+    
+    private static final int DICTIONARY_SIZE = 1 << 15;
+    private static final int MIN_BLOCK_SIZE = DICTIONARY_SIZE;
+    
+    private final int level;
+    private final int blockSize;
+    private final Executor executor;
+    private final int maxPending;
+    
+    private final CRC32 crc = new CRC32();
+    private long size;
+    
+    private final ArrayDeque<Block> pending = new ArrayDeque<>();
+    private final ArrayDeque<byte[]> freeInputs = new ArrayDeque<>();
+    private final ArrayDeque<byte[]> freeOutputs = new ArrayDeque<>();
+    
+    private byte[] current;
+    private int position;
+    //Input of the last submitted block, the dictionary of the next one
+    private byte[] previous;
+    private int previousLength;
+    private boolean closed;
+    
+    /**
+     * @param level      the deflate level, 0-9 or {@link Deflater#DEFAULT_COMPRESSION}
+     * @param blockSize  the number of uncompressed bytes per block, at least 32 KiB
+     * @param maxPending the number of blocks in flight, should be at least the parallelism of the executor
+     */
+    public ParallelGzipOutputStream(OutputStream out, int level, int blockSize, Executor executor, int maxPending)
+            throws IOException {
+        super(out);
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid level " + level);
+        }
+        if (blockSize < MIN_BLOCK_SIZE) {
+            throw new IllegalArgumentException("blockSize < " + MIN_BLOCK_SIZE);
+        }
+        if (maxPending < 1) {
+            throw new IllegalArgumentException("maxPending < 1");
+        }
+        this.level = level;
+        this.blockSize = blockSize;
+        this.executor = executor;
+        this.maxPending = maxPending;
+        //magic, deflate, no flags, no mtime, no extra flags, unknown OS
+        out.write(new byte[] { 0x1F, (byte) 0x8B, 8, 0, 0, 0, 0, 0, 0, (byte) 0xFF });
+        this.current = new byte[blockSize];
+    }
+    
+    private void ensureOpen() throws IOException {
+        if (this.closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+    
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (this.position == this.blockSize) {
+            submit(false);
+        }
+        this.current[this.position++] = (byte) b;
+    }
+    
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if (this.position == this.blockSize) {
+                submit(false);
+            }
+            int n = Math.min(len, this.blockSize - this.position);
+            System.arraycopy(b, off, this.current, this.position, n);
+            this.position += n;
+            off += n;
+            len -= n;
+        }
+    }
+    
+    //Hands the current block to the executor, the last block finishes the deflate stream
+    private void submit(boolean last) throws IOException {
+        if (this.position == 0 && !last) {
+            return;
+        }
+        while (this.pending.size() >= this.maxPending) {
+            writeOldest();
+        }
+        this.crc.update(this.current, 0, this.position);
+        this.size += this.position;
+        byte[] output = this.freeOutputs.poll();
+        if (output == null) {
+            output = new byte[this.blockSize + (this.blockSize >>> 8) + 64];
+        }
+        Block block = new Block(this.current, this.position, this.previous, this.previousLength, output, last);
+        block.future = CompletableFuture.runAsync(block::compress, this.executor);
+        this.pending.add(block);
+        this.previous = this.current;
+        this.previousLength = this.position;
+        this.current = this.freeInputs.poll();
+        if (this.current == null) {
+            this.current = new byte[this.blockSize];
+        }
+        this.position = 0;
+    }
+    
+    private void writeOldest() throws IOException {
+        Block block = this.pending.poll();
+        try {
+            block.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            throw new IOException("Compressing a block failed", e.getCause());
+        }
+        this.out.write(block.output, 0, block.outputLength);
+        this.freeOutputs.add(block.output);
+        //The dictionary was only needed by this block, the input itself is the dictionary of the next one
+        if (block.dictionary != null) {
+            this.freeInputs.add(block.dictionary);
+        }
+    }
+    
+    /**
+     * Compresses the buffered data and writes all pending blocks before flushing the underlying stream.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        submit(false);
+        while (!this.pending.isEmpty()) {
+            writeOldest();
+        }
+        this.out.flush();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try (OutputStream out = this.out) {
+            submit(true);
+            while (!this.pending.isEmpty()) {
+                writeOldest();
+            }
+            byte[] trailer = new byte[8];
+            writeIntLE(trailer, 0, (int) this.crc.getValue());
+            writeIntLE(trailer, 4, (int) this.size);
+            out.write(trailer);
+        } finally {
+            this.pending.clear();
+        }
+    }
+    
+    private static void writeIntLE(byte[] ar, int off, int i) {
+        ar[off] = (byte) i;
+        ar[off + 1] = (byte) (i >>> 8);
+        ar[off + 2] = (byte) (i >>> 16);
+        ar[off + 3] = (byte) (i >>> 24);
+    }
+    
+    private final class Block {
+        
+        private final byte[] input;
+        private final int inputLength;
+        private final byte[] dictionary;
+        private final int dictionaryLength;
+        private final boolean last;
+        private byte[] output;
+        private int outputLength;
+        private CompletableFuture<Void> future;
+        
+        private Block(byte[] input, int inputLength, byte[] dictionary, int dictionaryLength, byte[] output,
+                boolean last) {
+            this.input = input;
+            this.inputLength = inputLength;
+            this.dictionary = dictionary;
+            this.dictionaryLength = dictionaryLength;
+            this.output = output;
+            this.last = last;
+        }
+        
+        //Runs on the executor
+        private void compress() {
+            Deflater deflater = ZlibPool.shared().acquireDeflater(level, Deflater.DEFAULT_STRATEGY, true);
+            try {
+                if (this.dictionary != null) {
+                    int length = Math.min(this.dictionaryLength, DICTIONARY_SIZE);
+                    deflater.setDictionary(this.dictionary, this.dictionaryLength - length, length);
+                }
+                deflater.setInput(this.input, 0, this.inputLength);
+                if (this.last) {
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        deflate(deflater, Deflater.NO_FLUSH);
+                    }
+                } else {
+                    //A sync flush ends the block on a byte boundary, so the blocks can simply be concatenated
+                    do {
+                        deflate(deflater, Deflater.SYNC_FLUSH);
+                    } while (this.outputLength == this.output.length);
+                }
+            } finally {
+                ZlibPool.shared().release(deflater, level, Deflater.DEFAULT_STRATEGY, true);
+            }
+        }
+        
+        private void deflate(Deflater deflater, int flush) {
+            if (this.outputLength == this.output.length) {
+                this.output = Arrays.copyOf(this.output, this.output.length * 2);
+            }
+            int n = deflater.deflate(this.output, this.outputLength, this.output.length - this.outputLength, flush);
+            this.outputLength += n;
+        }
+    }
+}
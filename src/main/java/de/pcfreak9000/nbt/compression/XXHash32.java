@@ -0,0 +1,102 @@
+package de.pcfreak9000.nbt.compression;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+//Streaming xxHash32, used for the checksums of the LZ4 frame format
+final class XXHash32 {
+    
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    
+    private static final int PRIME1 = 0x9E3779B1;
+    private static final int PRIME2 = 0x85EBCA77;
+    private static final int PRIME3 = 0xC2B2AE3D;
+    private static final int PRIME4 = 0x27D4EB2F;
+    private static final int PRIME5 = 0x165667B1;
+    
+    private final int seed;
+    private int v1, v2, v3, v4;
+    private long length;
+    private final byte[] pending = new byte[16];
+    private int pendingSize;
+    
+    XXHash32(int seed) {
+        this.seed = seed;
+        reset();
+    }
+    
+    static int hash(byte[] ar, int off, int len, int seed) {
+        XXHash32 hash = new XXHash32(seed);
+        hash.update(ar, off, len);
+        return hash.value();
+    }
+    
+    void reset() {
+        this.v1 = this.seed + PRIME1 + PRIME2;
+        this.v2 = this.seed + PRIME2;
+        this.v3 = this.seed;
+        this.v4 = this.seed - PRIME1;
+        this.length = 0;
+        this.pendingSize = 0;
+    }
+    
+    private static int round(int acc, int input) {
+        return Integer.rotateLeft(acc + input * PRIME2, 13) * PRIME1;
+    }
+    
+    void update(byte[] ar, int off, int len) {
+        this.length += len;
+        if (this.pendingSize + len < 16) {
+            System.arraycopy(ar, off, this.pending, this.pendingSize, len);
+            this.pendingSize += len;
+            return;
+        }
+        int end = off + len;
+        if (this.pendingSize > 0) {
+            int fill = 16 - this.pendingSize;
+            System.arraycopy(ar, off, this.pending, this.pendingSize, fill);
+            stripe(this.pending, 0);
+            off += fill;
+            this.pendingSize = 0;
+        }
+        for (; off <= end - 16; off += 16) {
+            stripe(ar, off);
+        }
+        System.arraycopy(ar, off, this.pending, 0, end - off);
+        this.pendingSize = end - off;
+    }
+    
+    private void stripe(byte[] ar, int off) {
+        this.v1 = round(this.v1, (int) INT.get(ar, off));
+        this.v2 = round(this.v2, (int) INT.get(ar, off + 4));
+        this.v3 = round(this.v3, (int) INT.get(ar, off + 8));
+        this.v4 = round(this.v4, (int) INT.get(ar, off + 12));
+    }
+    
+    int value() {
+        int h;
+        if (this.length >= 16) {
+            h = Integer.rotateLeft(this.v1, 1) + Integer.rotateLeft(this.v2, 7) + Integer.rotateLeft(this.v3, 12)
+                    + Integer.rotateLeft(this.v4, 18);
+        } else {
+            h = this.seed + PRIME5;
+        }
+        h += (int) this.length;
+        int off = 0;
+        for (; off <= this.pendingSize - 4; off += 4) {
+            h += (int) INT.get(this.pending, off) * PRIME3;
+            h = Integer.rotateLeft(h, 17) * PRIME4;
+        }
+        for (; off < this.pendingSize; off++) {
+            h += (this.pending[off] & 0xFF) * PRIME5;
+            h = Integer.rotateLeft(h, 11) * PRIME1;
+        }
+        h ^= h >>> 15;
+        h *= PRIME2;
+        h ^= h >>> 13;
+        h *= PRIME3;
+        h ^= h >>> 16;
+        return h;
+    }
+}
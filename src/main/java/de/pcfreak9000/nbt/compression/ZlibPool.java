@@ -0,0 +1,196 @@
+package de.pcfreak9000.nbt.compression;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Bounded, thread-safe pool of {@link Deflater}s and {@link Inflater}s, so the native memory of each is reused instead
+ * of being allocated per stream. Released instances are reset, instances beyond the capacity are ended right away.
+ * The capacity limits the idle instances of each kind, a second limit applies to all kinds together, so at most that
+ * many instances hold native memory while waiting in the pool.
+ * <p>
+ * Deflaters are kept per level and strategy. Parameters set on a reset deflater only take effect on its next deflate
+ * call, after a preset dictionary would already have been applied.
+ */
+public final class ZlibPool {
+    
+    public static final int DEFAULT_CAPACITY = 16;
+    public static final int DEFAULT_MAX_IDLE = 64;
+    
+    private static final ZlibPool SHARED = new ZlibPool(DEFAULT_CAPACITY, DEFAULT_MAX_IDLE);
+    
+    public static ZlibPool shared() {
+        return SHARED;
+    }
+    
+    private static final int LEVELS = Deflater.BEST_COMPRESSION - Deflater.DEFAULT_COMPRESSION + 1;
+    private static final int STRATEGIES = Deflater.HUFFMAN_ONLY + 1;
+    
+    private final Idle<Deflater>[] deflaters;
+    private final Idle<Inflater> inflaters;
+    private final Idle<Inflater> rawInflaters;
+    //Idle instances of all kinds
+    private final AtomicInteger idle = new AtomicInteger();
+    private final int maxIdle;
+    
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder discards = new LongAdder();
+    
+    /**
+     * Keeps at most four times the capacity idle in total.
+     *
+     * @see #ZlibPool(int, int)
+     */
+    public ZlibPool(int capacity) {
+        this(capacity, 4 * capacity);
+    }
+    
+    /**
+     * @param capacity the number of idle instances kept of each kind (inflaters, or deflaters of one level and
+     *                 strategy, each with or without zlib header)
+     * @param maxIdle  the number of idle instances kept of all kinds together
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public ZlibPool(int capacity, int maxIdle) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity < 0");
+        }
+        if (maxIdle < 0) {
+            throw new IllegalArgumentException("maxIdle < 0");
+        }
+        this.maxIdle = maxIdle;
+        this.deflaters = new Idle[2 * LEVELS * STRATEGIES];
+        for (int i = 0; i < this.deflaters.length; i++) {
+            this.deflaters[i] = new Idle<>(capacity);
+        }
+        this.inflaters = new Idle<>(capacity);
+        this.rawInflaters = new Idle<>(capacity);
+    }
+    
+    /**
+     * @param nowrap true for raw deflate data without zlib header, as used by gzip
+     */
+    public Deflater acquireDeflater(int level, int strategy, boolean nowrap) {
+        Deflater deflater = deflaters(level, strategy, nowrap).poll();
+        if (deflater != null) {
+            this.hits.increment();
+            return deflater;
+        }
+        this.misses.increment();
+        deflater = new Deflater(level, nowrap);
+        deflater.setStrategy(strategy);
+        return deflater;
+    }
+    
+    /**
+     * Level, strategy and nowrap must match the values the deflater was acquired with.
+     */
+    public void release(Deflater deflater, int level, int strategy, boolean nowrap) {
+        deflater.reset();
+        if (!deflaters(level, strategy, nowrap).offer(deflater)) {
+            this.discards.increment();
+            deflater.end();
+        }
+    }
+    
+    private Idle<Deflater> deflaters(int level, int strategy, boolean nowrap) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid level " + level);
+        }
+        if (strategy < 0 || strategy >= STRATEGIES) {
+            throw new IllegalArgumentException("Invalid strategy " + strategy);
+        }
+        int index = ((nowrap ? LEVELS : 0) + level - Deflater.DEFAULT_COMPRESSION) * STRATEGIES + strategy;
+        return this.deflaters[index];
+    }
+    
+    public Inflater acquireInflater(boolean nowrap) {
+        Inflater inflater = (nowrap ? this.rawInflaters : this.inflaters).poll();
+        if (inflater == null) {
+            this.misses.increment();
+            return new Inflater(nowrap);
+        }
+        this.hits.increment();
+        return inflater;
+    }
+    
+    public void release(Inflater inflater, boolean nowrap) {
+        inflater.reset();
+        if (!(nowrap ? this.rawInflaters : this.inflaters).offer(inflater)) {
+            this.discards.increment();
+            inflater.end();
+        }
+    }
+    
+    /**
+     * @return the number of acquisitions served by an idle instance
+     */
+    public long getHits() {
+        return this.hits.sum();
+    }
+    
+    /**
+     * @return the number of acquisitions that had to create a new instance
+     */
+    public long getMisses() {
+        return this.misses.sum();
+    }
+    
+    /**
+     * @return the number of released instances that were ended because the pool was full
+     */
+    public long getDiscards() {
+        return this.discards.sum();
+    }
+    
+    /**
+     * @return the number of instances currently waiting to be reused
+     */
+    public int getIdle() {
+        return this.idle.get();
+    }
+    
+    @Override
+    public String toString() {
+        return "ZlibPool[hits=" + getHits() + ", misses=" + getMisses() + ", discards=" + getDiscards() + ", idle="
+                + getIdle() + "]";
+    }
+    
+    private final class Idle<T> {
+        
+        private final ConcurrentLinkedQueue<T> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final int capacity;
+        
+        private Idle(int capacity) {
+            this.capacity = capacity;
+        }
+        
+        private T poll() {
+            T t = this.queue.poll();
+            if (t != null) {
+                this.size.decrementAndGet();
+                idle.decrementAndGet();
+            }
+            return t;
+        }
+        
+        private boolean offer(T t) {
+            if (this.size.incrementAndGet() > this.capacity) {
+                this.size.decrementAndGet();
+                return false;
+            }
+            if (idle.incrementAndGet() > maxIdle) {
+                idle.decrementAndGet();
+                this.size.decrementAndGet();
+                return false;
+            }
+            this.queue.add(t);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package de.pcfreak9000.nbt.region;
+
+import de.pcfreak9000.nbt.compression.CompressionCodec;
+
+/**
+ * The compression types of chunks in region files, with the ids stored in front of each chunk.
+ */
+public enum RegionCompression {
+    
+    GZIP(1, CompressionCodec.gzip()), ZLIB(2, CompressionCodec.zlib()), NONE(3, CompressionCodec.NONE);
+    
+    public final int id;
+    private final CompressionCodec codec;
+    
+    private RegionCompression(int id, CompressionCodec codec) {
+        this.id = id;
+        this.codec = codec;
+    }
+    
+    public CompressionCodec codec() {
+        return this.codec;
+    }
+    
+    /**
+     * @return the compression with the given id, or null if it is unknown
+     */
+    public static RegionCompression byId(int id) {
+        for (RegionCompression compression : values()) {
+            if (compression.id == id) {
+                return compression;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,654 @@
+package de.pcfreak9000.nbt.region;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+import de.pcfreak9000.nbt.NBTTag;
+import de.pcfreak9000.nbt.NbtReader;
+import de.pcfreak9000.nbt.NbtWriter;
+import de.pcfreak9000.nbt.TagReader;
+import de.pcfreak9000.nbt.visitor.NBTValueVisitor;
+
+/**
+ * A region file in the Anvil format: 32x32 chunks stored in 4 KiB sectors, located by a table of offsets followed by a
+ * table of timestamps at the start of the file. Chunks of more than 255 sectors are stored next to the region file in
+ * c.[x].[z].mcc files.
+ * <p>
+ * Chunks are read with positional reads and without locking in the common case, so any number of threads can read
+ * concurrently. Writes are serialized, new data goes to free sectors and only replaces the old location once it has
+ * been written. Readers that raced with a write simply retry.
+ * <p>
+ * Chunk coordinates are absolute, only the lower five bits select the entry in the region.
+ */
+public class RegionFile implements Closeable {
+    
+    public static final int SECTOR_SIZE = 4096;
+    public static final int CHUNKS = 32 * 32;
+    
+    static final int HEADER_SECTORS = 2;
+    static final int MAX_SECTORS = 255;
+    static final int EXTERNAL_FLAG = 0x80;
+    //length and compression type in front of the chunk data
+    static final int CHUNK_HEADER_SIZE = 5;
+    
+    private static final ByteBuffer ZEROES = ByteBuffer.allocateDirect(SECTOR_SIZE);
+    
+    public static String fileName(int regionX, int regionZ) {
+        return "r." + regionX + "." + regionZ + ".mca";
+    }
+    
+    static int index(int x, int z) {
+        return (x & 31) | (z & 31) << 5;
+    }
+    
+    static int sectorOffset(int location) {
+        return location >>> 8;
+    }
+    
+    static int sectorCount(int location) {
+        return location & 0xFF;
+    }
+    
+    private final Path path;
+    //Only replaced by a compaction or after an interrupt closed it, while holding both locks
+    private FileChannel channel;
+    private final RegionCompression compression;
+    private final boolean readOnly;
+    
+    private final StampedLock lock = new StampedLock();
+    private final int[] locations = new int[CHUNKS];
+    private final int[] timestamps = new int[CHUNKS];
+    
+    private final Object writeLock = new Object();
+    //Guarded by writeLock
+    private final BitSet usedSectors = new BitSet();
+    private boolean closed;
+    
+    public RegionFile(File file) throws IOException {
+        this(file.toPath(), RegionCompression.ZLIB);
+    }
+    
+    /**
+     * Opens or creates the region file.
+     *
+     * @param compression the compression of written chunks, chunks with any known compression are read
+     */
+    public RegionFile(Path path, RegionCompression compression) throws IOException {
+        this(path, compression, false);
+    }
+    
+    private RegionFile(Path path, RegionCompression compression, boolean readOnly) throws IOException {
+        this.path = path;
+        this.compression = compression;
+        this.readOnly = readOnly;
+        this.channel = open(path, readOnly);
+        try {
+            readHeader();
+        } catch (IOException | RuntimeException e) {
+            try {
+                this.channel.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+    
+    /**
+     * Opens an existing region file for reading only. The file is never modified, not even if its header is
+     * incomplete, so this also works on read-only file systems. Writing chunks or compacting throws an
+     * {@link IllegalStateException}.
+     */
+    public static RegionFile openReadOnly(Path path) throws IOException {
+        return new RegionFile(path, RegionCompression.ZLIB, true);
+    }
+    
+    public boolean isReadOnly() {
+        return this.readOnly;
+    }
+    
+    private static FileChannel open(Path path, boolean readOnly) throws IOException {
+        return readOnly ? FileChannel.open(path, StandardOpenOption.READ)
+                : FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+    
+    //A thread interrupted while using the channel closes it for all threads, the others continue on a new one
+    private void ensureOpen() throws IOException {
+        synchronized (this.writeLock) {
+            if (this.closed) {
+                throw new ClosedChannelException();
+            }
+            if (this.channel.isOpen()) {
+                return;
+            }
+            FileChannel channel = open(this.path, this.readOnly);
+            long stamp = this.lock.writeLock();
+            try {
+                this.channel = channel;
+            } finally {
+                this.lock.unlockWrite(stamp);
+            }
+        }
+    }
+    
+    private void checkWritable() {
+        if (this.readOnly) {
+            throw new IllegalStateException("Region file is opened read only: " + this.path);
+        }
+    }
+    
+    private void readHeader() throws IOException {
+        long size = this.channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SECTORS * SECTOR_SIZE);
+        if (size < header.capacity()) {
+            //New or truncated file, missing entries are empty
+            readFully(this.channel, header, 0);
+            if (!this.readOnly) {
+                header.position(header.capacity()).flip();
+                writeFully(this.channel, header, 0);
+                size = header.capacity();
+            }
+            header.position(header.capacity());
+        } else {
+            readFully(this.channel, header, 0);
+        }
+        header.flip();
+        this.usedSectors.set(0, HEADER_SECTORS);
+        long sectorsInFile = (size + SECTOR_SIZE - 1) / SECTOR_SIZE;
+        for (int i = 0; i < CHUNKS; i++) {
+            int location = header.getInt(i * Integer.BYTES);
+            int offset = sectorOffset(location);
+            int count = sectorCount(location);
+            //Entries pointing into the header or past the end of the file are treated as missing
+            if (location != 0 && offset >= HEADER_SECTORS && count > 0 && offset + count <= sectorsInFile) {
+                this.locations[i] = location;
+                this.usedSectors.set(offset, offset + count);
+            }
+            this.timestamps[i] = header.getInt(SECTOR_SIZE + i * Integer.BYTES);
+        }
+    }
+    
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                return;
+            }
+            position += n;
+        }
+    }
+    
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+    
+    public Path getPath() {
+        return this.path;
+    }
+    
+    public boolean hasChunk(int x, int z) {
+        int index = index(x, z);
+        long stamp = this.lock.tryOptimisticRead();
+        int location = this.locations[index];
+        if (!this.lock.validate(stamp)) {
+            stamp = this.lock.readLock();
+            try {
+                location = this.locations[index];
+            } finally {
+                this.lock.unlockRead(stamp);
+            }
+        }
+        return location != 0;
+    }
+    
+    /**
+     * @return the time of the last write of the chunk in seconds since the epoch, 0 if unknown
+     */
+    public int getTimestamp(int x, int z) {
+        int index = index(x, z);
+        long stamp = this.lock.tryOptimisticRead();
+        int timestamp = this.timestamps[index];
+        if (!this.lock.validate(stamp)) {
+            stamp = this.lock.readLock();
+            try {
+                timestamp = this.timestamps[index];
+            } finally {
+                this.lock.unlockRead(stamp);
+            }
+        }
+        return timestamp;
+    }
+    
+    /**
+     * Reads the chunk with a single positional read. Uncompressed chunks are read in place, see
+     * {@link NbtReader#NbtReader(byte[], int, int)}. If the reading thread is interrupted, the read fails with a
+     * {@link ClosedByInterruptException}, reads of other threads are not affected.
+     *
+     * @return a reader for the chunk, or null if the chunk doesn't exist
+     */
+    public NbtReader readChunk(int x, int z) throws IOException {
+        RawChunk chunk;
+        while (true) {
+            try {
+                chunk = readRaw(x, z);
+                break;
+            } catch (ClosedChannelException e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                //Another thread was interrupted while using the channel
+                ensureOpen();
+            }
+        }
+        if (chunk == null) {
+            return null;
+        }
+        return decode(x, z, chunk);
+    }
+    
+    private RawChunk readRaw(int x, int z) throws IOException {
+        int index = index(x, z);
+        long stamp = this.lock.tryOptimisticRead();
+        RawChunk chunk = null;
+        try {
+            chunk = readRaw(this.channel, this.locations[index], x, z);
+        } catch (ClosedByInterruptException e) {
+            throw e;
+        } catch (ClosedChannelException | NoSuchFileException e) {
+            //A compaction replaced the channel or a write removed the external file, both invalidate the stamp
+            if (this.lock.validate(stamp)) {
+                throw e;
+            }
+        }
+        if (!this.lock.validate(stamp)) {
+            //A write moved the chunk while it was read, the sectors might have been reused already. Holding the read
+            //lock also keeps the external file of the current location from being removed.
+            stamp = this.lock.readLock();
+            try {
+                chunk = readRaw(this.channel, this.locations[index], x, z);
+            } finally {
+                this.lock.unlockRead(stamp);
+            }
+        }
+        return chunk;
+    }
+    
+    public void readChunk(int x, int z, NBTValueVisitor visitor) throws IOException {
+        try (NbtReader reader = readChunk(x, z)) {
+            if (reader != null) {
+                reader.applyVisitor(visitor);
+            }
+        }
+    }
+    
+    //Returns the sectors of the chunk as far as they are present in the file
+    private static byte[] readSectors(FileChannel channel, int location) throws IOException {
+        if (location == 0) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(sectorCount(location) * SECTOR_SIZE);
+        readFully(channel, buffer, (long) sectorOffset(location) * SECTOR_SIZE);
+        return buffer.position() == buffer.capacity() ? buffer.array() : Arrays.copyOf(buffer.array(), buffer.position());
+    }
+    
+    //Reads the sectors and, for chunks stored outside the region, the external file
+    private RawChunk readRaw(FileChannel channel, int location, int x, int z) throws IOException {
+        byte[] sectors = readSectors(channel, location);
+        if (sectors == null) {
+            return null;
+        }
+        byte[] external = null;
+        if (sectors.length > Integer.BYTES && (sectors[Integer.BYTES] & EXTERNAL_FLAG) != 0) {
+            external = Files.readAllBytes(externalPath(x, z));
+        }
+        return new RawChunk(sectors, external);
+    }
+    
+    private NbtReader decode(int x, int z, RawChunk chunk) throws IOException {
+        byte[] sectors = chunk.sectors;
+        if (sectors.length < CHUNK_HEADER_SIZE) {
+            throw new IOException("Chunk " + x + ", " + z + " is truncated");
+        }
+        int length = ByteBuffer.wrap(sectors).getInt();
+        if (length < 1 || length > sectors.length - Integer.BYTES) {
+            throw new IOException("Chunk " + x + ", " + z + " has an invalid length of " + length);
+        }
+        int type = sectors[Integer.BYTES] & 0xFF;
+        RegionCompression compression = RegionCompression.byId(type & ~EXTERNAL_FLAG);
+        if (compression == null) {
+            throw new IOException("Chunk " + x + ", " + z + " has unknown compression " + type);
+        }
+        byte[] data = sectors;
+        int offset = CHUNK_HEADER_SIZE;
+        int dataLength = length - 1;
+        if ((type & EXTERNAL_FLAG) != 0) {
+            data = chunk.external;
+            offset = 0;
+            dataLength = data.length;
+        }
+        if (compression == RegionCompression.NONE) {
+            return new NbtReader(data, offset, dataLength);
+        }
+        return new NbtReader(compression.codec().decompress(new ByteArrayInputStream(data, offset, dataLength)));
+    }
+    
+    private Path externalPath(int x, int z) {
+        return this.path.resolveSibling("c." + x + "." + z + ".mcc");
+    }
+    
+    public void writeChunk(int x, int z, NBTTag tag) throws IOException {
+        writeChunk(x, z, visitor -> TagReader.applyVisitor(visitor, tag));
+    }
+    
+    /**
+     * Writes the chunk produced by the given function. Nothing is written if it throws.
+     */
+    public void writeChunk(int x, int z, Consumer<? super NBTValueVisitor> content) throws IOException {
+        checkWritable();
+        ChunkBuffer buffer = new ChunkBuffer();
+        NbtWriter writer = new NbtWriter(this.compression.codec().compress(buffer));
+        try {
+            content.accept(writer);
+        } catch (RuntimeException | Error e) {
+            try {
+                writer.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        writer.close();
+        commit(x, z, buffer);
+    }
+    
+    public void deleteChunk(int x, int z) throws IOException {
+        checkWritable();
+        synchronized (this.writeLock) {
+            ensureOpen();
+            replace(x, z, 0, 0, false);
+        }
+    }
+    
+    private static int sectorsFor(long bytes) {
+        return (int) ((bytes + SECTOR_SIZE - 1) / SECTOR_SIZE);
+    }
+    
+    private void commit(int x, int z, ChunkBuffer buffer) throws IOException {
+        byte[] bytes = buffer.bytes();
+        int size = buffer.size();
+        ByteBuffer chunkHeader = ByteBuffer.wrap(bytes, 0, CHUNK_HEADER_SIZE);
+        synchronized (this.writeLock) {
+            ensureOpen();
+            boolean external = sectorsFor(size) > MAX_SECTORS;
+            if (external) {
+                writeExternal(x, z, bytes, CHUNK_HEADER_SIZE, size - CHUNK_HEADER_SIZE);
+                chunkHeader.putInt(0, 1).put(Integer.BYTES, (byte) (this.compression.id | EXTERNAL_FLAG));
+                size = CHUNK_HEADER_SIZE;
+            } else {
+                chunkHeader.putInt(0, size - Integer.BYTES).put(Integer.BYTES, (byte) this.compression.id);
+            }
+            int sectors = sectorsFor(size);
+            //The old sectors stay allocated until the new location is in place
+            int offset = allocate(sectors);
+            ByteBuffer padding = ZEROES.duplicate();
+            padding.limit(sectors * SECTOR_SIZE - size);
+            ByteBuffer[] data = { ByteBuffer.wrap(bytes, 0, size), padding };
+            long position = (long) offset * SECTOR_SIZE;
+            while (data[0].hasRemaining() || padding.hasRemaining()) {
+                position += this.channel.position(position).write(data);
+            }
+            this.usedSectors.set(offset, offset + sectors);
+            replace(x, z, offset << 8 | sectors, (int) (System.currentTimeMillis() / 1000), external);
+        }
+    }
+    
+    //Replaces the file atomically, readers of the old location see either version
+    private void writeExternal(int x, int z, byte[] bytes, int offset, int length) throws IOException {
+        Path target = externalPath(x, z);
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel file = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+            while (buffer.hasRemaining()) {
+                file.write(buffer);
+            }
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    //External chunks only take one sector for their header
+    private boolean isExternal(int location) throws IOException {
+        if (sectorCount(location) != 1) {
+            return false;
+        }
+        ByteBuffer type = ByteBuffer.allocate(1);
+        readFully(this.channel, type, (long) sectorOffset(location) * SECTOR_SIZE + Integer.BYTES);
+        return type.position() == 1 && (type.get(0) & EXTERNAL_FLAG) != 0;
+    }
+    
+    //Writes the new header entry and frees the old sectors, must hold writeLock
+    private void replace(int x, int z, int location, int timestamp, boolean external) throws IOException {
+        int index = index(x, z);
+        int old = this.locations[index];
+        boolean wasExternal = old != 0 && isExternal(old);
+        ByteBuffer entry = ByteBuffer.allocate(Integer.BYTES);
+        writeFully(this.channel, entry.putInt(0, location), index * Integer.BYTES);
+        entry.clear();
+        writeFully(this.channel, entry.putInt(0, timestamp), SECTOR_SIZE + index * Integer.BYTES);
+        long stamp = this.lock.writeLock();
+        try {
+            this.locations[index] = location;
+            this.timestamps[index] = timestamp;
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+        if (old != 0) {
+            this.usedSectors.clear(sectorOffset(old), sectorOffset(old) + sectorCount(old));
+        }
+        if (wasExternal && !external) {
+            Files.deleteIfExists(externalPath(x, z));
+        }
+    }
+    
+    /**
+     * @return the current space usage, to decide whether a {@link #compact()} is worth it
+     */
+    public RegionStats getStats() throws IOException {
+        synchronized (this.writeLock) {
+            ensureOpen();
+            int chunks = 0;
+            for (int location : this.locations) {
+                if (location != 0) {
+                    chunks++;
+                }
+            }
+            long fileSectors = Math.max(sectorsFor(this.channel.size()), this.usedSectors.length());
+            int holes = 0;
+            int free = this.usedSectors.nextClearBit(0);
+            while (free < fileSectors) {
+                holes++;
+                int used = this.usedSectors.nextSetBit(free);
+                if (used < 0) {
+                    break;
+                }
+                free = this.usedSectors.nextClearBit(used);
+            }
+            return new RegionStats(chunks, fileSectors, this.usedSectors.cardinality(), holes);
+        }
+    }
+    
+    /**
+     * Compacts a region file that is not open elsewhere.
+     *
+     * @return the space usage after the compaction
+     * @see #compact()
+     */
+    public static RegionStats compact(Path path) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            throw new NoSuchFileException(path.toString());
+        }
+        try (RegionFile region = new RegionFile(path, RegionCompression.ZLIB)) {
+            return region.compact();
+        }
+    }
+    
+    /**
+     * Rewrites all chunks contiguously in the order of their current position into a temporary file, which then
+     * atomically replaces the region file. Chunks keep their timestamps, sectors beyond the length of a chunk are
+     * dropped. Reads continue during the compaction, writes wait until it is done.
+     *
+     * @return the space usage after the compaction
+     */
+    public RegionStats compact() throws IOException {
+        checkWritable();
+        synchronized (this.writeLock) {
+            ensureOpen();
+            Path tmp = this.path.resolveSibling(this.path.getFileName() + ".compact");
+            int[] compacted = new int[CHUNKS];
+            FileChannel target = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            int end;
+            try {
+                end = writeCompacted(target, compacted);
+                target.force(true);
+                //The channel stays valid, it follows the file to its new name
+                Files.move(tmp, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException | RuntimeException e) {
+                try {
+                    target.close();
+                    Files.deleteIfExists(tmp);
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                throw e;
+            }
+            FileChannel old = this.channel;
+            long stamp = this.lock.writeLock();
+            try {
+                this.channel = target;
+                System.arraycopy(compacted, 0, this.locations, 0, CHUNKS);
+            } finally {
+                this.lock.unlockWrite(stamp);
+            }
+            this.usedSectors.clear();
+            this.usedSectors.set(0, end);
+            old.close();
+            return getStats();
+        }
+    }
+    
+    //Returns the number of sectors of the compacted file
+    private int writeCompacted(FileChannel target, int[] compacted) throws IOException {
+        //Sorting by offset copies sequentially and keeps chunks that were written together close
+        long[] order = new long[CHUNKS];
+        int chunks = 0;
+        for (int i = 0; i < CHUNKS; i++) {
+            if (this.locations[i] != 0) {
+                order[chunks++] = (long) sectorOffset(this.locations[i]) << 10 | i;
+            }
+        }
+        Arrays.sort(order, 0, chunks);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SECTORS * SECTOR_SIZE);
+        ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+        int next = HEADER_SECTORS;
+        for (int j = 0; j < chunks; j++) {
+            int index = (int) (order[j] & (CHUNKS - 1));
+            int location = this.locations[index];
+            long from = (long) sectorOffset(location) * SECTOR_SIZE;
+            int count = sectorCount(location);
+            length.clear();
+            readFully(this.channel, length, from);
+            if (!length.hasRemaining() && length.getInt(0) > 0) {
+                count = Math.min(count, sectorsFor(length.getInt(0) + (long) Integer.BYTES));
+            }
+            long to = (long) next * SECTOR_SIZE;
+            long copied = 0;
+            target.position(to);
+            while (copied < (long) count * SECTOR_SIZE) {
+                long n = this.channel.transferTo(from + copied, (long) count * SECTOR_SIZE - copied, target);
+                if (n <= 0) {
+                    break;
+                }
+                copied += n;
+            }
+            compacted[index] = next << 8 | count;
+            header.putInt(index * Integer.BYTES, compacted[index]);
+            next += count;
+        }
+        for (int i = 0; i < CHUNKS; i++) {
+            header.putInt(SECTOR_SIZE + i * Integer.BYTES, this.timestamps[i]);
+        }
+        writeFully(target, header, 0);
+        if (target.size() < (long) next * SECTOR_SIZE) {
+            //Pads the last chunk to whole sectors
+            writeFully(target, ByteBuffer.allocate(1), (long) next * SECTOR_SIZE - 1);
+        }
+        return next;
+    }
+    
+    //First fit, the file grows if no gap is large enough
+    private int allocate(int sectors) {
+        int start = this.usedSectors.nextClearBit(HEADER_SECTORS);
+        while (true) {
+            int next = this.usedSectors.nextSetBit(start);
+            if (next < 0 || next - start >= sectors) {
+                return start;
+            }
+            start = this.usedSectors.nextClearBit(next);
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        synchronized (this.writeLock) {
+            this.closed = true;
+            this.channel.close();
+        }
+    }
+    
+    private static final class RawChunk {
+        
+        private final byte[] sectors;
+        private final byte[] external;
+        
+        private RawChunk(byte[] sectors, byte[] external) {
+            this.sectors = sectors;
+            this.external = external;
+        }
+    }
+    
+    //Collects the compressed chunk behind room for the chunk header
+    private static final class ChunkBuffer extends ByteArrayOutputStream {
+        
+        private ChunkBuffer() {
+            super(SECTOR_SIZE);
+            this.count = CHUNK_HEADER_SIZE;
+        }
+        
+        private byte[] bytes() {
+            return this.buf;
+        }
+        
+        @Override
+        public void close() {
+        }
+    }
+}
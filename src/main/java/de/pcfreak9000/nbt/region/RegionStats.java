@@ -0,0 +1,68 @@
+package de.pcfreak9000.nbt.region;
+
+/**
+ * A snapshot of the space usage of a {@link RegionFile}, see {@link RegionFile#getStats()}.
+ */
+public final class RegionStats {
+    
+    private final int chunks;
+    private final long fileSectors;
+    private final int usedSectors;
+    private final int holes;
+    
+    RegionStats(int chunks, long fileSectors, int usedSectors, int holes) {
+        this.chunks = chunks;
+        this.fileSectors = fileSectors;
+        this.usedSectors = usedSectors;
+        this.holes = holes;
+    }
+    
+    public int getChunkCount() {
+        return this.chunks;
+    }
+    
+    /**
+     * @return the size of the file in sectors, including the header
+     */
+    public long getFileSectors() {
+        return this.fileSectors;
+    }
+    
+    /**
+     * @return the number of sectors used by the header and by chunks
+     */
+    public int getUsedSectors() {
+        return this.usedSectors;
+    }
+    
+    public long getFreeSectors() {
+        return this.fileSectors - this.usedSectors;
+    }
+    
+    /**
+     * @return the number of runs of free sectors, including free space at the end of the file
+     */
+    public int getHoles() {
+        return this.holes;
+    }
+    
+    /**
+     * @return the number of bytes a compaction would at least free
+     */
+    public long getReclaimableBytes() {
+        return getFreeSectors() * RegionFile.SECTOR_SIZE;
+    }
+    
+    /**
+     * @return the share of the file that is free, from 0 to 1
+     */
+    public double getFragmentation() {
+        return this.fileSectors == 0 ? 0 : getFreeSectors() / (double) this.fileSectors;
+    }
+    
+    @Override
+    public String toString() {
+        return "RegionStats[chunks=" + this.chunks + ", fileSectors=" + this.fileSectors + ", usedSectors="
+                + this.usedSectors + ", holes=" + this.holes + "]";
+    }
+}
@@ -0,0 +1,49 @@
+package de.pcfreak9000.nbt.region;
+
+import java.nio.file.Path;
+
+/**
+ * A single unit of work of a {@link WorldScanner}: either a whole NBT file or one chunk of a region file.
+ */
+public final class ScanUnit {
+    
+    private final Path path;
+    private final boolean chunk;
+    private final int chunkX;
+    private final int chunkZ;
+    
+    ScanUnit(Path path, boolean chunk, int chunkX, int chunkZ) {
+        this.path = path;
+        this.chunk = chunk;
+        this.chunkX = chunkX;
+        this.chunkZ = chunkZ;
+    }
+    
+    public Path getPath() {
+        return this.path;
+    }
+    
+    /**
+     * @return true if this is a chunk of a region file
+     */
+    public boolean isChunk() {
+        return this.chunk;
+    }
+    
+    /**
+     * @return the absolute chunk coordinate if the region file is named r.[x].[z].mca, otherwise the coordinate
+     *         within the region
+     */
+    public int getChunkX() {
+        return this.chunkX;
+    }
+    
+    public int getChunkZ() {
+        return this.chunkZ;
+    }
+    
+    @Override
+    public String toString() {
+        return this.chunk ? this.path + " [" + this.chunkX + ", " + this.chunkZ + "]" : this.path.toString();
+    }
+}
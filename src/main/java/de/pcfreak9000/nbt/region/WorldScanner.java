@@ -0,0 +1,317 @@
+package de.pcfreak9000.nbt.region;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import de.pcfreak9000.nbt.NbtReader;
+import de.pcfreak9000.nbt.visitor.NBTValueVisitor;
+
+/**
+ * Scans region and NBT files on a {@link ForkJoinPool}. Files are split between workers, region files further into
+ * ranges of chunks. Every file and every chunk is visited by its own visitor, the results of all visitors are merged.
+ * Region files are opened {@link RegionFile#openReadOnly(Path) read only}, a scan never modifies any file.
+ * <p>
+ * Reads are bounded by a semaphore and run as {@link ForkJoinPool.ManagedBlocker}s, so the pool keeps its CPUs busy
+ * with decoding while other workers wait for the disk. Only workers inside a read are compensated for, so the pool
+ * grows by at most the I/O concurrency. Set it to roughly the queue depth the drive needs to be saturated, compressed
+ * data is only inflated after the read and outside of the bound.
+ */
+public class WorldScanner {
+    
+    public static final int DEFAULT_IO_CONCURRENCY = 64;
+    
+    //Chunks visited sequentially by one task
+    private static final int CHUNKS_PER_TASK = 32;
+    
+    //Null if every scan runs on its own pool
+    private final ForkJoinPool pool;
+    private final Semaphore io;
+    
+    /**
+     * Runs every scan on a new pool with one worker per CPU, which is shut down afterwards. The threads added while
+     * workers wait for the disk don't take from the {@link ForkJoinPool#commonPool() common pool}.
+     */
+    public WorldScanner() {
+        this.pool = null;
+        this.io = new Semaphore(DEFAULT_IO_CONCURRENCY);
+    }
+    
+    /**
+     * @param ioConcurrency the maximum number of reads in flight
+     */
+    public WorldScanner(ForkJoinPool pool, int ioConcurrency) {
+        if (ioConcurrency < 1) {
+            throw new IllegalArgumentException("ioConcurrency < 1");
+        }
+        this.pool = Objects.requireNonNull(pool);
+        this.io = new Semaphore(ioConcurrency);
+    }
+    
+    /**
+     * @return the region (.mca) and NBT (.dat) files in the directory and its subdirectories
+     */
+    public static List<Path> findFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(path -> {
+                String name = path.getFileName().toString();
+                return (name.endsWith(".mca") || name.endsWith(".dat")) && Files.isRegularFile(path);
+            }).sorted().collect(Collectors.toList());
+        }
+    }
+    
+    /**
+     * Scans all files found by {@link #findFiles(Path)}, the first unreadable file or chunk aborts the scan.
+     *
+     * @see #scan(List, Function, Function, BinaryOperator, BiConsumer)
+     */
+    public <V extends NBTValueVisitor, R> R scan(Path directory, Function<? super ScanUnit, ? extends V> visitors,
+            Function<? super V, ? extends R> results, BinaryOperator<R> merger) throws IOException {
+        return scan(findFiles(directory), visitors, results, merger, null);
+    }
+    
+    /**
+     * Visits every given NBT file and every chunk of the given region files with a new visitor. All functions are
+     * called concurrently.
+     *
+     * @param visitors creates the visitor of a unit
+     * @param results  extracts the result of a visitor after the unit was visited, null results are ignored
+     * @param merger   merges two results, in no particular order
+     * @param errors   receives the units that couldn't be read, which are skipped. If null, the scan fails instead
+     * @return the merged result of all units, or null if there were none
+     */
+    public <V extends NBTValueVisitor, R> R scan(List<Path> files, Function<? super ScanUnit, ? extends V> visitors,
+            Function<? super V, ? extends R> results, BinaryOperator<R> merger,
+            BiConsumer<? super ScanUnit, ? super IOException> errors) throws IOException {
+        Scan<V, R> scan = new Scan<>(visitors, results, merger, errors);
+        ForkJoinPool pool = this.pool == null ? new ForkJoinPool() : this.pool;
+        try {
+            return pool.invoke(scan.new FilesTask(files, 0, files.size()));
+        } catch (UncheckedIOException e) {
+            //The pool might have wrapped the exception again
+            Throwable cause = e;
+            while (cause.getCause() instanceof UncheckedIOException) {
+                cause = cause.getCause();
+            }
+            throw new IOException(cause.getMessage(), cause.getCause());
+        } finally {
+            if (pool != this.pool) {
+                pool.shutdown();
+            }
+        }
+    }
+    
+    private <T> T io(IoAction<T> action) throws IOException {
+        //Waiting for a permit is not managed, the pool would start a thread for every waiting worker otherwise
+        try {
+            this.io.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for I/O");
+        }
+        IoBlocker<T> blocker = new IoBlocker<>(action);
+        try {
+            ForkJoinPool.managedBlock(blocker);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for I/O");
+        } finally {
+            this.io.release();
+        }
+        if (blocker.exception != null) {
+            throw blocker.exception;
+        }
+        return blocker.value;
+    }
+    
+    @FunctionalInterface
+    private static interface IoAction<T> {
+        T run() throws IOException;
+    }
+    
+    private static final class IoBlocker<T> implements ForkJoinPool.ManagedBlocker {
+        
+        private final IoAction<T> action;
+        private T value;
+        private IOException exception;
+        private boolean done;
+        
+        private IoBlocker(IoAction<T> action) {
+            this.action = action;
+        }
+        
+        @Override
+        public boolean block() {
+            try {
+                this.value = this.action.run();
+            } catch (IOException e) {
+                this.exception = e;
+            }
+            this.done = true;
+            return true;
+        }
+        
+        @Override
+        public boolean isReleasable() {
+            return this.done;
+        }
+    }
+    
+    private final class Scan<V extends NBTValueVisitor, R> {
+        
+        private final Function<? super ScanUnit, ? extends V> visitors;
+        private final Function<? super V, ? extends R> results;
+        private final BinaryOperator<R> merger;
+        private final BiConsumer<? super ScanUnit, ? super IOException> errors;
+        
+        private Scan(Function<? super ScanUnit, ? extends V> visitors, Function<? super V, ? extends R> results,
+                BinaryOperator<R> merger, BiConsumer<? super ScanUnit, ? super IOException> errors) {
+            this.visitors = visitors;
+            this.results = results;
+            this.merger = merger;
+            this.errors = errors;
+        }
+        
+        private R merge(R a, R b) {
+            return a == null ? b : b == null ? a : this.merger.apply(a, b);
+        }
+        
+        private void failed(ScanUnit unit, IOException e) {
+            if (this.errors == null) {
+                throw new UncheckedIOException("Failed to scan " + unit, e);
+            }
+            this.errors.accept(unit, e);
+        }
+        
+        //Reads with bounded concurrency, then decodes and visits without holding a permit
+        private R visit(ScanUnit unit, IoAction<NbtReader> read) {
+            try (NbtReader reader = io(read)) {
+                if (reader == null) {
+                    return null;
+                }
+                V visitor = this.visitors.apply(unit);
+                reader.applyVisitor(visitor);
+                return this.results.apply(visitor);
+            } catch (IOException e) {
+                failed(unit, e);
+                return null;
+            }
+        }
+        
+        private R scanFile(Path path) {
+            String name = path.getFileName().toString();
+            ScanUnit unit = new ScanUnit(path, false, 0, 0);
+            if (!name.endsWith(".mca")) {
+                return visit(unit, () -> NbtReader.open(Files.readAllBytes(path)));
+            }
+            //Chunk coordinates from the name, r.[x].[z].mca
+            int baseX = 0;
+            int baseZ = 0;
+            String[] parts = name.split("\\.");
+            if (parts.length == 4 && parts[0].equals("r")) {
+                try {
+                    baseX = Integer.parseInt(parts[1]) << 5;
+                    baseZ = Integer.parseInt(parts[2]) << 5;
+                } catch (NumberFormatException e) {
+                    baseX = 0;
+                    baseZ = 0;
+                }
+            }
+            RegionFile region;
+            try {
+                region = io(() -> RegionFile.openReadOnly(path));
+            } catch (IOException e) {
+                failed(unit, e);
+                return null;
+            }
+            try (region) {
+                return new ChunksTask(region, baseX, baseZ, 0, RegionFile.CHUNKS).invoke();
+            } catch (IOException e) {
+                failed(unit, e);
+                return null;
+            }
+        }
+        
+        private final class FilesTask extends RecursiveTask<R> {
+            
+            private static final long serialVersionUID = 1L;
+            
+            private final List<Path> files;
+            private final int from;
+            private final int to;
+            
+            private FilesTask(List<Path> files, int from, int to) {
+                this.files = files;
+                this.from = from;
+                this.to = to;
+            }
+            
+            @Override
+            protected R compute() {
+                if (this.to - this.from == 0) {
+                    return null;
+                }
+                if (this.to - this.from == 1) {
+                    return scanFile(this.files.get(this.from));
+                }
+                int middle = (this.from + this.to) >>> 1;
+                FilesTask left = new FilesTask(this.files, this.from, middle);
+                left.fork();
+                R right = new FilesTask(this.files, middle, this.to).compute();
+                return merge(left.join(), right);
+            }
+        }
+        
+        private final class ChunksTask extends RecursiveTask<R> {
+            
+            private static final long serialVersionUID = 1L;
+            
+            private final RegionFile region;
+            private final int baseX;
+            private final int baseZ;
+            private final int from;
+            private final int to;
+            
+            private ChunksTask(RegionFile region, int baseX, int baseZ, int from, int to) {
+                this.region = region;
+                this.baseX = baseX;
+                this.baseZ = baseZ;
+                this.from = from;
+                this.to = to;
+            }
+            
+            @Override
+            protected R compute() {
+                if (this.to - this.from > CHUNKS_PER_TASK) {
+                    int middle = (this.from + this.to) >>> 1;
+                    ChunksTask left = new ChunksTask(this.region, this.baseX, this.baseZ, this.from, middle);
+                    left.fork();
+                    R right = new ChunksTask(this.region, this.baseX, this.baseZ, middle, this.to).compute();
+                    return merge(left.join(), right);
+                }
+                R result = null;
+                for (int i = this.from; i < this.to; i++) {
+                    int x = i & 31;
+                    int z = i >>> 5;
+                    if (this.region.hasChunk(x, z)) {
+                        ScanUnit unit = new ScanUnit(this.region.getPath(), true, this.baseX + x, this.baseZ + z);
+                        result = merge(result, visit(unit, () -> this.region.readChunk(this.baseX + x, this.baseZ + z)));
+                    }
+                }
+                return result;
+            }
+        }
+    }
+}
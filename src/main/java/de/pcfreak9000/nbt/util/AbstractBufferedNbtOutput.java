@@ -0,0 +1,425 @@
+package de.pcfreak9000.nbt.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Unsynchronized buffered output, encoding big-endian values straight into a pooled buffer. Byte arrays that don't fit
+ * the buffer bypass it. Data only reaches the target when the buffer is full, on {@link #flushBuffer()},
+ * {@link #flush()} and {@link #close()}.
+ * <p>
+ * Reserved ints are patched in the buffer if they are still there, otherwise in the target if it
+ * {@link #canPatch() can seek}. For other targets everything from the first unpatched reservation on is held back, in
+ * memory up to the spill limit and in a temporary file beyond it.
+ */
+public abstract class AbstractBufferedNbtOutput implements NbtOutput {
+    
+    private static final VarHandle SHORT = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle FLOAT = MethodHandles.byteArrayViewVarHandle(float[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle DOUBLE = MethodHandles.byteArrayViewVarHandle(double[].class,
+            ByteOrder.BIG_ENDIAN);
+    
+    public static final int DEFAULT_SPILL_LIMIT = 1 << 20;
+    
+    protected byte[] buffer;
+    protected int position;
+    
+    //Bytes drained or held back before the start of the buffer
+    private long written;
+    private int pending;
+    private long holdFrom;
+    private final int spillLimit;
+    private Spill spill;
+    
+    protected AbstractBufferedNbtOutput(int bufferSize) {
+        this(bufferSize, DEFAULT_SPILL_LIMIT);
+    }
+    
+    protected AbstractBufferedNbtOutput(int bufferSize, int spillLimit) {
+        if (spillLimit < 0) {
+            throw new IllegalArgumentException("spillLimit < 0");
+        }
+        this.buffer = BufferPool.acquire(bufferSize);
+        this.spillLimit = spillLimit;
+    }
+    
+    /**
+     * Writes the buffered bytes followed by the given bytes to the target. The buffer is reset afterwards.
+     */
+    protected abstract void drain(byte[] ar, int off, int len) throws IOException;
+    
+    protected abstract void flushTarget() throws IOException;
+    
+    protected abstract void closeTarget() throws IOException;
+    
+    protected boolean canPatch() {
+        return false;
+    }
+    
+    /**
+     * Overwrites the int starting the given number of bytes before the end of the data drained so far. Only called if
+     * {@link #canPatch()}.
+     */
+    protected void patchTarget(long distance, int value) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+    
+    private void ensure(int n) throws IOException {
+        if (this.buffer.length - this.position < n) {
+            flushBuffer();
+        }
+    }
+    
+    //Number of elements of the given size that can be encoded into the buffer, at least one
+    private int chunk(int elementSize, int wanted) throws IOException {
+        ensure(elementSize);
+        return Math.min(wanted, (this.buffer.length - this.position) / elementSize);
+    }
+    
+    @Override
+    public void flushBuffer() throws IOException {
+        if (this.position > 0) {
+            emit(this.buffer, 0, 0);
+        }
+    }
+    
+    //Drains the buffer and the given bytes, or moves them to the spill if they have to be held back
+    private void emit(byte[] ar, int off, int len) throws IOException {
+        int end = this.position;
+        if (this.pending == 0) {
+            drain(ar, off, len);
+        } else {
+            Spill spill = spill();
+            int keep = (int) Math.max(0, Math.min(end, this.holdFrom - this.written));
+            if (keep > 0) {
+                this.position = keep;
+                drain(this.buffer, 0, 0);
+            }
+            spill.append(this.buffer, keep, end - keep);
+            spill.append(ar, off, len);
+            this.position = 0;
+        }
+        this.written += end + len;
+    }
+    
+    private Spill spill() {
+        if (this.spill == null) {
+            this.spill = new Spill(this.spillLimit);
+        }
+        return this.spill;
+    }
+    
+    //Drains the held back bytes followed by the buffer
+    private void release() throws IOException {
+        Spill spill = this.spill;
+        if (spill == null || spill.size() == 0) {
+            return;
+        }
+        spill.append(this.buffer, 0, this.position);
+        this.written += this.position;
+        this.position = 0;
+        drain(spill.memory, 0, spill.memorySize);
+        if (spill.file != null) {
+            ByteBuffer chunk = ByteBuffer.wrap(this.buffer);
+            long filePosition = 0;
+            while (filePosition < spill.fileSize) {
+                chunk.clear();
+                int n = spill.file.read(chunk, filePosition);
+                if (n < 0) {
+                    throw new IOException("Spill file truncated");
+                }
+                filePosition += n;
+                this.position = chunk.position();
+                drain(this.buffer, 0, 0);
+            }
+        }
+        spill.clear();
+    }
+    
+    @Override
+    public long reserveInt() throws IOException {
+        ensure(Integer.BYTES);
+        long mark = this.written + this.position;
+        if (!canPatch() && this.pending++ == 0) {
+            this.holdFrom = mark;
+        }
+        this.position += Integer.BYTES;
+        return mark;
+    }
+    
+    @Override
+    public void patchInt(long mark, int value) throws IOException {
+        if (mark >= this.written) {
+            INT.set(this.buffer, (int) (mark - this.written), value);
+        } else if (this.pending == 0) {
+            patchTarget(this.written - mark, value);
+        } else {
+            this.spill.patchInt(mark - this.holdFrom, value);
+        }
+        if (this.pending > 0 && --this.pending == 0) {
+            release();
+        }
+    }
+    
+    @Override
+    public void writeByte(int b) throws IOException {
+        ensure(Byte.BYTES);
+        this.buffer[this.position++] = (byte) b;
+    }
+    
+    @Override
+    public void writeShort(int s) throws IOException {
+        ensure(Short.BYTES);
+        SHORT.set(this.buffer, this.position, (short) s);
+        this.position += Short.BYTES;
+    }
+    
+    @Override
+    public void writeInt(int i) throws IOException {
+        ensure(Integer.BYTES);
+        INT.set(this.buffer, this.position, i);
+        this.position += Integer.BYTES;
+    }
+    
+    @Override
+    public void writeLong(long l) throws IOException {
+        ensure(Long.BYTES);
+        LONG.set(this.buffer, this.position, l);
+        this.position += Long.BYTES;
+    }
+    
+    @Override
+    public void writeFloat(float f) throws IOException {
+        writeInt(Float.floatToIntBits(f));
+    }
+    
+    @Override
+    public void writeDouble(double d) throws IOException {
+        writeLong(Double.doubleToLongBits(d));
+    }
+    
+    @Override
+    public void write(byte[] ar, int off, int len) throws IOException {
+        if (len <= this.buffer.length - this.position) {
+            System.arraycopy(ar, off, this.buffer, this.position, len);
+            this.position += len;
+        } else if (len < this.buffer.length / 4) {
+            flushBuffer();
+            System.arraycopy(ar, off, this.buffer, 0, len);
+            this.position = len;
+        } else {
+            emit(ar, off, len);
+        }
+    }
+    
+    @Override
+    public void writeShorts(short[] ar, int off, int len) throws IOException {
+        int end = off + len;
+        while (off < end) {
+            int n = chunk(Short.BYTES, end - off);
+            byte[] buffer = this.buffer;
+            int pos = this.position;
+            for (int i = 0; i < n; i++, pos += Short.BYTES) {
+                SHORT.set(buffer, pos, ar[off + i]);
+            }
+            this.position = pos;
+            off += n;
+        }
+    }
+    
+    @Override
+    public void writeInts(int[] ar, int off, int len) throws IOException {
+        int end = off + len;
+        while (off < end) {
+            int n = chunk(Integer.BYTES, end - off);
+            byte[] buffer = this.buffer;
+            int pos = this.position;
+            for (int i = 0; i < n; i++, pos += Integer.BYTES) {
+                INT.set(buffer, pos, ar[off + i]);
+            }
+            this.position = pos;
+            off += n;
+        }
+    }
+    
+    @Override
+    public void writeLongs(long[] ar, int off, int len) throws IOException {
+        int end = off + len;
+        while (off < end) {
+            int n = chunk(Long.BYTES, end - off);
+            byte[] buffer = this.buffer;
+            int pos = this.position;
+            for (int i = 0; i < n; i++, pos += Long.BYTES) {
+                LONG.set(buffer, pos, ar[off + i]);
+            }
+            this.position = pos;
+            off += n;
+        }
+    }
+    
+    @Override
+    public void writeFloats(float[] ar, int off, int len) throws IOException {
+        int end = off + len;
+        while (off < end) {
+            int n = chunk(Float.BYTES, end - off);
+            byte[] buffer = this.buffer;
+            int pos = this.position;
+            for (int i = 0; i < n; i++, pos += Float.BYTES) {
+                FLOAT.set(buffer, pos, ar[off + i]);
+            }
+            this.position = pos;
+            off += n;
+        }
+    }
+    
+    @Override
+    public void writeDoubles(double[] ar, int off, int len) throws IOException {
+        int end = off + len;
+        while (off < end) {
+            int n = chunk(Double.BYTES, end - off);
+            byte[] buffer = this.buffer;
+            int pos = this.position;
+            for (int i = 0; i < n; i++, pos += Double.BYTES) {
+                DOUBLE.set(buffer, pos, ar[off + i]);
+            }
+            this.position = pos;
+            off += n;
+        }
+    }
+    
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        flushTarget();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (this.buffer == null) {
+            return;
+        }
+        IOException failure = null;
+        try {
+            if (this.pending > 0) {
+                throw new IOException(this.pending + " reserved int(s) were never patched");
+            }
+            flushBuffer();
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            BufferPool.release(this.buffer);
+            this.buffer = null;
+        }
+        if (this.spill != null) {
+            failure = close(this.spill, failure);
+            this.spill = null;
+        }
+        try {
+            closeTarget();
+        } catch (IOException e) {
+            failure = suppress(failure, e);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+    
+    private static IOException close(Closeable closeable, IOException failure) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            return suppress(failure, e);
+        }
+        return failure;
+    }
+    
+    private static IOException suppress(IOException failure, IOException e) {
+        if (failure == null) {
+            return e;
+        }
+        failure.addSuppressed(e);
+        return failure;
+    }
+    
+    //Held back bytes, the first spillLimit of them in memory and the rest in a temporary file
+    private static final class Spill implements Closeable {
+        
+        private final int limit;
+        private byte[] memory = new byte[0];
+        private int memorySize;
+        private FileChannel file;
+        private long fileSize;
+        private final ByteBuffer patch = ByteBuffer.allocate(Integer.BYTES);
+        
+        private Spill(int limit) {
+            this.limit = limit;
+        }
+        
+        private long size() {
+            return this.memorySize + this.fileSize;
+        }
+        
+        private void append(byte[] ar, int off, int len) throws IOException {
+            int inMemory = Math.min(len, this.fileSize == 0 ? this.limit - this.memorySize : 0);
+            if (inMemory > 0) {
+                if (this.memorySize + inMemory > this.memory.length) {
+                    int capacity = Math.max(this.memorySize + inMemory, Math.min(this.limit, this.memory.length * 2));
+                    this.memory = Arrays.copyOf(this.memory, capacity);
+                }
+                System.arraycopy(ar, off, this.memory, this.memorySize, inMemory);
+                this.memorySize += inMemory;
+                off += inMemory;
+                len -= inMemory;
+            }
+            if (len > 0) {
+                if (this.file == null) {
+                    Path path = Files.createTempFile("nbt", ".spill");
+                    this.file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                            StandardOpenOption.DELETE_ON_CLOSE);
+                }
+                ByteBuffer src = ByteBuffer.wrap(ar, off, len);
+                while (src.hasRemaining()) {
+                    this.fileSize += this.file.write(src, this.fileSize);
+                }
+            }
+        }
+        
+        private void patchInt(long offset, int value) throws IOException {
+            //The int might straddle memory and file
+            this.patch.clear();
+            this.patch.putInt(value).flip();
+            while (this.patch.hasRemaining() && offset < this.memorySize) {
+                this.memory[(int) offset++] = this.patch.get();
+            }
+            while (this.patch.hasRemaining()) {
+                offset += this.file.write(this.patch, offset - this.memorySize);
+            }
+        }
+        
+        private void clear() throws IOException {
+            this.memorySize = 0;
+            if (this.file != null) {
+                this.file.truncate(0);
+                this.fileSize = 0;
+            }
+        }
+        
+        @Override
+        public void close() throws IOException {
+            if (this.file != null) {
+                this.file.close();
+            }
+        }
+    }
+}
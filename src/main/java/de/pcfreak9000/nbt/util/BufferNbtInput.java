@@ -0,0 +1,137 @@
+package de.pcfreak9000.nbt.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reads from a {@link ByteBuffer} (heap, direct or memory-mapped) using absolute big-endian gets. The position and
+ * byte order of the buffer passed in are not modified.
+ */
+public class BufferNbtInput implements NbtInput {
+    
+    private final ByteBuffer buffer;
+    private final int limit;
+    private int position;
+    
+    public BufferNbtInput(ByteBuffer buffer) {
+        this.buffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        this.position = buffer.position();
+        this.limit = buffer.limit();
+    }
+    
+    private BufferNbtInput(BufferNbtInput origin, int position) {
+        this.buffer = origin.buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        this.limit = origin.limit;
+        this.position = position;
+    }
+    
+    /**
+     * Creates an independent input over the same bytes, starting at the given absolute position.
+     */
+    public BufferNbtInput at(int position) {
+        if (position < 0 || position > this.limit) {
+            throw new IllegalArgumentException("Position out of bounds: " + position);
+        }
+        return new BufferNbtInput(this, position);
+    }
+    
+    public int position() {
+        return this.position;
+    }
+    
+    public int remaining() {
+        return this.limit - this.position;
+    }
+    
+    private int advance(long bytes) throws IOException {
+        int pos = this.position;
+        if (bytes > this.limit - pos) {
+            throw new EOFException("Needed " + bytes + " bytes, only " + (this.limit - pos) + " remaining");
+        }
+        this.position = pos + (int) bytes;
+        return pos;
+    }
+    
+    @Override
+    public byte readByte() throws IOException {
+        return this.buffer.get(advance(Byte.BYTES));
+    }
+    
+    @Override
+    public short readShort() throws IOException {
+        return this.buffer.getShort(advance(Short.BYTES));
+    }
+    
+    @Override
+    public int readInt() throws IOException {
+        return this.buffer.getInt(advance(Integer.BYTES));
+    }
+    
+    @Override
+    public long readLong() throws IOException {
+        return this.buffer.getLong(advance(Long.BYTES));
+    }
+    
+    @Override
+    public float readFloat() throws IOException {
+        return this.buffer.getFloat(advance(Float.BYTES));
+    }
+    
+    @Override
+    public double readDouble() throws IOException {
+        return this.buffer.getDouble(advance(Double.BYTES));
+    }
+    
+    @Override
+    public void readFully(byte[] ar, int off, int len) throws IOException {
+        int pos = advance(len);
+        this.buffer.position(pos);
+        this.buffer.get(ar, off, len);
+    }
+    
+    @Override
+    public void readShorts(short[] ar, int off, int len) throws IOException {
+        int pos = advance((long) len * Short.BYTES);
+        this.buffer.position(pos);
+        this.buffer.asShortBuffer().get(ar, off, len);
+    }
+    
+    @Override
+    public void readInts(int[] ar, int off, int len) throws IOException {
+        int pos = advance((long) len * Integer.BYTES);
+        this.buffer.position(pos);
+        this.buffer.asIntBuffer().get(ar, off, len);
+    }
+    
+    @Override
+    public void readLongs(long[] ar, int off, int len) throws IOException {
+        int pos = advance((long) len * Long.BYTES);
+        this.buffer.position(pos);
+        this.buffer.asLongBuffer().get(ar, off, len);
+    }
+    
+    @Override
+    public void readFloats(float[] ar, int off, int len) throws IOException {
+        int pos = advance((long) len * Float.BYTES);
+        this.buffer.position(pos);
+        this.buffer.asFloatBuffer().get(ar, off, len);
+    }
+    
+    @Override
+    public void readDoubles(double[] ar, int off, int len) throws IOException {
+        int pos = advance((long) len * Double.BYTES);
+        this.buffer.position(pos);
+        this.buffer.asDoubleBuffer().get(ar, off, len);
+    }
+    
+    @Override
+    public void skipBytes(long n) throws IOException {
+        advance(n);
+    }
+    
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,132 @@
+package de.pcfreak9000.nbt.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Writes into a {@link ByteBuffer} starting at its position. The position of the buffer passed in is advanced on
+ * {@link #flush()} and {@link #close()}, its byte order is not modified. Running out of space is reported as an
+ * {@link IOException}.
+ */
+public class BufferNbtOutput implements NbtOutput {
+    
+    private final ByteBuffer target;
+    private final ByteBuffer buffer;
+    
+    public BufferNbtOutput(ByteBuffer buffer) {
+        this.target = buffer;
+        this.buffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+    }
+    
+    private void ensure(long bytes) throws IOException {
+        if (bytes > this.buffer.remaining()) {
+            throw new IOException(
+                    "Buffer full, needed " + bytes + " bytes, only " + this.buffer.remaining() + " remaining");
+        }
+    }
+    
+    @Override
+    public void writeByte(int b) throws IOException {
+        ensure(Byte.BYTES);
+        this.buffer.put((byte) b);
+    }
+    
+    @Override
+    public void writeShort(int s) throws IOException {
+        ensure(Short.BYTES);
+        this.buffer.putShort((short) s);
+    }
+    
+    @Override
+    public void writeInt(int i) throws IOException {
+        ensure(Integer.BYTES);
+        this.buffer.putInt(i);
+    }
+    
+    @Override
+    public void writeLong(long l) throws IOException {
+        ensure(Long.BYTES);
+        this.buffer.putLong(l);
+    }
+    
+    @Override
+    public void writeFloat(float f) throws IOException {
+        ensure(Float.BYTES);
+        this.buffer.putFloat(f);
+    }
+    
+    @Override
+    public void writeDouble(double d) throws IOException {
+        ensure(Double.BYTES);
+        this.buffer.putDouble(d);
+    }
+    
+    @Override
+    public void write(byte[] ar, int off, int len) throws IOException {
+        ensure(len);
+        this.buffer.put(ar, off, len);
+    }
+    
+    @Override
+    public void writeShorts(short[] ar, int off, int len) throws IOException {
+        ensure((long) len * Short.BYTES);
+        this.buffer.asShortBuffer().put(ar, off, len);
+        skip(len * Short.BYTES);
+    }
+    
+    @Override
+    public void writeInts(int[] ar, int off, int len) throws IOException {
+        ensure((long) len * Integer.BYTES);
+        this.buffer.asIntBuffer().put(ar, off, len);
+        skip(len * Integer.BYTES);
+    }
+    
+    @Override
+    public void writeLongs(long[] ar, int off, int len) throws IOException {
+        ensure((long) len * Long.BYTES);
+        this.buffer.asLongBuffer().put(ar, off, len);
+        skip(len * Long.BYTES);
+    }
+    
+    @Override
+    public void writeFloats(float[] ar, int off, int len) throws IOException {
+        ensure((long) len * Float.BYTES);
+        this.buffer.asFloatBuffer().put(ar, off, len);
+        skip(len * Float.BYTES);
+    }
+    
+    @Override
+    public void writeDoubles(double[] ar, int off, int len) throws IOException {
+        ensure((long) len * Double.BYTES);
+        this.buffer.asDoubleBuffer().put(ar, off, len);
+        skip(len * Double.BYTES);
+    }
+    
+    @Override
+    public long reserveInt() throws IOException {
+        ensure(Integer.BYTES);
+        int mark = this.buffer.position();
+        skip(Integer.BYTES);
+        return mark;
+    }
+    
+    @Override
+    public void patchInt(long mark, int value) {
+        this.buffer.putInt((int) mark, value);
+    }
+    
+    private void skip(int bytes) {
+        this.buffer.position(this.buffer.position() + bytes);
+    }
+    
+    @Override
+    public void flush() {
+        this.target.position(this.buffer.position());
+    }
+    
+    @Override
+    public void close() {
+        flush();
+    }
+}
@@ -0,0 +1,48 @@
+package de.pcfreak9000.nbt.util;
+
+/**
+ * Keeps a few I/O buffers per thread, so short-lived readers and writers don't allocate a new buffer each time.
+ */
+public final class BufferPool {
+    
+    public static final int DEFAULT_SIZE = 8192;
+    public static final int MIN_SIZE = 16;
+    public static final int MAX_SIZE = 1 << 24;
+    
+    private static final int MAX_CACHED_SIZE = 1 << 20;
+    private static final int SLOTS = 4;
+    
+    private static final ThreadLocal<byte[][]> CACHED = ThreadLocal.withInitial(() -> new byte[SLOTS][]);
+    
+    private BufferPool() {
+    }
+    
+    /**
+     * @return a buffer of at least the given size (clamped to [{@link #MIN_SIZE}, {@link #MAX_SIZE}])
+     */
+    public static byte[] acquire(int sizeHint) {
+        int size = Math.max(MIN_SIZE, Math.min(MAX_SIZE, sizeHint));
+        byte[][] cached = CACHED.get();
+        for (int i = 0; i < SLOTS; i++) {
+            byte[] buffer = cached[i];
+            if (buffer != null && buffer.length >= size) {
+                cached[i] = null;
+                return buffer;
+            }
+        }
+        return new byte[size];
+    }
+    
+    public static void release(byte[] buffer) {
+        if (buffer.length > MAX_CACHED_SIZE) {
+            return;
+        }
+        byte[][] cached = CACHED.get();
+        for (int i = 0; i < SLOTS; i++) {
+            if (cached[i] == null) {
+                cached[i] = buffer;
+                return;
+            }
+        }
+    }
+}
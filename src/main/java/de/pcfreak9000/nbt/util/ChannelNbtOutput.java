@@ -0,0 +1,98 @@
+package de.pcfreak9000.nbt.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Buffered output over a {@link WritableByteChannel}. Large byte arrays are not copied into the buffer but wrapped and
+ * written together with the buffered bytes, in one gathering write if the channel supports it. Reserved ints are
+ * patched in place if the channel is a {@link SeekableByteChannel}.
+ */
+public class ChannelNbtOutput extends AbstractBufferedNbtOutput {
+    
+    private final WritableByteChannel channel;
+    private final ByteBuffer[] gather = new ByteBuffer[2];
+    private final ByteBuffer view;
+    private final ByteBuffer patch = ByteBuffer.allocate(Integer.BYTES);
+    
+    public ChannelNbtOutput(WritableByteChannel channel) {
+        this(channel, BufferPool.DEFAULT_SIZE);
+    }
+    
+    public ChannelNbtOutput(WritableByteChannel channel, int bufferSize) {
+        super(bufferSize);
+        this.channel = channel;
+        this.view = ByteBuffer.wrap(this.buffer);
+    }
+    
+    @Override
+    protected void drain(byte[] ar, int off, int len) throws IOException {
+        ByteBuffer head = this.view;
+        head.limit(this.position).position(0);
+        this.position = 0;
+        if (len == 0) {
+            writeFully(head);
+            return;
+        }
+        ByteBuffer payload = ByteBuffer.wrap(ar, off, len);
+        if (this.channel instanceof GatheringByteChannel) {
+            ByteBuffer[] gather = this.gather;
+            gather[0] = head;
+            gather[1] = payload;
+            try {
+                while (payload.hasRemaining()) {
+                    ((GatheringByteChannel) this.channel).write(gather);
+                }
+            } finally {
+                gather[1] = null;
+            }
+        } else {
+            writeFully(head);
+            writeFully(payload);
+        }
+    }
+    
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            this.channel.write(buffer);
+        }
+    }
+    
+    @Override
+    protected boolean canPatch() {
+        return this.channel instanceof SeekableByteChannel;
+    }
+    
+    @Override
+    protected void patchTarget(long distance, int value) throws IOException {
+        SeekableByteChannel channel = (SeekableByteChannel) this.channel;
+        long end = channel.position();
+        ByteBuffer patch = this.patch;
+        patch.clear();
+        patch.putInt(value).flip();
+        if (channel instanceof FileChannel) {
+            FileChannel file = (FileChannel) channel;
+            long at = end - distance;
+            while (patch.hasRemaining()) {
+                at += file.write(patch, at);
+            }
+        } else {
+            channel.position(end - distance);
+            writeFully(patch);
+            channel.position(end);
+        }
+    }
+    
+    @Override
+    protected void flushTarget() {
+    }
+    
+    @Override
+    protected void closeTarget() throws IOException {
+        this.channel.close();
+    }
+}
@@ -1,9 +1,13 @@
 package de.pcfreak9000.nbt.util;
 
 import java.io.IOException;
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.util.Arrays;
 
+/**
+ * Evaluates contexts on an explicit stack instead of the call stack. An instance keeps its stack array between runs,
+ * so contexts can be pooled by their stack position (see {@link #depth()} and {@link FramePool}). Runs may be nested,
+ * a nested run only evaluates the contexts it pushed itself.
+ */
 public class ContextStackEvaluator {
     
     public static enum ContextType {
@@ -19,29 +23,56 @@ public class ContextStackEvaluator {
     }
     
     public static void evaluate(IContext c) throws IOException {
-        Deque<IContext> stack = new ArrayDeque<>();
-        stack.push(c);
-        while (!stack.isEmpty()) {
-            IContext top = stack.peek();
-            IContext out = top.evaluate();
-            switch (top.type()) {
-            case Flat:
-                stack.pop();
-                if (out != null) {
-                    stack.push(out);
-                }
-                break;
-            case Recursive:
-                if (out != null) {
-                    stack.push(out);
-                } else {
-                    stack.pop();
+        new ContextStackEvaluator().run(c);
+    }
+    
+    private IContext[] stack = new IContext[16];
+    private int size;
+    
+    /**
+     * @return the stack position the next pushed context will occupy
+     */
+    public int depth() {
+        return size;
+    }
+    
+    public void run(IContext c) throws IOException {
+        int base = size;
+        push(c);
+        try {
+            while (size > base) {
+                IContext top = stack[size - 1];
+                IContext out = top.evaluate();
+                switch (top.type()) {
+                case Flat:
+                    if (out != null) {
+                        stack[size - 1] = out;
+                    } else {
+                        stack[--size] = null;
+                    }
+                    break;
+                case Recursive:
+                    if (out != null) {
+                        push(out);
+                    } else {
+                        stack[--size] = null;
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("" + top.type());
                 }
-                break;
-            default:
-                throw new IllegalArgumentException("" + top.type());
             }
+        } finally {
+            Arrays.fill(stack, base, size, null);
+            size = base;
+        }
+    }
+    
+    private void push(IContext c) {
+        if (size == stack.length) {
+            stack = Arrays.copyOf(stack, size * 2);
         }
+        stack[size++] = c;
     }
     
 }
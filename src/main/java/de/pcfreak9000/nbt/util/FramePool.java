@@ -0,0 +1,31 @@
+package de.pcfreak9000.nbt.util;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * Reusable frames indexed by stack position. At most one frame per position is in use at any time, so a frame can be
+ * reinitialized whenever a new context is pushed at its position.
+ */
+public class FramePool<T> {
+    
+    private final Supplier<T> factory;
+    private Object[] frames = new Object[16];
+    
+    public FramePool(Supplier<T> factory) {
+        this.factory = factory;
+    }
+    
+    @SuppressWarnings("unchecked")
+    public T get(int position) {
+        if (position >= frames.length) {
+            frames = Arrays.copyOf(frames, Math.max(position + 1, frames.length * 2));
+        }
+        Object frame = frames[position];
+        if (frame == null) {
+            frame = factory.get();
+            frames[position] = frame;
+        }
+        return (T) frame;
+    }
+}
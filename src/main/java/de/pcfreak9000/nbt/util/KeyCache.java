@@ -0,0 +1,112 @@
+package de.pcfreak9000.nbt.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Bounded cache for compound keys, mapping their UTF-8 bytes to a canonical String when reading and Strings to their
+ * encoding when writing. Both tables are direct-mapped and hold immutable entries, so the cache can be shared between
+ * threads without locking, a collision simply replaces the older entry. Keys longer than {@link #MAX_KEY_LENGTH} are
+ * not cached.
+ */
+public final class KeyCache {
+    
+    public static final int MAX_KEY_LENGTH = 64;
+    
+    private static final KeyCache SHARED = new KeyCache(4096);
+    
+    /**
+     * @return the cache used by the readers and writers of this library
+     */
+    public static KeyCache shared() {
+        return SHARED;
+    }
+    
+    private final Entry[] decoded;
+    private final Entry[] encoded;
+    private final int mask;
+    
+    public KeyCache(int capacity) {
+        int size = 16;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.decoded = new Entry[size];
+        this.encoded = new Entry[size];
+        this.mask = size - 1;
+    }
+    
+    public String decode(byte[] bytes, int off, int len) {
+        if (len > MAX_KEY_LENGTH) {
+            return new String(bytes, off, len, StandardCharsets.UTF_8);
+        }
+        int hash = 0;
+        int bits = 0;
+        for (int i = off; i < off + len; i++) {
+            hash = 31 * hash + bytes[i];
+            bits |= bytes[i];
+        }
+        int index = spread(hash);
+        Entry entry = decoded[index];
+        if (entry != null && entry.hash == hash
+                && Arrays.equals(entry.bytes, 0, entry.bytes.length, bytes, off, off + len)) {
+            return entry.string;
+        }
+        //ASCII only, so every byte is one char
+        String s = new String(bytes, off, len, bits >= 0 ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+        decoded[index] = new Entry(Arrays.copyOfRange(bytes, off, off + len), s, hash);
+        return s;
+    }
+    
+    /**
+     * @return the UTF-8 encoding of the key, which must not be modified
+     */
+    public byte[] encode(String key) {
+        if (key.length() > MAX_KEY_LENGTH) {
+            return key.getBytes(StandardCharsets.UTF_8);
+        }
+        int hash = key.hashCode();
+        int index = spread(hash);
+        Entry entry = encoded[index];
+        if (entry != null && entry.hash == hash && entry.string.equals(key)) {
+            return entry.bytes;
+        }
+        byte[] bytes = utf8(key);
+        encoded[index] = new Entry(bytes, key, hash);
+        return bytes;
+    }
+    
+    public void clear() {
+        Arrays.fill(decoded, null);
+        Arrays.fill(encoded, null);
+    }
+    
+    private int spread(int hash) {
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+    
+    private static byte[] utf8(String s) {
+        int length = s.length();
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                return s.getBytes(StandardCharsets.UTF_8);
+            }
+            bytes[i] = (byte) c;
+        }
+        return bytes;
+    }
+    
+    private static final class Entry {
+        private final byte[] bytes;
+        private final String string;
+        private final int hash;
+        
+        private Entry(byte[] bytes, String string, int hash) {
+            this.bytes = bytes;
+            this.string = string;
+            this.hash = hash;
+        }
+    }
+}
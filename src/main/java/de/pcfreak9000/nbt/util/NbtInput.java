@@ -0,0 +1,37 @@
+package de.pcfreak9000.nbt.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Big-endian source of the primitives the binary NBT format is made of.
+ */
+public interface NbtInput extends Closeable {
+    
+    byte readByte() throws IOException;
+    
+    short readShort() throws IOException;
+    
+    int readInt() throws IOException;
+    
+    long readLong() throws IOException;
+    
+    float readFloat() throws IOException;
+    
+    double readDouble() throws IOException;
+    
+    void readFully(byte[] ar, int off, int len) throws IOException;
+    
+    void readShorts(short[] ar, int off, int len) throws IOException;
+    
+    void readInts(int[] ar, int off, int len) throws IOException;
+    
+    void readLongs(long[] ar, int off, int len) throws IOException;
+    
+    void readFloats(float[] ar, int off, int len) throws IOException;
+    
+    void readDoubles(double[] ar, int off, int len) throws IOException;
+    
+    void skipBytes(long n) throws IOException;
+    
+}
@@ -0,0 +1,54 @@
+package de.pcfreak9000.nbt.util;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * Big-endian sink for the primitives the binary NBT format is made of.
+ */
+public interface NbtOutput extends Closeable, Flushable {
+    
+    void writeByte(int b) throws IOException;
+    
+    void writeShort(int s) throws IOException;
+    
+    void writeInt(int i) throws IOException;
+    
+    void writeLong(long l) throws IOException;
+    
+    void writeFloat(float f) throws IOException;
+    
+    void writeDouble(double d) throws IOException;
+    
+    void write(byte[] ar, int off, int len) throws IOException;
+    
+    void writeShorts(short[] ar, int off, int len) throws IOException;
+    
+    void writeInts(int[] ar, int off, int len) throws IOException;
+    
+    void writeLongs(long[] ar, int off, int len) throws IOException;
+    
+    void writeFloats(float[] ar, int off, int len) throws IOException;
+    
+    void writeDoubles(double[] ar, int off, int len) throws IOException;
+    
+    /**
+     * Skips four bytes that are filled in later by {@link #patchInt(long, int)}. Every reservation must be patched
+     * before the output is closed. Targets that can't seek hold back all data from the first unpatched reservation on.
+     * 
+     * @return the mark to patch
+     */
+    long reserveInt() throws IOException;
+    
+    void patchInt(long mark, int value) throws IOException;
+    
+    /**
+     * Hands buffered data to the target without flushing the target itself, so it has received everything an unbuffered
+     * output would have written by now. Defaults to {@link #flush()}.
+     */
+    default void flushBuffer() throws IOException {
+        flush();
+    }
+    
+}
@@ -0,0 +1,235 @@
+package de.pcfreak9000.nbt.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Unsynchronized buffered input over an {@link InputStream}, decoding big-endian values straight from its buffer.
+ * Large reads bypass the buffer. With a buffer size of 0 nothing is read ahead, so the stream is left positioned
+ * directly after the NBT data.
+ */
+public class StreamNbtInput implements NbtInput {
+    
+    private static final VarHandle SHORT = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle FLOAT = MethodHandles.byteArrayViewVarHandle(float[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle DOUBLE = MethodHandles.byteArrayViewVarHandle(double[].class,
+            ByteOrder.BIG_ENDIAN);
+    
+    private final InputStream stream;
+    private final boolean readAhead;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    
+    public StreamNbtInput(InputStream instream) {
+        this(instream, BufferPool.DEFAULT_SIZE);
+    }
+    
+    public StreamNbtInput(InputStream instream, int bufferSize) {
+        this.stream = instream;
+        this.readAhead = bufferSize > 0;
+        this.buffer = readAhead ? BufferPool.acquire(bufferSize) : new byte[BufferPool.MIN_SIZE];
+    }
+    
+    //Makes sure at least n (<= buffer.length) bytes are buffered
+    private void require(int n) throws IOException {
+        if (this.limit - this.position >= n) {
+            return;
+        }
+        byte[] buffer = this.buffer;
+        int buffered = this.limit - this.position;
+        System.arraycopy(buffer, this.position, buffer, 0, buffered);
+        this.position = 0;
+        this.limit = buffered;
+        while (this.limit < n) {
+            int read = this.stream.read(buffer, this.limit, (this.readAhead ? buffer.length : n) - this.limit);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            this.limit += read;
+        }
+    }
+    
+    //Number of elements of the given size that can be decoded from the buffer, at least one
+    private int chunk(int elementSize, int wanted) throws IOException {
+        //without read-ahead, fetch exactly as many elements as fit instead of one at a time
+        require(this.readAhead ? elementSize : Math.min(wanted, this.buffer.length / elementSize) * elementSize);
+        return Math.min(wanted, (this.limit - this.position) / elementSize);
+    }
+    
+    @Override
+    public byte readByte() throws IOException {
+        require(Byte.BYTES);
+        return this.buffer[this.position++];
+    }
+    
+    @Override
+    public short readShort() throws IOException {
+        require(Short.BYTES);
+        short s = (short) SHORT.get(this.buffer, this.position);
+        this.position += Short.BYTES;
+        return s;
+    }
+    
+    @Override
+    public int readInt() throws IOException {
+        require(Integer.BYTES);
+        int i = (int) INT.get(this.buffer, this.position);
+        this.position += Integer.BYTES;
+        return i;
+    }
+    
+    @Override
+    public long readLong() throws IOException {
+        require(Long.BYTES);
+        long l = (long) LONG.get(this.buffer, this.position);
+        this.position += Long.BYTES;
+        return l;
+    }
+    
+    @Override
+    public float readFloat() throws IOException {
+        require(Float.BYTES);
+        float f = (float) FLOAT.get(this.buffer, this.position);
+        this.position += Float.BYTES;
+        return f;
+    }
+    
+    @Override
+    public double readDouble() throws IOException {
+        require(Double.BYTES);
+        double d = (double) DOUBLE.get(this.buffer, this.position);
+        this.position += Double.BYTES;
+        return d;
+    }
+    
+    @Override
+    public void readFully(byte[] ar, int off, int len) throws IOException {
+        int buffered = Math.min(len, this.limit - this.position);
+        System.arraycopy(this.buffer, this.position, ar, off, buffered);
+        this.position += buffered;
+        off += buffered;
+        len -= buffered;
+        if (len >= this.buffer.length || !this.readAhead) {
+            while (len > 0) {
+                int read = this.stream.read(ar, off, len);
+                if (read < 0) {
+                    throw new EOFException();
+                }
+                off += read;
+                len -= read;
+            }
+        } else if (len > 0) {
+            require(len);
+            System.arraycopy(this.buffer, this.position, ar, off, len);
+            this.position += len;
+        }
+    }
+    
+    @Override
+    public void readShorts(short[] ar, int off, int len) throws IOException {
+        int end = off + len;
+        while (off < end) {
+            int n = chunk(Short.BYTES, end - off);
+            byte[] buffer = this.buffer;
+            int pos = this.position;
+            for (int i = 0; i < n; i++, pos += Short.BYTES) {
+                ar[off + i] = (short) SHORT.get(buffer, pos);
+            }
+            this.position = pos;
+            off += n;
+        }
+    }
+    
+    @Override
+    public void readInts(int[] ar, int off, int len) throws IOException {
+        int end = off + len;
+        while (off < end) {
+            int n = chunk(Integer.BYTES, end - off);
+            byte[] buffer = this.buffer;
+            int pos = this.position;
+            for (int i = 0; i < n; i++, pos += Integer.BYTES) {
+                ar[off + i] = (int) INT.get(buffer, pos);
+            }
+            this.position = pos;
+            off += n;
+        }
+    }
+    
+    @Override
+    public void readLongs(long[] ar, int off, int len) throws IOException {
+        int end = off + len;
+        while (off < end) {
+            int n = chunk(Long.BYTES, end - off);
+            byte[] buffer = this.buffer;
+            int pos = this.position;
+            for (int i = 0; i < n; i++, pos += Long.BYTES) {
+                ar[off + i] = (long) LONG.get(buffer, pos);
+            }
+            this.position = pos;
+            off += n;
+        }
+    }
+    
+    @Override
+    public void readFloats(float[] ar, int off, int len) throws IOException {
+        int end = off + len;
+        while (off < end) {
+            int n = chunk(Float.BYTES, end - off);
+            byte[] buffer = this.buffer;
+            int pos = this.position;
+            for (int i = 0; i < n; i++, pos += Float.BYTES) {
+                ar[off + i] = (float) FLOAT.get(buffer, pos);
+            }
+            this.position = pos;
+            off += n;
+        }
+    }
+    
+    @Override
+    public void readDoubles(double[] ar, int off, int len) throws IOException {
+        int end = off + len;
+        while (off < end) {
+            int n = chunk(Double.BYTES, end - off);
+            byte[] buffer = this.buffer;
+            int pos = this.position;
+            for (int i = 0; i < n; i++, pos += Double.BYTES) {
+                ar[off + i] = (double) DOUBLE.get(buffer, pos);
+            }
+            this.position = pos;
+            off += n;
+        }
+    }
+    
+    @Override
+    public void skipBytes(long n) throws IOException {
+        int buffered = (int) Math.min(n, this.limit - this.position);
+        this.position += buffered;
+        n -= buffered;
+        while (n > 0) {
+            long skipped = this.stream.skip(n);
+            if (skipped <= 0) {
+                if (this.stream.read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (this.readAhead && this.buffer != null) {
+            BufferPool.release(this.buffer);
+        }
+        this.buffer = null;
+        this.stream.close();
+    }
+}
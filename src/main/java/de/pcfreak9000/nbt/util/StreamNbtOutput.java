@@ -0,0 +1,49 @@
+package de.pcfreak9000.nbt.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Buffered output over an {@link OutputStream}.
+ */
+public class StreamNbtOutput extends AbstractBufferedNbtOutput {
+    
+    private final OutputStream stream;
+    
+    public StreamNbtOutput(OutputStream stream) {
+        this(stream, BufferPool.DEFAULT_SIZE);
+    }
+    
+    public StreamNbtOutput(OutputStream stream, int bufferSize) {
+        this(stream, bufferSize, DEFAULT_SPILL_LIMIT);
+    }
+    
+    /**
+     * @param spillLimit the number of held back bytes kept in memory, see {@link NbtOutput#reserveInt()}
+     */
+    public StreamNbtOutput(OutputStream stream, int bufferSize, int spillLimit) {
+        super(bufferSize, spillLimit);
+        this.stream = stream;
+    }
+    
+    @Override
+    protected void drain(byte[] ar, int off, int len) throws IOException {
+        if (this.position > 0) {
+            this.stream.write(this.buffer, 0, this.position);
+            this.position = 0;
+        }
+        if (len > 0) {
+            this.stream.write(ar, off, len);
+        }
+    }
+    
+    @Override
+    protected void flushTarget() throws IOException {
+        this.stream.flush();
+    }
+    
+    @Override
+    protected void closeTarget() throws IOException {
+        this.stream.close();
+    }
+}
@@ -13,8 +13,7 @@ public abstract class AbstractNBTCompoundVisitor implements NBTCompoundVisitor {
         if (parent != null) {
             return parent.visitValue(key);
         }
-        return new AbstractNBTValueVisitor(null) {
-        };
+        return null;
     }
     
     @Override
@@ -2,7 +2,8 @@ package de.pcfreak9000.nbt.visitor;
 
 import de.pcfreak9000.nbt.NBTType;
 
-public class AbstractNBTListVisitor implements NBTListVisitor {
+//Bulk lists are expanded through visitValue(), so subclasses overriding it see every element
+public class AbstractNBTListVisitor implements NBTPrimitiveListVisitor {
     
     private final NBTListVisitor parent;
     
@@ -29,8 +30,7 @@ public class AbstractNBTListVisitor implements NBTListVisitor {
         if (parent != null) {
             return parent.visitValue();
         }
-        return new AbstractNBTValueVisitor(null) {
-        };
+        return null;
     }
     
     @Override
@@ -34,8 +34,7 @@ public class AbstractNBTValueVisitor implements NBTValueVisitor {
         if (parentVisitor != null) {
             return parentVisitor.visitCompound();
         }
-        return new AbstractNBTCompoundVisitor(null) {
-        };
+        return null;
     }
     
     @Override
@@ -78,8 +77,7 @@ public class AbstractNBTValueVisitor implements NBTValueVisitor {
         if (parentVisitor != null) {
             return parentVisitor.visitList();
         }
-        return new AbstractNBTListVisitor(null) {
-        };
+        return null;
     }
     
     @Override
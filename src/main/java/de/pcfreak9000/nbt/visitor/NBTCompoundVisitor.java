@@ -2,6 +2,9 @@ package de.pcfreak9000.nbt.visitor;
 
 public interface NBTCompoundVisitor {
     
+    /**
+     * @return the visitor for the value of this key, or null to skip the value without decoding it
+     */
     NBTValueVisitor visitValue(String key);
     
     void visitEnd();
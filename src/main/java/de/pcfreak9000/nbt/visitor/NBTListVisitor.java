@@ -4,10 +4,19 @@ import de.pcfreak9000.nbt.NBTType;
 
 public interface NBTListVisitor {
     
+    /**
+     * Passed to {@link #visitLength(int)} by producers that only know the number of elements once they are done.
+     * Visitors that need the length upfront may reject it.
+     */
+    int UNKNOWN_LENGTH = -1;
+    
     void visitType(NBTType type);
     
     void visitLength(int l);
     
+    /**
+     * @return the visitor for the next element, or null to skip the element without decoding it
+     */
     NBTValueVisitor visitValue();
     
     void visitEnd();
@@ -0,0 +1,66 @@
+package de.pcfreak9000.nbt.visitor;
+
+/**
+ * Optional extension of {@link NBTListVisitor}. Lists of Byte, Short, Int, Long, Float or Double elements are passed
+ * to a list visitor implementing this interface as one array between {@link #visitLength(int)} and
+ * {@link #visitEnd()}, instead of visiting every element. The array is not used by the caller afterwards.
+ * <p>
+ * The defaults visit the elements one by one through {@link #visitValue()}.
+ */
+public interface NBTPrimitiveListVisitor extends NBTListVisitor {
+    
+    default void visitByteList(byte[] values) {
+        for (byte b : values) {
+            NBTValueVisitor visitor = visitValue();
+            if (visitor != null) {
+                visitor.visitByte(b);
+            }
+        }
+    }
+    
+    default void visitShortList(short[] values) {
+        for (short s : values) {
+            NBTValueVisitor visitor = visitValue();
+            if (visitor != null) {
+                visitor.visitShort(s);
+            }
+        }
+    }
+    
+    default void visitIntList(int[] values) {
+        for (int i : values) {
+            NBTValueVisitor visitor = visitValue();
+            if (visitor != null) {
+                visitor.visitInt(i);
+            }
+        }
+    }
+    
+    default void visitLongList(long[] values) {
+        for (long l : values) {
+            NBTValueVisitor visitor = visitValue();
+            if (visitor != null) {
+                visitor.visitLong(l);
+            }
+        }
+    }
+    
+    default void visitFloatList(float[] values) {
+        for (float f : values) {
+            NBTValueVisitor visitor = visitValue();
+            if (visitor != null) {
+                visitor.visitFloat(f);
+            }
+        }
+    }
+    
+    default void visitDoubleList(double[] values) {
+        for (double d : values) {
+            NBTValueVisitor visitor = visitValue();
+            if (visitor != null) {
+                visitor.visitDouble(d);
+            }
+        }
+    }
+    
+}
@@ -24,8 +24,14 @@ public interface NBTValueVisitor {
     
     void visitLongArray(long[] ar);
     
+    /**
+     * @return the visitor for the entries of the compound, or null to skip the whole compound
+     */
     NBTCompoundVisitor visitCompound();
     
+    /**
+     * @return the visitor for the elements of the list, or null to skip the whole list
+     */
     NBTListVisitor visitList();
     
 }
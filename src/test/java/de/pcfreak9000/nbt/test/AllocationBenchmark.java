@@ -0,0 +1,235 @@
+package de.pcfreak9000.nbt.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+
+import de.pcfreak9000.nbt.NBTCompound;
+import de.pcfreak9000.nbt.NBTList;
+import de.pcfreak9000.nbt.NBTType;
+import de.pcfreak9000.nbt.NbtReader;
+import de.pcfreak9000.nbt.NbtWriter;
+import de.pcfreak9000.nbt.TagReader;
+import de.pcfreak9000.nbt.util.StreamNbtOutput;
+import de.pcfreak9000.nbt.visitor.NBTCompoundVisitor;
+import de.pcfreak9000.nbt.visitor.NBTListVisitor;
+import de.pcfreak9000.nbt.visitor.NBTValueVisitor;
+
+/**
+ * Measures time and allocated bytes per operation for the hot read and write paths. Not a unit test, run the main
+ * method on a HotSpot JVM.
+ */
+public class AllocationBenchmark {
+    
+    private static final int WARMUP = 200;
+    private static final int ITERATIONS = 200;
+    
+    public static void main(String[] args) throws Exception {
+        NBTCompound tree = createEntities(20000);
+        byte[] bytes = toBytes(tree);
+        BlackholeVisitor sink = new BlackholeVisitor();
+        run("NbtReader.applyVisitor", () -> {
+            try (NbtReader reader = new NbtReader(bytes)) {
+                reader.applyVisitor(sink);
+            }
+        });
+        run("TagReader.applyVisitor", () -> TagReader.applyVisitor(sink, tree));
+        OutputStream discard = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+            
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+        run("NbtWriter (tree)", () -> {
+            try (NbtWriter writer = new NbtWriter(discard)) {
+                tree.accept(writer);
+            }
+        });
+        run("NbtWriter (tree, reused)", () -> {
+            try (NbtWriter writer = new NbtWriter(new StreamNbtOutput(discard), "", true)) {
+                tree.accept(writer);
+            }
+        });
+        run("NbtReader -> NbtWriter", () -> {
+            try (NbtReader reader = new NbtReader(bytes); NbtWriter writer = new NbtWriter(discard)) {
+                reader.applyVisitor(writer);
+            }
+        });
+        run("NbtReader -> NbtWriter (reused)", () -> {
+            try (NbtReader reader = new NbtReader(bytes);
+                    NbtWriter writer = new NbtWriter(new StreamNbtOutput(discard), "", true)) {
+                reader.applyVisitor(writer);
+            }
+        });
+        NBTCompound chunk = createChunk(24);
+        run("NbtWriter (chunk arrays)", () -> {
+            try (NbtWriter writer = new NbtWriter(discard)) {
+                chunk.accept(writer);
+            }
+        });
+        System.out.println("(checksum " + sink.checksum + ")");
+    }
+    
+    static NBTCompound createEntities(int count) {
+        NBTCompound root = new NBTCompound();
+        NBTList entities = new NBTList(NBTType.Compound);
+        for (int i = 0; i < count; i++) {
+            NBTCompound entity = new NBTCompound();
+            entity.putString("id", "zombie");
+            entity.putDouble("x", i * 0.5);
+            entity.putDouble("y", 64);
+            entity.putDouble("z", -i * 0.25);
+            entity.putShort("Health", (short) 20);
+            NBTList tags = new NBTList(NBTType.Int);
+            tags.addInt(i);
+            tags.addInt(-i);
+            entity.putList("Tags", tags);
+            entities.addCompound(entity);
+        }
+        root.putList("Entities", entities);
+        return root;
+    }
+    
+    //Sections with BlockStates like a chunk save
+    static NBTCompound createChunk(int sections) {
+        NBTCompound root = new NBTCompound();
+        NBTList list = new NBTList(NBTType.Compound);
+        for (int i = 0; i < sections; i++) {
+            NBTCompound section = new NBTCompound();
+            section.putByte("Y", (byte) i);
+            long[] states = new long[4096];
+            for (int j = 0; j < states.length; j++) {
+                states[j] = j * 31L + i;
+            }
+            section.putLongArray("BlockStates", states);
+            section.putByteArray("SkyLight", new byte[2048]);
+            list.addCompound(section);
+        }
+        root.putList("Sections", list);
+        return root;
+    }
+    
+    static byte[] toBytes(NBTCompound tree) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (NbtWriter writer = new NbtWriter(out)) {
+            tree.accept(writer);
+        }
+        return out.toByteArray();
+    }
+    
+    interface Operation {
+        void run() throws Exception;
+    }
+    
+    static void run(String name, Operation op) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            op.run();
+        }
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long allocatedBefore = bean.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            op.run();
+        }
+        long time = System.nanoTime() - start;
+        long allocated = bean.getThreadAllocatedBytes(thread) - allocatedBefore;
+        System.out.printf("%-32s %10.1f us/op %14d B/op%n", name, time / 1000.0 / ITERATIONS, allocated / ITERATIONS);
+    }
+    
+    //Consumes every value without allocating
+    static class BlackholeVisitor implements NBTValueVisitor, NBTCompoundVisitor, NBTListVisitor {
+        
+        long checksum;
+        
+        @Override
+        public NBTValueVisitor visitValue(String key) {
+            checksum += key.length();
+            return this;
+        }
+        
+        @Override
+        public void visitType(NBTType type) {
+            checksum += type.id;
+        }
+        
+        @Override
+        public void visitLength(int l) {
+            checksum += l;
+        }
+        
+        @Override
+        public NBTValueVisitor visitValue() {
+            return this;
+        }
+        
+        @Override
+        public void visitEnd() {
+            checksum++;
+        }
+        
+        @Override
+        public void visitByte(byte b) {
+            checksum += b;
+        }
+        
+        @Override
+        public void visitShort(short s) {
+            checksum += s;
+        }
+        
+        @Override
+        public void visitInt(int i) {
+            checksum += i;
+        }
+        
+        @Override
+        public void visitLong(long l) {
+            checksum += l;
+        }
+        
+        @Override
+        public void visitFloat(float f) {
+            checksum += (long) f;
+        }
+        
+        @Override
+        public void visitDouble(double d) {
+            checksum += (long) d;
+        }
+        
+        @Override
+        public void visitString(String s) {
+            checksum += s.length();
+        }
+        
+        @Override
+        public void visitByteArray(byte[] ar) {
+            checksum += ar.length;
+        }
+        
+        @Override
+        public void visitIntArray(int[] ar) {
+            checksum += ar.length;
+        }
+        
+        @Override
+        public void visitLongArray(long[] ar) {
+            checksum += ar.length;
+        }
+        
+        @Override
+        public NBTCompoundVisitor visitCompound() {
+            return this;
+        }
+        
+        @Override
+        public NBTListVisitor visitList() {
+            return this;
+        }
+    }
+}
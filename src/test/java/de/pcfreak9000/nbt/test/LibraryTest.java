@@ -5,23 +5,85 @@ package de.pcfreak9000.nbt.test;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.stream.IntStream;
 import java.util.stream.LongStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.junit.Test;
 
+import de.pcfreak9000.nbt.CompressedNbtReader;
+import de.pcfreak9000.nbt.CompressedNbtWriter;
 import de.pcfreak9000.nbt.NBTCompound;
+import de.pcfreak9000.nbt.NBTDoubleList;
+import de.pcfreak9000.nbt.NBTIntList;
 import de.pcfreak9000.nbt.NBTList;
+import de.pcfreak9000.nbt.NBTLongList;
 import de.pcfreak9000.nbt.NBTSmartIntList;
+import de.pcfreak9000.nbt.NBTTag;
 import de.pcfreak9000.nbt.NBTType;
+import de.pcfreak9000.nbt.NBTTypeException;
+import de.pcfreak9000.nbt.NbtKey;
+import de.pcfreak9000.nbt.NbtPath;
 import de.pcfreak9000.nbt.NbtReader;
+import de.pcfreak9000.nbt.NbtStreamReader;
+import de.pcfreak9000.nbt.NbtStreamReader.Token;
 import de.pcfreak9000.nbt.NbtWriter;
 import de.pcfreak9000.nbt.StringNbtWriter;
+import de.pcfreak9000.nbt.TagReader;
 import de.pcfreak9000.nbt.TagWriter;
+import de.pcfreak9000.nbt.compression.CompressionCodec;
+import de.pcfreak9000.nbt.compression.DeflateCodec;
+import de.pcfreak9000.nbt.compression.ParallelGzipCodec;
+import de.pcfreak9000.nbt.compression.ZlibPool;
+import de.pcfreak9000.nbt.region.RegionCompression;
+import de.pcfreak9000.nbt.region.RegionFile;
+import de.pcfreak9000.nbt.region.RegionStats;
+import de.pcfreak9000.nbt.region.ScanUnit;
+import de.pcfreak9000.nbt.region.WorldScanner;
+import de.pcfreak9000.nbt.util.KeyCache;
+import de.pcfreak9000.nbt.util.StreamNbtOutput;
+import de.pcfreak9000.nbt.visitor.AbstractNBTListVisitor;
+import de.pcfreak9000.nbt.visitor.AbstractNBTValueVisitor;
+import de.pcfreak9000.nbt.visitor.NBTCompoundVisitor;
+import de.pcfreak9000.nbt.visitor.NBTListVisitor;
+import de.pcfreak9000.nbt.visitor.NBTPrimitiveListVisitor;
+import de.pcfreak9000.nbt.visitor.NBTValueVisitor;
 
 public class LibraryTest {
     
@@ -77,6 +139,32 @@ public class LibraryTest {
         assertEquals(l.getEntryType(), NBTType.Long);
     }
     
+    @Test
+    public void testSmartListWidth() throws Exception {
+        NBTSmartIntList l = new NBTSmartIntList();
+        for (int i = 0; i < 1000; i++) {
+            l.addSmartInt(i);
+        }
+        l.addSmartInt(-100000);
+        NBTCompound nbtc = new NBTCompound();
+        nbtc.putList("list", l);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (NbtWriter writer = new NbtWriter(out)) {
+            nbtc.accept(writer);
+        }
+        NBTList rl;
+        try (NbtReader reader = new NbtReader(out.toByteArray())) {
+            rl = reader.toCompoundTag().getList("list");
+        }
+        assertEquals(NBTType.Int, rl.getEntryType());
+        assertEquals(NBTType.Int, l.getContent().get(5).type());
+        assertEquals(1001, rl.size());
+        for (int i = 0; i < l.size(); i++) {
+            assertEquals(l.getSmartInt(i), rl.getInt(i));
+        }
+        assertEquals(-100000, ((NBTSmartIntList) l.cpy()).getSmartInt(1000));
+    }
+    
     @Test
     public void writeByteArrayTest() throws Exception {
         NBTCompound comp = new NBTCompound();
@@ -119,6 +207,1193 @@ public class LibraryTest {
         assertArrayEquals(TESTLONGS, read.getLongArray("longs"));
     }
     
+    @Test
+    public void readByteBufferTest() throws Exception {
+        NBTCompound comp = new NBTCompound();
+        comp.putLongArray("longs", TESTLONGS);
+        comp.putIntArray("ints", TESTINTS);
+        comp.putString("s", "A string");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (NbtWriter writer = new NbtWriter(out, "root")) {
+            comp.accept(writer);
+        }
+        byte[] bytes = out.toByteArray();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length + 3);
+        buffer.put(new byte[3]).put(bytes).position(3);
+        NBTCompound read;
+        try (NbtReader reader = new NbtReader(buffer)) {
+            assertEquals("root", reader.getName());
+            read = reader.toCompoundTag();
+        }
+        assertEquals(3, buffer.position());
+        assertArrayEquals(TESTLONGS, read.getLongArray("longs"));
+        assertArrayEquals(TESTINTS, read.getIntArray("ints"));
+        assertEquals("A string", read.getString("s"));
+        try (NbtReader reader = new NbtReader(bytes)) {
+            assertArrayEquals(TESTINTS, reader.toCompoundTag().getIntArray("ints"));
+        }
+    }
+    
+    @Test
+    public void readMappedFileTest() throws Exception {
+        NBTCompound comp = new NBTCompound();
+        comp.putLongArray("longs", TESTLONGS);
+        try (NbtWriter writer = new NbtWriter(new FileOutputStream("tmp.dat"))) {
+            comp.accept(writer);
+        }
+        NBTCompound read;
+        try (NbtReader reader = NbtReader.map(new File("tmp.dat"))) {
+            read = reader.toCompoundTag();
+        }
+        assertArrayEquals(TESTLONGS, read.getLongArray("longs"));
+    }
+    
+    @Test
+    public void lazyCompoundTest() throws Exception {
+        NBTCompound comp = new NBTCompound();
+        comp.putString("s", "A string");
+        NBTCompound nested = new NBTCompound();
+        nested.putInt("int", 1234);
+        NBTList nestedList = new NBTList(NBTType.List);
+        NBTList inner = new NBTList(NBTType.Compound);
+        inner.addCompound(new NBTCompound());
+        nestedList.addList(inner);
+        nested.putList("lists", nestedList);
+        comp.putCompound("nested", nested);
+        comp.putLongArray("longs", TESTLONGS);
+        comp.putDouble("double", 0.01);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (NbtWriter writer = new NbtWriter(out)) {
+            comp.accept(writer);
+        }
+        NBTCompound lazy;
+        try (NbtReader reader = new NbtReader(out.toByteArray())) {
+            lazy = reader.toLazyCompoundTag();
+        }
+        assertEquals(0.01, lazy.getDouble("double"), 0);
+        assertEquals(1234, lazy.getCompound("nested").getInt("int"));
+        assertEquals(1, lazy.getCompound("nested").getList("lists").getList(0).size());
+        lazy.putInt("added", 5);
+        lazy.remove("s");
+        NBTCompound expected = comp.cpy();
+        expected.putInt("added", 5);
+        expected.remove("s");
+        try (StringWriter a = new StringWriter(); StringWriter b = new StringWriter()) {
+            lazy.accept(new StringNbtWriter(a));
+            expected.accept(new StringNbtWriter(b));
+            assertEquals(b.toString(), a.toString());
+        }
+        //Streams are decoded eagerly
+        try (NbtReader reader = new NbtReader(new ByteArrayInputStream(out.toByteArray()))) {
+            assertArrayEquals(TESTLONGS, reader.toLazyCompoundTag().getLongArray("longs"));
+        }
+    }
+    
+    @Test
+    public void concurrentLazyCompoundTest() throws Exception {
+        NBTCompound comp = new NBTCompound();
+        NBTCompound nested = new NBTCompound();
+        nested.putIntArray("ints", TESTINTS);
+        comp.putCompound("nested", nested);
+        byte[] bytes = TagReader.toByteArray(comp, "");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int round = 0; round < 200; round++) {
+                NBTCompound lazy;
+                try (NbtReader reader = new NbtReader(bytes)) {
+                    lazy = reader.toLazyCompoundTag();
+                }
+                List<Future<NBTCompound>> reads = new ArrayList<>();
+                for (int t = 0; t < 4; t++) {
+                    reads.add(executor.submit(() -> lazy.getCompound("nested")));
+                }
+                //Every thread gets the instance that stays in the compound
+                for (Future<NBTCompound> read : reads) {
+                    assertSame(lazy.getCompound("nested"), read.get());
+                }
+                assertArrayEquals(TESTINTS, lazy.getCompound("nested").getIntArray("ints"));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+    
+    @Test
+    public void truncatedLengthTest() throws Exception {
+        //Root compound with a Long list and a LongArray that claim far more elements than there are bytes
+        byte[][] inputs = { { 10, 0, 0, 9, 0, 1, 'l', 4, 0x7F, -1, -1, -16, 0 },
+                { 10, 0, 0, 12, 0, 1, 'a', 0x7F, -1, -1, -16, 0, 0 } };
+        for (byte[] bytes : inputs) {
+            try (NbtReader reader = new NbtReader(bytes)) {
+                reader.toCompoundTag();
+                fail();
+            } catch (IOException e) {
+            }
+            try (NbtReader reader = new NbtReader(new ByteArrayInputStream(bytes))) {
+                reader.toCompoundTag();
+                fail();
+            } catch (IOException e) {
+            }
+        }
+        //Streams grow the arrays of long lists while reading
+        long[] longs = LongStream.range(0, 300000).toArray();
+        NBTCompound comp = new NBTCompound();
+        comp.putList("longs", NBTLongList.of(longs));
+        comp.putLongArray("array", longs);
+        byte[] bytes = TagReader.toByteArray(comp, "");
+        try (NbtReader reader = new NbtReader(new ByteArrayInputStream(bytes))) {
+            NBTCompound read = reader.toCompoundTag();
+            assertArrayEquals(longs, ((NBTLongList) read.getList("longs")).toLongArray());
+            assertArrayEquals(longs, read.getLongArray("array"));
+        }
+    }
+    
+    @Test
+    public void negativeListLengthTest() throws Exception {
+        //A String list of length -1, which must not be taken for NBTListVisitor.UNKNOWN_LENGTH
+        byte[] bytes = { 10, 0, 0, 9, 0, 1, 'l', 8, -1, -1, -1, -1, 0 };
+        try (NbtReader reader = new NbtReader(bytes)) {
+            reader.toCompoundTag();
+            fail();
+        } catch (IOException e) {
+            assertEquals("Negative list length: -1", e.getMessage());
+        }
+        try (NbtReader reader = new NbtReader(new ByteArrayInputStream(bytes))) {
+            reader.toCompoundTag();
+            fail();
+        } catch (IOException e) {
+        }
+        try (NbtReader reader = new NbtReader(bytes)) {
+            reader.toLazyCompoundTag();
+            fail();
+        } catch (IOException e) {
+        }
+        try (NbtReader reader = new NbtReader(bytes)) {
+            reader.applyVisitor(new AbstractNBTValueVisitor(null));
+            fail();
+        } catch (IOException e) {
+        }
+        //Lists of End tags are empty whatever their length
+        bytes[7] = 0;
+        try (NbtReader reader = new NbtReader(bytes)) {
+            assertEquals(0, reader.toCompoundTag().getList("l").size());
+        }
+    }
+    
+    @Test
+    public void skipValuesTest() throws Exception {
+        NBTCompound comp = new NBTCompound();
+        comp.putLongArray("longs", TESTLONGS);
+        NBTCompound nested = new NBTCompound();
+        nested.putString("s", "A string");
+        NBTList list = new NBTList(NBTType.Compound);
+        list.addCompound(nested.cpy());
+        list.addCompound(nested.cpy());
+        nested.putList("list", list);
+        comp.putCompound("nested", nested);
+        comp.putString("s", "A string");
+        comp.putInt("after", 42);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (NbtWriter writer = new NbtWriter(out)) {
+            comp.accept(writer);
+        }
+        int[] found = new int[1];
+        NBTValueVisitor onlyAfter = new AbstractNBTValueVisitor(null) {
+            @Override
+            public NBTCompoundVisitor visitCompound() {
+                return new NBTCompoundVisitor() {
+                    @Override
+                    public NBTValueVisitor visitValue(String key) {
+                        if (!key.equals("after")) {
+                            return null;
+                        }
+                        return new AbstractNBTValueVisitor(null) {
+                            @Override
+                            public void visitInt(int i) {
+                                found[0] = i;
+                            }
+                        };
+                    }
+                    
+                    @Override
+                    public void visitEnd() {
+                    }
+                };
+            }
+        };
+        try (NbtReader reader = new NbtReader(new ByteArrayInputStream(out.toByteArray()))) {
+            reader.applyVisitor(onlyAfter);
+        }
+        assertEquals(42, found[0]);
+        found[0] = 0;
+        TagReader.applyVisitor(onlyAfter, comp);
+        assertEquals(42, found[0]);
+    }
+    
+    @Test
+    public void pathQueryTest() throws Exception {
+        NBTCompound root = new NBTCompound();
+        NBTList inventory = new NBTList(NBTType.Compound);
+        for (int i = 0; i < 3; i++) {
+            NBTCompound item = new NBTCompound();
+            item.putString("id", "item" + i);
+            item.putByte("Count", (byte) i);
+            inventory.addCompound(item);
+        }
+        root.putList("Inventory", inventory);
+        NBTCompound level = new NBTCompound();
+        NBTList sections = new NBTList(NBTType.Compound);
+        for (int i = 0; i < 4; i++) {
+            NBTCompound section = new NBTCompound();
+            section.putLongArray("BlockStates", new long[] { i });
+            sections.addCompound(section);
+        }
+        level.putList("Sections", sections);
+        root.putCompound("Level", level);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (NbtWriter writer = new NbtWriter(out)) {
+            root.accept(writer);
+        }
+        NbtPath ids = NbtPath.compile("Inventory[*].id");
+        NbtPath blockStates = NbtPath.compile("Level.\"Sections\"[3].BlockStates");
+        for (int pass = 0; pass < 2; pass++) {
+            List<NBTTag> idTags;
+            List<NBTTag> states;
+            if (pass == 0) {
+                idTags = ids.select(root);
+                states = blockStates.select(root);
+            } else {
+                try (NbtReader reader = new NbtReader(out.toByteArray())) {
+                    idTags = ids.select(reader);
+                }
+                try (NbtReader reader = new NbtReader(out.toByteArray())) {
+                    states = blockStates.select(reader);
+                }
+            }
+            assertEquals(3, idTags.size());
+            assertEquals("item2", ((NBTTag.StringEntry) idTags.get(2)).getString());
+            assertEquals(1, states.size());
+            assertArrayEquals(new long[] { 3 }, ((NBTTag.LongArrayEntry) states.get(0)).getLongs());
+        }
+    }
+    
+    @Test
+    public void streamReaderTest() throws Exception {
+        NBTCompound comp = new NBTCompound();
+        NBTCompound nested = new NBTCompound();
+        nested.putString("s", "A string");
+        comp.putCompound("nested", nested);
+        NBTList list = new NBTList(NBTType.Int);
+        list.addInt(1);
+        list.addInt(2);
+        comp.putList("list", list);
+        comp.putLongArray("longs", TESTLONGS);
+        comp.putInt("int", 1234);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (NbtWriter writer = new NbtWriter(out, "root")) {
+            comp.accept(writer);
+        }
+        long[] longs = new long[TESTLONGS.length];
+        int sum = 0;
+        int intValue = 0;
+        try (NbtStreamReader reader = new NbtStreamReader(new ByteArrayInputStream(out.toByteArray()))) {
+            assertEquals(Token.CompoundStart, reader.next());
+            assertEquals("root", reader.name());
+            Token token;
+            while ((token = reader.next()) != Token.EndOfInput) {
+                if (token == Token.CompoundStart && "nested".equals(reader.name())) {
+                    reader.skipValue();
+                } else if (token == Token.ListStart) {
+                    assertEquals(NBTType.Int, reader.listType());
+                    assertEquals(2, reader.listLength());
+                    while (reader.next() == Token.Value) {
+                        sum += reader.intValue();
+                    }
+                } else if (token == Token.Value && "longs".equals(reader.name())) {
+                    assertEquals(TESTLONGS.length, reader.longArrayInto(longs));
+                } else if (token == Token.Value && "int".equals(reader.name())) {
+                    intValue = reader.intValue();
+                }
+            }
+        }
+        assertEquals(3, sum);
+        assertEquals(1234, intValue);
+        assertArrayEquals(TESTLONGS, longs);
+    }
+    
+    @Test
+    public void bufferSizeTest() throws Exception {
+        NBTCompound comp = new NBTCompound();
+        comp.putLongArray("longs", TESTLONGS);
+        comp.putByteArray("bytes", TESTBYTES);
+        comp.putString("s", "A string");
+        comp.putDouble("d", 0.01);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (NbtWriter writer = new NbtWriter(out, "first", 20)) {
+            comp.accept(writer);
+        }
+        try (NbtWriter writer = new NbtWriter(out, "second", 0)) {
+            comp.accept(writer);
+        }
+        ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        NBTCompound first;
+        NBTCompound second;
+        try (NbtReader reader = new NbtReader(in, 0)) {
+            assertEquals("first", reader.getName());
+            first = reader.toCompoundTag();
+            //no read-ahead, so the second tag can be read from the same stream
+            try (NbtReader next = new NbtReader(in, 13)) {
+                assertEquals("second", next.getName());
+                second = next.toCompoundTag();
+            }
+        }
+        for (NBTCompound read : new NBTCompound[] { first, second }) {
+            assertArrayEquals(TESTLONGS, read.getLongArray("longs"));
+            assertArrayEquals(TESTBYTES, read.getByteArray("bytes"));
+            assertEquals("A string", read.getString("s"));
+            assertEquals(0.01, read.getDouble("d"), 0);
+        }
+    }
+    
+    @Test
+    public void primitiveListTest() throws Exception {
+        NBTCompound comp = new NBTCompound();
+        NBTList bytes = new NBTList(NBTType.Byte);
+        NBTList shorts = new NBTList(NBTType.Short);
+        NBTList ints = new NBTList(NBTType.Int);
+        NBTList longs = new NBTList(NBTType.Long);
+        NBTList doubles = new NBTList(NBTType.Double);
+        for (int i = 0; i < 5000; i++) {
+            bytes.addByte((byte) i);
+            shorts.addShort((short) i);
+            ints.addInt(i);
+            longs.addLong(-i);
+            doubles.addDouble(i * 0.5);
+        }
+        comp.putList("bytes", bytes);
+        comp.putList("shorts", shorts);
+        comp.putList("ints", ints);
+        comp.putList("longs", longs);
+        comp.putList("doubles", doubles);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (NbtWriter writer = new NbtWriter(out)) {
+            comp.accept(writer);
+        }
+        NBTCompound read;
+        try (NbtReader reader = new NbtReader(new ByteArrayInputStream(out.toByteArray()))) {
+            read = reader.toCompoundTag();
+        }
+        for (int i = 0; i < 5000; i++) {
+            assertEquals((byte) i, read.getList("bytes").getByte(i));
+            assertEquals((short) i, read.getList("shorts").getShort(i));
+            assertEquals(i, read.getList("ints").getInt(i));
+            assertEquals(-i, read.getList("longs").getLong(i));
+            assertEquals(i * 0.5, read.getList("doubles").getDouble(i), 0);
+        }
+        double[] sum = new double[1];
+        NBTPrimitiveListVisitor bulk = new AbstractNBTListVisitor(null) {
+            @Override
+            public void visitDoubleList(double[] values) {
+                for (double d : values) {
+                    sum[0] += d;
+                }
+            }
+        };
+        TagReader.applyVisitor(new AbstractNBTValueVisitor(null) {
+            @Override
+            public NBTListVisitor visitList() {
+                return bulk;
+            }
+        }, doubles);
+        assertEquals(2500 * 4999 * 0.5, sum[0], 0);
+    }
+    
+    @Test
+    public void arrayBackedListTest() throws Exception {
+        NBTCompound comp = new NBTCompound();
+        NBTIntList ints = NBTIntList.of(1, 2, 3);
+        ints.addInt(4);
+        comp.putList("ints", ints);
+        NBTList doubles = new NBTList(NBTType.Double);
+        doubles.addDouble(0.5);
+        doubles.addDouble(1.5);
+        comp.putList("doubles", doubles);
+        TagWriter writer = new TagWriter();
+        comp.accept(writer);
+        NBTCompound read = writer.getCompound();
+        assertTrue(read.getList("ints") instanceof NBTIntList);
+        assertArrayEquals(new int[] { 1, 2, 3, 4 }, ((NBTIntList) read.getList("ints")).toIntArray());
+        NBTDoubleList readDoubles = (NBTDoubleList) read.getList("doubles");
+        assertEquals(1.5, ((NBTTag.DoubleEntry) readDoubles.getContent().get(1)).getDouble(), 0);
+        NBTDoubleList copy = readDoubles.cpy();
+        copy.setDouble(0, 2);
+        assertEquals(0.5, readDoubles.getDouble(0), 0);
+        assertEquals(2, copy.getDouble(0), 0);
+        assertEquals(2, copy.size());
+        try {
+            ints.addCompound(new NBTCompound());
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        assertEquals(4, ints.getContent().size());
+    }
+    
+    @Test
+    public void keyCacheTest() throws Exception {
+        NBTCompound comp = new NBTCompound();
+        comp.putInt("Count", 1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (NbtWriter writer = new NbtWriter(out)) {
+            comp.accept(writer);
+        }
+        NBTCompound first;
+        NBTCompound second;
+        try (NbtReader reader = new NbtReader(out.toByteArray())) {
+            first = reader.toCompoundTag();
+        }
+        try (NbtReader reader = new NbtReader(new ByteArrayInputStream(out.toByteArray()))) {
+            second = reader.toCompoundTag();
+        }
+        String firstKey = first.keySet().stream().filter("Count"::equals).findFirst().get();
+        String secondKey = second.keySet().stream().filter("Count"::equals).findFirst().get();
+        assertSame(firstKey, secondKey);
+        KeyCache cache = new KeyCache(16);
+        byte[] utf8 = "Gr\u00fc\u00dfe".getBytes(StandardCharsets.UTF_8);
+        assertEquals("Gr\u00fc\u00dfe", cache.decode(utf8, 0, utf8.length));
+        assertArrayEquals(utf8, cache.encode("Gr\u00fc\u00dfe"));
+    }
+    
+    @Test
+    public void serializedSizeTest() throws Exception {
+        NBTCompound comp = new NBTCompound();
+        comp.putString("s", "Gr\u00fc\u00dfe \ud83d\ude00");
+        comp.putLongArray("longs", TESTLONGS);
+        NBTList list = new NBTList(NBTType.Compound);
+        list.addCompound(new NBTCompound());
+        comp.putList("list", list);
+        comp.putList("ints", NBTIntList.of(1, 2, 3));
+        NBTSmartIntList smart = new NBTSmartIntList();
+        smart.addSmartInt(70000);
+        comp.putList("smart", smart);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (NbtWriter writer = new NbtWriter(out, "root")) {
+            comp.accept(writer);
+        }
+        byte[] bytes = TagReader.toByteArray(comp, "root");
+        assertEquals(out.size(), TagReader.serializedSize(comp, "root"));
+        assertArrayEquals(out.toByteArray(), bytes);
+        NBTCompound lazy;
+        try (NbtReader reader = new NbtReader(bytes)) {
+            lazy = reader.toLazyCompoundTag();
+        }
+        assertEquals(comp.serializedSize(), lazy.serializedSize());
+        ByteBuffer small = ByteBuffer.allocate(16);
+        try {
+            TagReader.writeTo(small, comp, "root");
+            fail("Expected an overflow");
+        } catch (IOException e) {
+        }
+    }
+    
+    @Test
+    public void channelWriterTest() throws Exception {
+        NBTCompound comp = new NBTCompound();
+        comp.putByteArray("bytes", TESTBYTES);
+        comp.putByteArray("small", new byte[] { 1, 2, 3 });
+        comp.putLongArray("longs", TESTLONGS);
+        comp.putString("s", "A string");
+        TagReader.toBinaryNBTFile(new File("tmp.dat"), comp);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (NbtWriter writer = new NbtWriter(Channels.newChannel(out), "", 64)) {
+            comp.accept(writer);
+        }
+        byte[] expected = TagReader.toByteArray(comp, "");
+        assertArrayEquals(expected, Files.readAllBytes(new File("tmp.dat").toPath()));
+        assertArrayEquals(expected, out.toByteArray());
+    }
+    
+    @Test
+    public void writerRootValueTest() throws Exception {
+        NBTCompound comp = new NBTCompound();
+        comp.putLongArray("longs", TESTLONGS);
+        comp.putString("s", "A string");
+        byte[] expected = TagReader.toByteArray(comp, "");
+        //A complete root value reaches the stream without a flush
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        NbtWriter writer = new NbtWriter(out, "", 64);
+        comp.accept(writer);
+        assertArrayEquals(expected, out.toByteArray());
+        writer.visitInt(5);
+        assertEquals(expected.length + 7, out.size());
+        writer.close();
+        ByteBuffer buffer = ByteBuffer.allocate(expected.length);
+        writer = new NbtWriter(buffer, "");
+        comp.accept(writer);
+        assertFalse(buffer.hasRemaining());
+        writer.close();
+    }
+    
+    @Test
+    public void writerVisitorLifetimeTest() throws Exception {
+        NBTCompound comp = new NBTCompound();
+        comp.putInt("a", 1);
+        comp.putInt("b", 2);
+        byte[] expected = TagReader.toByteArray(comp, "");
+        //Visitors of the default writer stay valid while their siblings are used
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (NbtWriter writer = new NbtWriter(out)) {
+            NBTCompoundVisitor root = writer.visitCompound();
+            NBTValueVisitor a = root.visitValue("a");
+            NBTValueVisitor b = root.visitValue("b");
+            a.visitInt(1);
+            b.visitInt(2);
+            root.visitEnd();
+        }
+        assertArrayEquals(expected, out.toByteArray());
+        out.reset();
+        try (NbtWriter writer = new NbtWriter(new StreamNbtOutput(out), "", true)) {
+            comp.accept(writer);
+        }
+        assertArrayEquals(expected, out.toByteArray());
+    }
+    
+    @Test
+    public void unknownLengthListTest() throws Exception {
+        NBTCompound expected = new NBTCompound();
+        NBTList outer = new NBTList(NBTType.Compound);
+        for (int i = 0; i < 20; i++) {
+            NBTList values = new NBTList(NBTType.Int);
+            for (int j = 0; j < 100 * i; j++) {
+                values.addInt(j);
+            }
+            NBTCompound element = new NBTCompound();
+            element.putList("values", values);
+            outer.addCompound(element);
+        }
+        expected.putList("outer", outer);
+        expected.putString("after", "done");
+        byte[] bytes = TagReader.toByteArray(expected, "");
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (NbtWriter writer = new NbtWriter(new StreamNbtOutput(out, 64, 256), "")) {
+            writeUnknownLengthLists(writer);
+        }
+        assertArrayEquals(bytes, out.toByteArray());
+        
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length);
+        try (NbtWriter writer = new NbtWriter(buffer, "")) {
+            writeUnknownLengthLists(writer);
+        }
+        assertArrayEquals(bytes, buffer.array());
+        
+        File file = new File("tmp.dat");
+        try (NbtWriter writer = new NbtWriter(FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), "", 64)) {
+            writeUnknownLengthLists(writer);
+        }
+        assertArrayEquals(bytes, Files.readAllBytes(file.toPath()));
+        
+        TagWriter tagWriter = new TagWriter();
+        writeUnknownLengthLists(tagWriter);
+        assertArrayEquals(bytes, TagReader.toByteArray(tagWriter.getCompound(), ""));
+    }
+    
+    private static void writeUnknownLengthLists(NBTValueVisitor writer) {
+        NBTCompoundVisitor root = writer.visitCompound();
+        NBTListVisitor outer = root.visitValue("outer").visitList();
+        outer.visitType(NBTType.Compound);
+        outer.visitLength(NBTListVisitor.UNKNOWN_LENGTH);
+        for (int i = 0; i < 20; i++) {
+            NBTCompoundVisitor element = outer.visitValue().visitCompound();
+            NBTListVisitor values = element.visitValue("values").visitList();
+            values.visitType(NBTType.Int);
+            values.visitLength(NBTListVisitor.UNKNOWN_LENGTH);
+            for (int j = 0; j < 100 * i; j++) {
+                values.visitValue().visitInt(j);
+            }
+            values.visitEnd();
+            element.visitEnd();
+        }
+        outer.visitEnd();
+        root.visitValue("after").visitString("done");
+        root.visitEnd();
+    }
+    
+    @Test
+    public void compressionCodecTest() throws Exception {
+        Random random = new Random(42);
+        byte[] noise = new byte[200000];
+        random.nextBytes(noise);
+        NBTCompound comp = new NBTCompound();
+        comp.putLongArray("longs", TESTLONGS);
+        comp.putByteArray("noise", noise);
+        comp.putString("s", "A string");
+        byte[] expected = TagReader.toByteArray(comp, "");
+        CompressionCodec[] codecs = { CompressionCodec.gzip(), CompressionCodec.gzip(1), CompressionCodec.zlib(9),
+                CompressionCodec.deflate(6), new DeflateCodec(DeflateCodec.Format.ZLIB, 1, Deflater.FILTERED),
+                CompressionCodec.NONE, CompressionCodec.lz4() };
+        for (CompressionCodec codec : codecs) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (CompressedNbtWriter writer = new CompressedNbtWriter(out, codec)) {
+                TagReader.applyVisitor(writer, comp);
+            }
+            NBTTag read;
+            try (CompressedNbtReader reader = new CompressedNbtReader(new ByteArrayInputStream(out.toByteArray()),
+                    codec)) {
+                read = reader.toTag();
+            }
+            assertArrayEquals(codec.toString(), expected, TagReader.toByteArray(read, ""));
+        }
+    }
+    
+    @Test
+    public void detectCompressionTest() throws Exception {
+        NBTCompound comp = new NBTCompound();
+        comp.putLongArray("longs", TESTLONGS);
+        comp.putString("s", "A string");
+        CompressionCodec[] codecs = { CompressionCodec.gzip(), CompressionCodec.zlib(), CompressionCodec.zlib(1),
+                CompressionCodec.zlib(9), CompressionCodec.lz4(), CompressionCodec.NONE };
+        for (CompressionCodec codec : codecs) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (CompressedNbtWriter writer = new CompressedNbtWriter(out, codec)) {
+                TagReader.applyVisitor(writer, comp);
+            }
+            byte[] bytes = out.toByteArray();
+            Files.write(new File("tmp.dat").toPath(), bytes);
+            NbtReader[] readers = { NbtReader.open(bytes), NbtReader.open(new ByteArrayInputStream(bytes)),
+                    NbtReader.open(Channels.newInputStream(Channels.newChannel(new ByteArrayInputStream(bytes)))),
+                    NbtReader.open(new File("tmp.dat")) };
+            for (NbtReader reader : readers) {
+                try (NbtReader r = reader) {
+                    NBTCompound read = r.toCompoundTag();
+                    assertArrayEquals(codec.toString(), TESTLONGS, read.getLongArray("longs"));
+                    assertEquals("A string", read.getString("s"));
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void parallelGzipTest() throws Exception {
+        byte[] noise = new byte[100000];
+        new Random(7).nextBytes(noise);
+        NBTCompound comp = new NBTCompound();
+        comp.putLongArray("longs", TESTLONGS);
+        comp.putByteArray("noise", noise);
+        comp.putIntArray("ints", TESTINTS);
+        byte[] expected = TagReader.toByteArray(comp, "");
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (CompressedNbtWriter writer = new CompressedNbtWriter(out,
+                    new ParallelGzipCodec(6, 1 << 15, executor, 3))) {
+                TagReader.applyVisitor(writer, comp);
+                writer.flush();
+                TagReader.applyVisitor(writer, new NBTCompound());
+            }
+            byte[] decompressed;
+            try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+                decompressed = in.readAllBytes();
+            }
+            assertArrayEquals(expected, Arrays.copyOf(decompressed, expected.length));
+            assertEquals(expected.length + 4, decompressed.length);
+            try (NbtReader reader = NbtReader.open(out.toByteArray())) {
+                assertArrayEquals(TESTINTS, reader.toCompoundTag().getIntArray("ints"));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+    
+    @Test
+    public void zlibPoolTest() throws Exception {
+        NBTCompound comp = new NBTCompound();
+        comp.putLongArray("longs", TESTLONGS);
+        ZlibPool pool = new ZlibPool(1);
+        CompressionCodec codec = new DeflateCodec(DeflateCodec.Format.GZIP, 5, Deflater.DEFAULT_STRATEGY, pool);
+        ByteArrayOutputStream out = null;
+        for (int i = 0; i < 5; i++) {
+            out = new ByteArrayOutputStream();
+            try (CompressedNbtWriter writer = new CompressedNbtWriter(out, codec)) {
+                TagReader.applyVisitor(writer, comp);
+            }
+            try (CompressedNbtReader reader = new CompressedNbtReader(new ByteArrayInputStream(out.toByteArray()),
+                    codec)) {
+                assertArrayEquals(TESTLONGS, reader.toCompoundTag().getLongArray("longs"));
+            }
+        }
+        assertEquals(2, pool.getMisses());
+        assertEquals(8, pool.getHits());
+        assertEquals(2, pool.getIdle());
+        
+        //The total limit applies across levels
+        ZlibPool bounded = new ZlibPool(4, 3);
+        List<Deflater> deflaters = new ArrayList<>();
+        for (int level = 1; level <= 5; level++) {
+            deflaters.add(bounded.acquireDeflater(level, Deflater.DEFAULT_STRATEGY, true));
+        }
+        for (int level = 1; level <= 5; level++) {
+            bounded.release(deflaters.get(level - 1), level, Deflater.DEFAULT_STRATEGY, true);
+        }
+        assertEquals(3, bounded.getIdle());
+        assertEquals(2, bounded.getDiscards());
+        bounded.acquireInflater(false).end();
+        bounded.release(bounded.acquireDeflater(1, Deflater.DEFAULT_STRATEGY, true), 1, Deflater.DEFAULT_STRATEGY,
+                true);
+        assertEquals(3, bounded.getIdle());
+        
+        //Output of the JDK, two concatenated members
+        ByteArrayOutputStream jdk = new ByteArrayOutputStream();
+        for (int i = 0; i < 2; i++) {
+            try (GZIPOutputStream gzip = new GZIPOutputStream(jdk) {
+                @Override
+                public void close() throws IOException {
+                    finish();
+                }
+            }) {
+                gzip.write(TESTBYTES);
+            }
+        }
+        try (InputStream in = codec.decompress(new ByteArrayInputStream(jdk.toByteArray()))) {
+            assertEquals(2 * TESTBYTES.length, in.readAllBytes().length);
+        }
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            assertArrayEquals(TagReader.toByteArray(comp, ""), in.readAllBytes());
+        }
+    }
+    
+    @Test
+    public void regionFileTest() throws Exception {
+        File dir = Files.createTempDirectory("region").toFile();
+        File file = new File(dir, RegionFile.fileName(0, 0));
+        byte[] noise = new byte[2 << 20];
+        new Random(3).nextBytes(noise);
+        NBTCompound big = new NBTCompound();
+        big.putByteArray("noise", noise);
+        try (RegionFile region = new RegionFile(file)) {
+            for (int i = 0; i < 64; i++) {
+                NBTCompound chunk = new NBTCompound();
+                chunk.putInt("i", i);
+                chunk.putLongArray("longs", TESTLONGS);
+                region.writeChunk(i, i / 32, chunk);
+            }
+            //Larger than before, has to move
+            NBTCompound grown = new NBTCompound();
+            grown.putByteArray("noise", Arrays.copyOf(noise, 50000));
+            region.writeChunk(1, 0, grown);
+            region.deleteChunk(2, 0);
+            assertFalse(region.hasChunk(2, 0));
+            assertNull(region.readChunk(2, 0));
+        }
+        try (RegionFile region = new RegionFile(file.toPath(), RegionCompression.NONE)) {
+            assertTrue(region.getTimestamp(0, 0) > 0);
+            try (NbtReader reader = region.readChunk(33, 1)) {
+                assertEquals(33, reader.toCompoundTag().getInt("i"));
+            }
+            try (NbtReader reader = region.readChunk(1, 0)) {
+                assertEquals(50000, reader.toCompoundTag().getByteArray("noise").length);
+            }
+            region.writeChunk(5, 0, big);
+            assertTrue(new File(dir, "c.5.0.mcc").exists());
+            try (NbtReader reader = region.readChunk(5, 0)) {
+                assertArrayEquals(noise, reader.toCompoundTag().getByteArray("noise"));
+            }
+            region.writeChunk(5, 0, new NBTCompound());
+            assertFalse(new File(dir, "c.5.0.mcc").exists());
+            try (NbtReader reader = region.readChunk(0, 0)) {
+                assertArrayEquals(TESTLONGS, reader.toCompoundTag().getLongArray("longs"));
+            }
+        }
+        //Readers keep working while the chunks are rewritten
+        try (RegionFile region = new RegionFile(file)) {
+            ExecutorService executor = Executors.newFixedThreadPool(2);
+            try {
+                Future<?> reads = executor.submit(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        try (NbtReader reader = region.readChunk(i % 32, 0)) {
+                            if (reader != null) {
+                                reader.toCompoundTag();
+                            }
+                        }
+                    }
+                    return null;
+                });
+                for (int i = 0; i < 400; i++) {
+                    NBTCompound chunk = new NBTCompound();
+                    chunk.putByteArray("noise", Arrays.copyOf(noise, i * 97));
+                    region.writeChunk(i % 32, 0, chunk);
+                }
+                reads.get();
+            } finally {
+                executor.shutdown();
+            }
+        }
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+    
+    @Test
+    public void regionCompactionTest() throws Exception {
+        File dir = Files.createTempDirectory("region").toFile();
+        File file = new File(dir, RegionFile.fileName(0, 0));
+        byte[] noise = new byte[20000];
+        new Random(5).nextBytes(noise);
+        try (RegionFile region = new RegionFile(file)) {
+            for (int round = 1; round <= 3; round++) {
+                for (int i = 0; i < 32; i++) {
+                    NBTCompound chunk = new NBTCompound();
+                    chunk.putInt("i", i);
+                    chunk.putByteArray("noise", Arrays.copyOf(noise, round * i * 200));
+                    region.writeChunk(i, i, chunk);
+                }
+            }
+            for (int i = 0; i < 32; i += 3) {
+                region.deleteChunk(i, i);
+            }
+            RegionStats before = region.getStats();
+            assertEquals(21, before.getChunkCount());
+            assertTrue(before.getHoles() > 0);
+            assertTrue(before.getFragmentation() > 0);
+            int timestamp = region.getTimestamp(1, 1);
+            
+            RegionStats after = region.compact();
+            assertEquals(21, after.getChunkCount());
+            assertEquals(0, after.getFreeSectors());
+            assertEquals(0, after.getHoles());
+            assertEquals(after.getFileSectors() * RegionFile.SECTOR_SIZE, file.length());
+            assertEquals(before.getUsedSectors(), after.getUsedSectors());
+            assertEquals(timestamp, region.getTimestamp(1, 1));
+            
+            //Still writable after the channel was replaced
+            region.writeChunk(3, 3, new NBTCompound());
+            assertEquals(after.getFileSectors() + 1, region.getStats().getFileSectors());
+        }
+        assertEquals(0, RegionFile.compact(file.toPath()).getFreeSectors());
+        try (RegionFile region = new RegionFile(file)) {
+            for (int i = 1; i < 32; i++) {
+                try (NbtReader reader = region.readChunk(i, i)) {
+                    if (i == 3) {
+                        assertTrue(reader.toCompoundTag().isEmpty());
+                    } else if (i % 3 == 0) {
+                        assertNull(reader);
+                    } else {
+                        assertEquals(600 * i, reader.toCompoundTag().getByteArray("noise").length);
+                    }
+                }
+            }
+        }
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+    
+    @Test
+    public void worldScannerTest() throws Exception {
+        File dir = Files.createTempDirectory("world").toFile();
+        File regions = new File(dir, "region");
+        regions.mkdir();
+        for (int r = 0; r < 3; r++) {
+            try (RegionFile region = new RegionFile(new File(regions, RegionFile.fileName(r, -1)))) {
+                for (int i = 0; i < 100; i++) {
+                    NBTCompound chunk = new NBTCompound();
+                    chunk.putInt("i", i);
+                    chunk.putString("s", "A string");
+                    region.writeChunk(i, i / 32, chunk);
+                }
+            }
+        }
+        NBTCompound level = new NBTCompound();
+        level.putInt("i", 1000);
+        TagReader.toCompressedBinaryNBTFile(new File(dir, "level.dat"), level);
+        //Chunk 0, 0 of the last region gets an unknown compression type
+        try (FileChannel channel = FileChannel.open(new File(regions, RegionFile.fileName(2, -1)).toPath(),
+                StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] { 9 }), 2 * RegionFile.SECTOR_SIZE + 4);
+        }
+        
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            WorldScanner scanner = new WorldScanner(pool, 2);
+            assertEquals(4, WorldScanner.findFiles(dir.toPath()).size());
+            List<ScanUnit> failed = new ArrayList<>();
+            long sum = scanner.scan(WorldScanner.findFiles(dir.toPath()), unit -> {
+                if (unit.isChunk()) {
+                    assertEquals(-32, unit.getChunkZ() & ~31);
+                }
+                return new TagWriter();
+            }, writer -> (long) writer.getCompound().getInt("i"), Long::sum, (unit, e) -> {
+                synchronized (failed) {
+                    failed.add(unit);
+                }
+            });
+            assertEquals(1, failed.size());
+            assertEquals(64, failed.get(0).getChunkX());
+            assertEquals(-32, failed.get(0).getChunkZ());
+            assertEquals(3 * 99 * 100 / 2 + 1000, sum);
+            //Only workers inside a read are compensated for
+            assertTrue(pool.getPoolSize() <= 3 + 2);
+            try {
+                scanner.scan(dir.toPath(), unit -> new TagWriter(), writer -> 1, Integer::sum);
+                fail();
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("[64, -32]"));
+            }
+        } finally {
+            pool.shutdown();
+        }
+        for (File f : regions.listFiles()) {
+            f.delete();
+        }
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+    }
+    
+    @Test
+    public void worldScannerExternalChunkTest() throws Exception {
+        File dir = Files.createTempDirectory("world").toFile();
+        byte[] noise = new byte[2 << 20];
+        new Random(13).nextBytes(noise);
+        NBTCompound big = new NBTCompound();
+        big.putByteArray("noise", noise);
+        try (RegionFile region = new RegionFile(new File(dir, RegionFile.fileName(1, -1)).toPath(),
+                RegionCompression.NONE)) {
+            region.writeChunk(34, -29, big);
+        }
+        assertTrue(new File(dir, "c.34.-29.mcc").exists());
+        WorldScanner scanner = new WorldScanner();
+        //Stored outside the region file, under its absolute coordinates
+        int length = scanner.scan(dir.toPath(), unit -> new TagWriter(),
+                writer -> writer.getCompound().getByteArray("noise").length, Integer::sum);
+        assertEquals(noise.length, length);
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+    
+    @Test
+    public void readOnlyRegionTest() throws Exception {
+        File dir = Files.createTempDirectory("region").toFile();
+        File file = new File(dir, RegionFile.fileName(0, 0));
+        //Truncated header
+        Files.write(file.toPath(), new byte[100]);
+        try (RegionFile region = RegionFile.openReadOnly(file.toPath())) {
+            assertTrue(region.isReadOnly());
+            assertFalse(region.hasChunk(0, 0));
+            assertNull(region.readChunk(0, 0));
+            try {
+                region.writeChunk(0, 0, new NBTCompound());
+                fail();
+            } catch (IllegalStateException e) {
+            }
+        }
+        assertEquals(100, file.length());
+        assertNull(new WorldScanner().scan(dir.toPath(), unit -> new TagWriter(), writer -> 1, Integer::sum));
+        assertEquals(100, file.length());
+        
+        try (RegionFile region = new RegionFile(file)) {
+            region.writeChunk(0, 0, new NBTCompound());
+        }
+        assertTrue(file.setWritable(false));
+        try (RegionFile region = RegionFile.openReadOnly(file.toPath()); NbtReader reader = region.readChunk(0, 0)) {
+            assertTrue(reader.toCompoundTag().isEmpty());
+        } finally {
+            file.setWritable(true);
+        }
+        file.delete();
+        dir.delete();
+    }
+    
+    @Test
+    public void concurrentExternalChunkTest() throws Exception {
+        File dir = Files.createTempDirectory("region").toFile();
+        NBTCompound big = new NBTCompound();
+        big.putByteArray("noise", new byte[2 << 20]);
+        NBTCompound small = new NBTCompound();
+        small.putByteArray("noise", new byte[10]);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (RegionFile region = new RegionFile(new File(dir, RegionFile.fileName(0, 0)).toPath(),
+                RegionCompression.NONE)) {
+            region.writeChunk(0, 0, big);
+            //The external file is removed whenever the chunk moves back into the region
+            Future<?> writer = executor.submit(() -> {
+                for (int i = 0; i < 400; i++) {
+                    region.writeChunk(0, 0, i % 2 == 0 ? small : big);
+                }
+                return null;
+            });
+            List<Future<?>> readers = new ArrayList<>();
+            for (int t = 0; t < 3; t++) {
+                readers.add(executor.submit(() -> {
+                    while (!writer.isDone()) {
+                        try (NbtReader reader = region.readChunk(0, 0)) {
+                            int length = reader.toCompoundTag().getByteArray("noise").length;
+                            assertTrue(length == 10 || length == 2 << 20);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            writer.get();
+            for (Future<?> reader : readers) {
+                reader.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+    
+    @Test
+    public void interruptedRegionReadTest() throws Exception {
+        File dir = Files.createTempDirectory("region").toFile();
+        File file = new File(dir, RegionFile.fileName(0, 0));
+        try (RegionFile region = new RegionFile(file)) {
+            region.writeChunk(0, 0, new NBTCompound());
+            Thread.currentThread().interrupt();
+            try {
+                region.readChunk(0, 0);
+                fail();
+            } catch (ClosedByInterruptException e) {
+            }
+            assertTrue(Thread.interrupted());
+            //The channel closed by the interrupt is replaced
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                assertTrue(executor.submit(() -> {
+                    try (NbtReader reader = region.readChunk(0, 0)) {
+                        return reader.toCompoundTag().isEmpty();
+                    }
+                }).get());
+            } finally {
+                executor.shutdown();
+            }
+            region.writeChunk(1, 0, new NBTCompound());
+            assertTrue(region.hasChunk(1, 0));
+        }
+        RegionFile closed = new RegionFile(file);
+        try {
+            assertTrue(closed.hasChunk(1, 0));
+        } finally {
+            closed.close();
+        }
+        //A closed region is not reopened
+        try {
+            closed.readChunk(0, 0);
+            fail();
+        } catch (ClosedChannelException e) {
+        }
+        file.delete();
+        dir.delete();
+    }
+    
+    @Test
+    public void compoundStorageTest() throws Exception {
+        NBTCompound comp = new NBTCompound();
+        Map<String, NBTTag> expected = new LinkedHashMap<>();
+        Random random = new Random(11);
+        for (int i = 0; i < 2000; i++) {
+            String key = "k" + random.nextInt(300);
+            if (random.nextInt(4) == 0) {
+                assertEquals(expected.remove(key) != null, comp.remove(key) != null);
+            } else {
+                comp.putInt(key, i);
+                expected.put(key, comp.get(key));
+            }
+            if (i % 100 == 0) {
+                //Back to linear storage, then growing again
+                comp.removeAll();
+                expected.clear();
+            }
+            assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(comp.keySet()));
+        }
+        assertEquals(expected.entrySet(), comp.entrySet());
+        for (String key : expected.keySet()) {
+            assertTrue(comp.hasKey(key));
+            assertTrue(comp.keySet().contains(key));
+        }
+        assertFalse(comp.hasKey("k300"));
+        
+        Entry<String, NBTTag> first = comp.entrySet().iterator().next();
+        try {
+            first.setValue(new NBTCompound());
+            fail();
+        } catch (UnsupportedOperationException e) {
+        }
+        try {
+            comp.keySet().remove(first.getKey());
+            fail();
+        } catch (UnsupportedOperationException e) {
+        }
+        try {
+            for (String key : comp.keySet()) {
+                comp.remove(key);
+            }
+            fail();
+        } catch (ConcurrentModificationException e) {
+        }
+        
+        NBTCompound copy = comp.cpy();
+        assertEquals(new ArrayList<>(comp.keySet()), new ArrayList<>(copy.keySet()));
+        byte[] bytes = TagReader.toByteArray(comp, "");
+        try (NbtReader reader = new NbtReader(new ByteArrayInputStream(bytes))) {
+            assertEquals(new ArrayList<>(comp.keySet()), new ArrayList<>(reader.toCompoundTag().keySet()));
+        }
+    }
+    
+    @Test
+    public void nbtKeyTest() throws Exception {
+        //Same names as the former "^[\\w\\d][\\w\\d ]*$"
+        for (char c = 0; c < 512; c++) {
+            for (String name : new String[] { "" + c, "a" + c, c + "a" }) {
+                assertEquals(name, name.matches("^[\\w\\d][\\w\\d ]*$"), NbtKey.isValid(name));
+            }
+        }
+        assertFalse(NbtKey.isValid(""));
+        try {
+            NbtKey.of("  ");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Name is empty or blank", e.getMessage());
+        }
+        try {
+            new NBTCompound().putInt("a.b", 1);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        
+        NbtKey count = NbtKey.of("Count");
+        NbtKey id = NbtKey.of("id");
+        NBTCompound comp = new NBTCompound();
+        comp.putByte(count, (byte) 3);
+        comp.putString("id", "stone");
+        assertEquals(3, comp.getByte("Count"));
+        assertEquals("stone", comp.getString(id));
+        assertEquals(7, comp.getIntOrDefault(NbtKey.of("Damage"), 7));
+        //Past the linear scan
+        for (int i = 0; i < 20; i++) {
+            comp.putInt(NbtKey.of("k" + i), i);
+        }
+        assertEquals(3, comp.getIntegerSmart(count));
+        assertEquals(19, comp.getInt("k19"));
+        assertTrue(comp.hasKey(NbtKey.of("k7")));
+        assertEquals(NBTType.Int, comp.remove(NbtKey.of("k7"), NBTType.Int).type());
+        assertFalse(comp.hasKey("k7"));
+        assertEquals("stone", comp.getString(id));
+        try {
+            comp.getInt(id);
+            fail();
+        } catch (NBTTypeException e) {
+        }
+    }
+    
     @Test
     public void longArrayTest() throws Exception {
         NBTCompound comp = new NBTCompound();